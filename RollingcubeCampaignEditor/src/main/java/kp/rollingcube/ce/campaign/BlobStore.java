@@ -0,0 +1,273 @@
+package kp.rollingcube.ce.campaign;
+
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import kp.rollingcube.ce.utils.FileUtils;
+import kp.rollingcube.ce.utils.IOUtils;
+import kp.rollingcube.ce.utils.PngOptimizer;
+import lombok.NonNull;
+
+/**
+ * Content addressed store of the payloads of a campaign: level data, level thumbnails and
+ * the thumbnails of the campaign and its episodes.
+ *
+ * Payloads are interned by the hash of their content, so identical ones are held once in memory.
+ * The store only keeps weak references, a payload is released as soon as nothing else uses it.
+ * While a campaign is saved, the store remembers where each payload was written, and writes the
+ * next copies as links or copies of that file, or as aliases of the same blob inside a pack.
+ *
+ * @author Marc
+ */
+public final class BlobStore
+{
+    private static final int ENCODING_CHUNK_SIZE = 8192;
+    
+    private final HashMap<String, BlobReference> blobs = new HashMap<>();
+    private final ReferenceQueue<Object> released = new ReferenceQueue<>();
+    private long heldBytes;
+    private long deduplicatedBytes;
+    
+    // Where each payload has been written by the save in progress, a Path or a packed name.
+    private final IdentityHashMap<Object, Object> written = new IdentityHashMap<>();
+    private long savingDeduplicatedBytes;
+    private long savedDeduplicatedBytes;
+    
+    // Images already optimized by the save in progress, so each distinct one is encoded once.
+    private final IdentityHashMap<byte[], byte[]> optimized = new IdentityHashMap<>();
+    
+    BlobStore() {}
+    
+    // Bytes of the distinct payloads currently held.
+    public synchronized long getHeldBytes()
+    {
+        expungeReleased();
+        return heldBytes;
+    }
+    
+    // Bytes that were not held again because an identical payload was already held.
+    public synchronized long getDeduplicatedBytes() { return deduplicatedBytes; }
+    
+    // Bytes the last save linked, copied or aliased instead of writing them again.
+    public synchronized long getSaveDeduplicatedBytes() { return savedDeduplicatedBytes; }
+    
+    byte[] intern(byte[] blob) { return blob == null ? null : intern(blob, keyOf(blob)); }
+    String intern(String blob) { return blob == null ? null : intern(blob, keyOf(blob)); }
+    
+    // Interns blob under the key keyOf gave for the same content before, without hashing it again.
+    byte[] intern(byte[] blob, Key key) { return blob == null ? null : (byte[]) intern(key, blob); }
+    String intern(String blob, Key key) { return blob == null ? null : (String) intern(key, blob); }
+    
+    @NonNull Key keyOf(@NonNull byte[] blob) { return new Key("b" + IOUtils.contentHash(blob), blob.length); }
+    
+    // The hash of the UTF-8 encoding of blob, encoded a chunk at a time so it is never copied whole.
+    @NonNull Key keyOf(@NonNull String blob)
+    {
+        var digest = IOUtils.contentDigest();
+        var encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        var chars = CharBuffer.wrap(blob);
+        var chunk = ByteBuffer.allocate(ENCODING_CHUNK_SIZE);
+        int size = 0;
+        
+        CoderResult result;
+        do
+        {
+            result = encoder.encode(chars, chunk, true);
+            size += digestChunk(digest, chunk);
+        }
+        while(result.isOverflow());
+        do
+        {
+            result = encoder.flush(chunk);
+            size += digestChunk(digest, chunk);
+        }
+        while(result.isOverflow());
+        
+        return new Key("s" + IOUtils.contentHash(digest), size);
+    }
+    private static int digestChunk(MessageDigest digest, ByteBuffer chunk)
+    {
+        chunk.flip();
+        int size = chunk.remaining();
+        digest.update(chunk);
+        chunk.clear();
+        return size;
+    }
+    
+    private synchronized Object intern(Key key, Object blob)
+    {
+        expungeReleased();
+        var reference = blobs.get(key.hash);
+        var held = reference == null ? null : reference.get();
+        if(held != null)
+        {
+            if(held != blob)
+                deduplicatedBytes += key.size;
+            return held;
+        }
+        
+        if(reference != null)
+            heldBytes -= reference.size;
+        blobs.put(key.hash, new BlobReference(key.hash, blob, key.size, released));
+        heldBytes += key.size;
+        return blob;
+    }
+    
+    private void expungeReleased()
+    {
+        BlobReference reference;
+        while((reference = (BlobReference) released.poll()) != null)
+        {
+            if(blobs.remove(reference.key, reference))
+                heldBytes -= reference.size;
+        }
+    }
+    
+    synchronized void startSave()
+    {
+        written.clear();
+        optimized.clear();
+        savingDeduplicatedBytes = 0;
+    }
+    
+    synchronized void finishSave()
+    {
+        written.clear();
+        optimized.clear();
+        savedDeduplicatedBytes = savingDeduplicatedBytes;
+    }
+    
+    // Smallest PNG encoding of the image blob, interned as well.
+    byte[] optimizeImage(@NonNull byte[] blob, int maxSize)
+    {
+        synchronized(this)
+        {
+            var result = optimized.get(blob);
+            if(result != null)
+                return result;
+        }
+        
+        var result = intern(PngOptimizer.optimize(blob, maxSize));
+        synchronized(this) { optimized.put(blob, result); }
+        return result;
+    }
+    
+    // The encoding of the image to write: the one optimizeImage made during the save in progress, or image itself.
+    synchronized byte[] getOptimizedImage(byte[] image)
+    {
+        var result = image == null ? null : optimized.get(image);
+        return result == null ? image : result;
+    }
+    
+    synchronized @NonNull Map<byte[], byte[]> getOptimizedImages() { return new IdentityHashMap<>(optimized); }
+    
+    void write(@NonNull String blob, @NonNull Path target, boolean link) throws IOException
+    {
+        if(!writeWritten(blob, target, link))
+        {
+            // Deleting first keeps a hard linked copy of the file in another campaign untouched.
+            Files.deleteIfExists(target);
+            IOUtils.writeToFile(target, blob, StandardCharsets.UTF_8);
+            markWritten(blob, target);
+        }
+    }
+    
+    void write(@NonNull byte[] blob, @NonNull Path target, boolean link) throws IOException
+    {
+        if(!writeWritten(blob, target, link))
+        {
+            Files.deleteIfExists(target);
+            IOUtils.writeAllBytesToFile(target, blob);
+            markWritten(blob, target);
+        }
+    }
+    
+    // A payload is only recorded once its file is complete, so two levels writing the same
+    // payload at the same time may both write it, but no link is made to a half written file.
+    private boolean writeWritten(Object blob, Path target, boolean link) throws IOException
+    {
+        var file = (Path) findWritten(blob, Path.class);
+        if(file == null)
+            return false;
+        
+        if(link)
+            FileUtils.linkOrTransfer(file, target);
+        else
+            FileUtils.transfer(file, target);
+        return true;
+    }
+    
+    void pack(Object blob, @NonNull String name, @NonNull CampaignPack.Writer writer) throws IOException
+    {
+        if(blob == null)
+            return;
+        
+        var packedName = (String) findWritten(blob, String.class);
+        if(packedName != null)
+            writer.alias(name, packedName);
+        else
+        {
+            if(blob instanceof String)
+                writer.add(name, (String) blob);
+            else
+                writer.add(name, (byte[]) blob);
+            markWritten(blob, name);
+        }
+    }
+    
+    private synchronized Object findWritten(Object blob, Class<?> locationType)
+    {
+        var location = written.get(blob);
+        if(!locationType.isInstance(location))
+            return null;
+        
+        savingDeduplicatedBytes += blob instanceof byte[]
+                ? ((byte[]) blob).length
+                : ((String) blob).getBytes(StandardCharsets.UTF_8).length;
+        return location;
+    }
+    
+    private synchronized void markWritten(Object blob, Object location) { written.putIfAbsent(blob, location); }
+    
+    
+    /**
+     * Address of a payload in the store: the hash of its content, and its size.
+     */
+    static final class Key
+    {
+        private final String hash;
+        private final int size;
+        
+        private Key(String hash, int size)
+        {
+            this.hash = hash;
+            this.size = size;
+        }
+    }
+    
+    private static final class BlobReference extends WeakReference<Object>
+    {
+        private final String key;
+        private final int size;
+        
+        private BlobReference(String key, Object blob, int size, ReferenceQueue<Object> queue)
+        {
+            super(blob, queue);
+            this.key = key;
+            this.size = size;
+        }
+    }
+}
@@ -1,16 +1,33 @@
 package kp.rollingcube.ce.campaign;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import kp.rollingcube.ce.utils.DirectoryUtils;
+import kp.rollingcube.ce.utils.FileUtils;
+import kp.rollingcube.ce.utils.GlobalProperties;
 import kp.rollingcube.ce.utils.IOUtils;
 import kp.rollingcube.ce.utils.MathUtils;
+import kp.rollingcube.ce.utils.Permutations;
 import kp.rollingcube.ce.utils.StringUtils;
+import kp.rollingcube.ce.utils.TaskPool;
 import lombok.Getter;
 import lombok.NonNull;
 import org.json.JSONArray;
@@ -30,9 +47,31 @@ public final class Campaign
     @Getter private Integer defaultUnlockedNormalLevels;
     private byte[] thumbnail;
     
+    // Payloads of the campaign, each distinct one held once.
+    @Getter private final BlobStore blobStore = new BlobStore();
+    
+    @Getter private final CampaignJournal journal = new CampaignJournal(this);
+    
+    // Open pack the campaign is stored in, null when it is stored as a folder.
+    private CampaignPack pack;
+    
     private final ArrayList<Episode> episodes = new ArrayList<>();
     private final HashMap<String, Episode> episodesByName = new HashMap<>();
     
+    private boolean stored;
+    private boolean propertiesDirty;
+    private boolean thumbnailDirty;
+    private final HashSet<String> removedEpisodes = new HashSet<>();
+    private CampaignSnapshot snapshot;
+    private JSONObject json;
+    private final AtomicBoolean saving = new AtomicBoolean();
+    
+    private final CopyOnWriteArrayList<CampaignListener> listeners = new CopyOnWriteArrayList<>();
+    
+    // Levels being scanned by a metadata warm-up. Stopping the warm-ups moves on to a new generation.
+    private final Set<Level> warmingUpLevels = ConcurrentHashMap.newKeySet();
+    private volatile int warmUpGeneration;
+    
     private Campaign(Path path)
     {
         this.path = path;
@@ -47,15 +86,164 @@ public final class Campaign
     public boolean hasThumbnail() { return thumbnail != null; }
     public Optional<byte[]> getThumbnail() { return Optional.ofNullable(thumbnail); }
     
-    public void setName(String name) { this.name = StringUtils.nonNull(name); }
-    public void setRequiredFruitsToBonus(int value) { this.requiredFruitsToBonus = MathUtils.clamp(value, 0, 5); }
-    public void setLevelsUntilSaveGame(int value) { this.levelsUntilSaveGame = Math.max(0, value); }
+    public boolean isPacked() { return pack != null; }
+    
+    public void addListener(@NonNull CampaignListener listener) { listeners.addIfAbsent(listener); }
+    public void removeListener(CampaignListener listener) { listeners.remove(listener); }
+    
+    void fireEvent(@NonNull Consumer<CampaignListener> event)
+    {
+        for(var listener : listeners)
+            event.accept(listener);
+    }
+    
+    public static boolean isPackPath(Path path) { return CampaignPack.isPackPath(path); }
+    
+    // Name of a campaign file inside a pack: its path relative to the campaign folder, with '/' separators.
+    @NonNull String toPackedName(@NonNull Path file)
+    {
+        var sb = new StringBuilder();
+        for(var part : path.relativize(file))
+        {
+            if(sb.length() > 0)
+                sb.append('/');
+            sb.append(part);
+        }
+        return sb.toString();
+    }
+    
+    // Reads a stored file of the campaign, from its folder or from its pack. Returns null if it does not exist.
+    byte[] readStoredFile(@NonNull Path file) throws IOException
+    {
+        if(pack != null)
+            return pack.readBytes(toPackedName(file));
+        return Files.isRegularFile(file) ? IOUtils.readAllBytesFromFile(file) : null;
+    }
+    
+    @NonNull LevelSource findLevelSource(@NonNull Level level)
+    {
+        return pack != null ? LevelSource.of(pack, level) : LevelSource.of(level.getLocation());
+    }
+    
+    public void setName(String name)
+    {
+        name = StringUtils.nonNull(name);
+        if(!name.equals(this.name))
+        {
+            var formerName = this.name;
+            var newName = name;
+            this.name = name;
+            markPropertiesDirty();
+            journal.record(() -> new CampaignEdit.SetProperty<>(this, "name", this::setName, formerName, newName));
+        }
+    }
+    public void setRequiredFruitsToBonus(int value)
+    {
+        value = MathUtils.clamp(value, 0, 5);
+        if(value != requiredFruitsToBonus)
+        {
+            int formerValue = requiredFruitsToBonus;
+            int newValue = value;
+            this.requiredFruitsToBonus = value;
+            markPropertiesDirty();
+            journal.record(() -> new CampaignEdit.SetProperty<Integer>(this, "requiredFruitsToBonus", this::setRequiredFruitsToBonus, formerValue, newValue));
+        }
+    }
+    public void setLevelsUntilSaveGame(int value)
+    {
+        value = Math.max(0, value);
+        if(value != levelsUntilSaveGame)
+        {
+            int formerValue = levelsUntilSaveGame;
+            int newValue = value;
+            this.levelsUntilSaveGame = value;
+            markPropertiesDirty();
+            journal.record(() -> new CampaignEdit.SetProperty<Integer>(this, "levelsUntilSaveGame", this::setLevelsUntilSaveGame, formerValue, newValue));
+        }
+    }
     public void setDefaultUnlockedNormalLevels(Integer value)
     {
-        if(value == null)
-            this.defaultUnlockedNormalLevels = null;
-        else
-            this.defaultUnlockedNormalLevels = Math.max(1, value);
+        if(value != null)
+            value = Math.max(1, value);
+        
+        if(!Objects.equals(value, defaultUnlockedNormalLevels))
+        {
+            var formerValue = defaultUnlockedNormalLevels;
+            var newValue = value;
+            this.defaultUnlockedNormalLevels = value;
+            markPropertiesDirty();
+            journal.record(() -> new CampaignEdit.SetProperty<>(this, "defaultUnlockedNormalLevels", this::setDefaultUnlockedNormalLevels, formerValue, newValue));
+        }
+    }
+    
+    public boolean isDirty()
+    {
+        if(isPropertiesDirty() || thumbnailDirty || !removedEpisodes.isEmpty())
+            return true;
+        
+        for(var episode : episodes)
+            if(episode.isDirty())
+                return true;
+        return false;
+    }
+    
+    private boolean isPropertiesDirty()
+    {
+        if(propertiesDirty)
+            return true;
+        
+        for(var episode : episodes)
+            if(episode.isPropertiesDirty())
+                return true;
+        return false;
+    }
+    
+    private void markPropertiesDirty()
+    {
+        propertiesDirty = true;
+        invalidateSnapshot();
+    }
+    
+    private void markStored()
+    {
+        stored = true;
+        propertiesDirty = false;
+        thumbnailDirty = false;
+        removedEpisodes.clear();
+        for(var episode : episodes)
+            episode.markStored();
+        invalidateSnapshot();
+    }
+    
+    // Immutable view of the campaign as it is now, see CampaignSnapshot. Must be taken from the
+    // thread the campaign is changed from.
+    public @NonNull CampaignSnapshot snapshot()
+    {
+        if(snapshot == null)
+        {
+            var episodeSnapshots = new ArrayList<EpisodeSnapshot>(episodes.size());
+            for(var episode : episodes)
+                episodeSnapshots.add(episode.snapshot());
+            if(json == null)
+                json = toJson(episodeSnapshots);
+            snapshot = new CampaignSnapshot(this, path, name, json, thumbnail,
+                    episodeSnapshots, isPropertiesDirty(), thumbnailDirty, removedEpisodes);
+        }
+        return snapshot;
+    }
+    
+    void invalidateSnapshot()
+    {
+        snapshot = null;
+        json = null;
+    }
+    
+    // A level changed, which leaves the JSON of the campaign and of its episodes as it was.
+    void invalidateLevelSnapshot() { snapshot = null; }
+    
+    public boolean isStoredAt(@NonNull Path path)
+    {
+        return stored && this.path.toAbsolutePath().normalize().equals(path.toAbsolutePath().normalize());
     }
     
     public boolean hasAnyEpisode() { return !episodes.isEmpty(); }
@@ -63,6 +251,25 @@ public final class Campaign
     
     public Iterable<Episode> getEpisodes() { return episodes; }
     
+    // Totals of the secret links of every episode. Each episode keeps its own counts, see SecretLinks.
+    public int getBrokenSecretExitsCount()
+    {
+        int count = 0;
+        for(var episode : episodes)
+            count += episode.getSecretLinks().getBrokenExitsCount();
+        return count;
+    }
+    
+    public int getOrphanSecretLevelsCount()
+    {
+        int count = 0;
+        for(var episode : episodes)
+            count += episode.getSecretLinks().getOrphanSecretLevelsCount();
+        return count;
+    }
+    
+    public boolean hasBrokenSecretLinks() { return getBrokenSecretExitsCount() > 0 || getOrphanSecretLevelsCount() > 0; }
+    
     public boolean hasEpisode(String name)
     {
         if(StringUtils.isNullOrBlank(name))
@@ -99,9 +306,19 @@ public final class Campaign
         var episode = new Episode(this, episodes.size(), name);
         episodes.add(episode);
         episodesByName.put(episode.getName(), episode);
+        markPropertiesDirty();
         
-        Files.createDirectories(episode.getPath());
+        // The folder of a removed episode with the same name is replaced by the next save.
+        if(pack == null)
+        {
+            if(removedEpisodes.contains(name))
+                episode.forgetStorage();
+            else
+                Files.createDirectories(episode.getPath());
+        }
         
+        journal.record(() -> CampaignEdit.Episodes.added(episode));
+        fireEvent(listener -> listener.episodeAdded(episode));
         return episode;
     }
     
@@ -112,17 +329,42 @@ public final class Campaign
         
         var episode = getEpisode(currentName);
         
+        // The save reads the files of the episode from the folder named after it.
+        if(isSaving())
+            throw new IllegalStateException("Episodes cannot be renamed while the campaign is being saved");
+        
         if(hasEpisode(newName))
             throw new IllegalArgumentException(String.format("Episode \"%s\" already exists", newName));
         
         var sourcePath = episode.getPath();
+        var formerName = episode.getName();
         episodesByName.remove(episode.getName());
         
         episode.setName(newName);
         episodesByName.put(episode.getName(), episode);
+        markPropertiesDirty();
         var destPath = episode.getPath();
         
-        Files.move(sourcePath, destPath, StandardCopyOption.REPLACE_EXISTING);
+        // Packed levels keep their entries until the next save writes them under the new name.
+        // The folder of a removed episode is only deleted by the next save, so an episode renamed
+        // over it, or one whose folder is not its own, is written whole by that save instead.
+        if(pack == null)
+        {
+            if(episode.needsRewrite() || removedEpisodes.contains(newName))
+            {
+                removedEpisodes.add(formerName);
+                episode.forgetStorage();
+            }
+            else
+            {
+                Files.move(sourcePath, destPath, StandardCopyOption.REPLACE_EXISTING);
+                episode.relocateLevels(sourcePath, destPath);
+                journal.relocate(sourcePath, destPath);
+            }
+        }
+        
+        journal.record(() -> new CampaignEdit.RenameEpisode(formerName, newName));
+        fireEvent(listener -> listener.episodeRenamed(episode, formerName));
     }
     
     public void swapEpisodes(int sourceIndex, int targetIndex)
@@ -143,6 +385,10 @@ public final class Campaign
         
         episodes.set(current.getIndex(), current);
         episodes.set(target.getIndex(), target);
+        markPropertiesDirty();
+        
+        journal.record(() -> new CampaignEdit.SwapEpisodes(sourceIndex, targetIndex));
+        fireEvent(listener -> listener.episodesSwapped(current, target));
     }
     
     public void removeEpisode(String name)
@@ -151,91 +397,557 @@ public final class Campaign
             throw new IllegalArgumentException("Episode name cannot be null or empty");
         
         var episode = getEpisode(name);
+        int formerIndex = episode.getIndex();
         episodesByName.remove(episode.getName());
-        episodes.remove(episode.getIndex());
+        episodes.remove(formerIndex);
+        removedEpisodes.add(episode.getName());
+        markPropertiesDirty();
         
-        for(int i = 0; i < episodes.size(); ++i)
+        for(int i = formerIndex; i < episodes.size(); ++i)
+            episodes.get(i).setIndex(i);
+        
+        journal.record(() -> CampaignEdit.Episodes.removed(List.of(episode), new int[] { formerIndex }));
+        fireEvent(listener -> listener.episodeRemoved(episode, formerIndex));
+    }
+    
+    // Scans in the background every level whose metadata is not known yet, in parallel, and fires
+    // levelMetadataLoaded for each one. The levels are collected on the calling thread.
+    public void warmUpMetadata()
+    {
+        var levels = new ArrayList<Level>();
+        for(var episode : episodes)
+            episode.collectLevelsWithoutMetadata(levels);
+        warmUpMetadata(levels);
+    }
+    
+    public void warmUpMetadata(@NonNull Level level) { warmUpMetadata(List.of(level)); }
+    
+    // The levels not scanned yet by the running warm-ups are left as they are.
+    public void stopMetadataWarmUp() { warmUpGeneration++; }
+    
+    private void warmUpMetadata(List<Level> levels)
+    {
+        var pending = new ArrayList<Level>(levels.size());
+        for(var level : levels)
+            if(!level.hasMetadata() && warmingUpLevels.add(level))
+                pending.add(level);
+        if(pending.isEmpty())
+            return;
+        
+        int generation = warmUpGeneration;
+        var thread = new Thread(() -> {
+            try(var pool = new TaskPool(Math.min(pending.size(), TaskPool.defaultParallelism()), "level-metadata"))
+            {
+                for(var level : pending)
+                {
+                    pool.submit(() -> {
+                        try
+                        {
+                            if(generation == warmUpGeneration)
+                            {
+                                level.loadMetadata();
+                                fireEvent(listener -> listener.levelMetadataLoaded(level));
+                            }
+                        }
+                        finally { warmingUpLevels.remove(level); }
+                    });
+                }
+                pool.await();
+            }
+            catch(IOException | InterruptedException | RuntimeException ex) { ex.printStackTrace(System.err); }
+        }, "level-metadata-warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    // Moves the episode at from to the position to, shifting the episodes in between by one.
+    public void moveEpisode(int from, int to) throws IndexOutOfBoundsException
+    {
+        Objects.checkIndex(from, episodes.size());
+        Objects.checkIndex(to, episodes.size());
+        if(from == to)
+            return;
+        
+        var episode = episodes.get(from);
+        int step = from < to ? 1 : -1;
+        for(int i = from; i != to; i += step)
+            episodes.set(i, episodes.get(i + step));
+        episodes.set(to, episode);
+        
+        int first = Math.min(from, to);
+        int last = Math.max(from, to);
+        reindexEpisodes(first, last);
+        markPropertiesDirty();
+        journal.record(() -> new CampaignEdit.MoveEpisode(from, to));
+        fireEvent(listener -> listener.episodesReordered(first, last));
+    }
+    
+    // Removes the named episodes in a single pass.
+    public void removeEpisodes(@NonNull Collection<String> names) throws IllegalArgumentException
+    {
+        var formerIndices = names.stream().mapToInt(name -> getEpisode(name).getIndex()).sorted().distinct().toArray();
+        if(formerIndices.length == 0)
+            return;
+        
+        var removed = new ArrayList<Episode>(formerIndices.length);
+        int next = 0;
+        int kept = formerIndices[0];
+        for(int i = formerIndices[0]; i < episodes.size(); i++)
+        {
+            var episode = episodes.get(i);
+            if(next < formerIndices.length && formerIndices[next] == i)
+            {
+                removed.add(episode);
+                episodesByName.remove(episode.getName());
+                removedEpisodes.add(episode.getName());
+                next++;
+            }
+            else
+                episodes.set(kept++, episode);
+        }
+        episodes.subList(kept, episodes.size()).clear();
+        
+        reindexEpisodes(formerIndices[0], episodes.size() - 1);
+        markPropertiesDirty();
+        journal.record(() -> CampaignEdit.Episodes.removed(removed, formerIndices));
+        fireEvent(listener -> listener.episodesRemoved(removed, formerIndices));
+    }
+    
+    // Puts back episodes removed by removeEpisodes, at the sorted indices they were removed from.
+    // See CampaignJournal. An episode no save has stored elsewhere since finds its folder as it left it.
+    // The others are written whole by the next save, which replaces what is left under their name.
+    void restoreEpisodes(@NonNull List<Episode> restored, @NonNull int[] indices) throws IllegalArgumentException
+    {
+        if(restored.isEmpty())
+            return;
+        if(indices.length != restored.size())
+            throw new IllegalArgumentException("Expected an index for each episode");
+        for(var episode : restored)
+            if(episode.getCampaign() != this || episodesByName.containsKey(episode.getName()))
+                throw new IllegalArgumentException(String.format("Episode \"%s\" cannot be put back", episode.getName()));
+        
+        int size = episodes.size() + restored.size();
+        Objects.checkIndex(indices[indices.length - 1], size);
+        
+        for(var episode : restored)
+            if(!episode.needsRewrite())
+                removedEpisodes.remove(episode.getName());
+        
+        // From the end, so every episode is moved once.
+        int kept = episodes.size() - 1;
+        episodes.addAll(Collections.nCopies(restored.size(), null));
+        int next = restored.size() - 1;
+        for(int i = size - 1; next >= 0; i--)
+        {
+            if(indices[next] == i)
+                episodes.set(i, restored.get(next--));
+            else
+                episodes.set(i, episodes.get(kept--));
+        }
+        restored.forEach(episode -> episodesByName.put(episode.getName(), episode));
+        
+        reindexEpisodes(indices[0], size - 1);
+        markPropertiesDirty();
+        for(var episode : restored)
+            fireEvent(listener -> listener.episodeAdded(episode));
+    }
+    
+    // Puts each episode at the index given for it: the episode at i moves to permutation[i].
+    public void reorderEpisodes(@NonNull int[] permutation) throws IllegalArgumentException
+    {
+        var range = Permutations.apply(episodes, permutation);
+        if(range == null)
+            return;
+        
+        reindexEpisodes(range[0], range[1]);
+        markPropertiesDirty();
+        journal.record(() -> new CampaignEdit.ReorderEpisodes(permutation));
+        fireEvent(listener -> listener.episodesReordered(range[0], range[1]));
+    }
+    
+    private void reindexEpisodes(int first, int last)
+    {
+        for(int i = first; i <= last && i < episodes.size(); i++)
             episodes.get(i).setIndex(i);
     }
     
     public void changeThumbnail(Path path) throws IOException
     {
         var data = IOUtils.readAllBytesFromFile(path);
-        thumbnail = data;
+        setThumbnail(blobStore.intern(data));
     }
     
-    public void removeThumbnail()
+    public void removeThumbnail() { setThumbnail(null); }
+    
+    private void setThumbnail(byte[] thumbnail)
     {
-        thumbnail = null;
+        if(thumbnail == this.thumbnail)
+            return;
+        
+        var formerThumbnail = this.thumbnail;
+        this.thumbnail = thumbnail;
+        thumbnailDirty = true;
+        invalidateSnapshot();
+        journal.record(() -> new CampaignEdit.ChangeThumbnail(this, this::setThumbnail, formerThumbnail, thumbnail));
     }
     
-    public CampaingLoadSaveState save(Path path) throws IllegalArgumentException
+    public CampaingLoadSaveState save(Path path) throws IllegalArgumentException, IllegalStateException { return save(path, false); }
+    
+    // With linkFiles, a save into a new folder hard links the unchanged level files instead of copying them.
+    // The campaign takes its new storage from the thread of the save, so it must not change until the state finishes.
+    public CampaingLoadSaveState save(Path path, boolean linkFiles) throws IllegalArgumentException, IllegalStateException
     {
+        return save(path, linkFiles, Runnable::run);
+    }
+    
+    // Saves the snapshot taken right now, so the campaign may keep changing while it is written.
+    // Once the files are in place, modelThread, the thread the campaign is changed from, gives the
+    // campaign its new storage and then finishes the state. Only one save of a campaign runs at a time,
+    // and the campaign counts as being saved from now until the state finishes, so it must be started.
+    public CampaingLoadSaveState save(Path path, boolean linkFiles, @NonNull Executor modelThread) throws IllegalArgumentException, IllegalStateException
+    {
+        if(!saving.compareAndSet(false, true))
+            throw new IllegalStateException("The campaign is already being saved");
+        
+        try { return prepareSave(journal.prepareSave(), snapshot(), path, linkFiles, modelThread); }
+        catch(RuntimeException ex)
+        {
+            saving.set(false);
+            throw ex;
+        }
+    }
+    
+    // The levels the journal holds out of the campaign are detached from the thread of the save.
+    private CampaingLoadSaveState prepareSave(List<Level> removedLevels, CampaignSnapshot saved, Path path, boolean linkFiles, Executor modelThread)
+    {
+        if(isPackPath(path))
+        {
+            if(Files.isDirectory(path))
+                throw new IllegalArgumentException(String.format("\"%s\" is a folder, not a valid campaign pack file.", path.toString()));
+            var openPack = pack;
+            return new CampaingLoadSaveState(this, path, (c, p, s) -> doSavePack(removedLevels, saved, openPack, p, s, modelThread));
+        }
+        
+        if(isStoredAt(path))
+            return new CampaingLoadSaveState(this, this.path, (c, p, s) -> doSaveChanges(removedLevels, saved, p, s, modelThread));
+        
         if(Files.exists(path) && (!Files.isDirectory(path) || !DirectoryUtils.isEmpty(path)))
         {
             throw new IllegalArgumentException(String.format(
                     "\"%s\" is not a valid folder to save a campaign. Required new folder or empty folder.", path.toString()));
         }
         
-        var state = new CampaingLoadSaveState(this, path, Campaign::doSave);
-        return state;
+        return new CampaingLoadSaveState(this, path, (c, p, s) -> doSave(removedLevels, saved, p, s, linkFiles, modelThread));
     }
-    private static void doSave(@NonNull Campaign campaign, @NonNull Path path, @NonNull CampaingLoadSaveState state)
+    
+    public boolean isSaving() { return saving.get(); }
+    
+    // Everything is written in parallel into a staging folder next to the target, which is then
+    // renamed into place. A failed save removes the staging folder and leaves the target untouched.
+    private static void doSave(@NonNull List<Level> removedLevels, @NonNull CampaignSnapshot saved, @NonNull Path path, @NonNull CampaingLoadSaveState state, boolean linkFiles, Executor modelThread)
     {
+        var campaign = saved.owner;
+        campaign.blobStore.startSave();
         state.start(path);
-        try
+        Path staging = null;
+        try(var pool = new TaskPool("campaign-save"))
         {
+            campaign.journal.detach(removedLevels);
             state.addElements(2);
-            for(var episode : campaign.episodes)
+            for(var episode : saved.getEpisodes())
                 episode.prepareSaveState(state);
             
-            campaign.path = path;
-            Files.createDirectories(path);
-            for(var episode : campaign.episodes)
-                episode.write(state);
+            var parent = path.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            staging = Files.createTempDirectory(parent, "." + path.getFileName() + ".saving-");
+            
+            campaign.optimizeThumbnails(saved, state);
+            for(var episode : saved.getEpisodes())
+                episode.write(staging, state, pool, campaign.blobStore, linkFiles);
             
-            try(var w = Files.newBufferedWriter(campaign.getPropertiesPath()))
+            var root = staging;
+            pool.submit(() -> {
+                try(var w = Files.newBufferedWriter(saved.getPropertiesPath(root)))
+                {
+                    saved.json.write(w, 4, 0);
+                }
+                finally { state.resolveElement(); }
+            });
+            
+            pool.submit(() -> {
+                try
+                {
+                    state.setCurrentDataText(saved.getThumbnailPath(root));
+                    if(saved.thumbnail != null)
+                        campaign.blobStore.write(campaign.blobStore.getOptimizedImage(saved.thumbnail), saved.getThumbnailPath(root), linkFiles);
+                }
+                finally { state.resolveElement(); }
+            });
+            
+            pool.await();
+            state.checkCancelled();
+            DirectoryUtils.moveInto(staging, path);
+            staging = null;
+            
+            // Every level has been copied out of the pack it was loaded from, if any.
+            var stored = new CampaignSnapshot.Stored(saved, path, null, campaign.blobStore.getOptimizedImages());
+            for(var episode : saved.getEpisodes())
+                episode.collectStoredSources(path, false, stored);
+            campaign.finishSave(stored, state, modelThread);
+        }
+        catch(Throwable ex)
+        {
+            if(staging != null)
             {
-                var json = campaign.toJson();
-                json.write(w, 4, 0);
+                try { DirectoryUtils.deleteRecursively(staging); }
+                catch(IOException ex2) { ex2.printStackTrace(System.err); }
+            }
+            campaign.failSave(state, ex);
+        }
+    }
+    
+    // Packs are always written whole into a temporary file that then replaces the previous one.
+    // An open pack saved over itself is released for the time of the rename, since Windows does
+    // not replace an open file, and opened again if the rename fails.
+    private static void doSavePack(@NonNull List<Level> removedLevels, @NonNull CampaignSnapshot saved, CampaignPack openPack, @NonNull Path path, @NonNull CampaingLoadSaveState state, Executor modelThread)
+    {
+        var campaign = saved.owner;
+        campaign.blobStore.startSave();
+        state.start(path);
+        var temp = path.resolveSibling(path.getFileName() + ".tmp");
+        CampaignPack pack = null;
+        try
+        {
+            campaign.journal.detach(removedLevels);
+            state.addElements(2);
+            for(var episode : saved.getEpisodes())
+                episode.prepareSaveState(state);
+            
+            campaign.optimizeThumbnails(saved, state);
+            try(var writer = CampaignPack.create(temp))
+            {
+                for(var episode : saved.getEpisodes())
+                    episode.pack(writer, state, campaign.blobStore);
+                
+                state.setCurrentDataText("campaign.json");
+                writer.add("campaign.json", saved.json.toString(4));
                 state.resolveElement();
+                
+                state.setCurrentDataText("campaign.png");
+                campaign.blobStore.pack(campaign.blobStore.getOptimizedImage(saved.thumbnail), "campaign.png", writer);
+                state.resolveElement();
+                
+                state.checkCancelled();
+                writer.finish();
             }
             
-            try
+            var replaced = openPack != null && openPack.getPath().toAbsolutePath().normalize().equals(path.toAbsolutePath().normalize()) ? openPack : null;
+            if(replaced != null)
+                replaced.release();
+            try { FileUtils.rename(temp, path); }
+            catch(IOException ex)
             {
-                state.setCurrentDataText(campaign.getThumbnailPath());
-                if(campaign.thumbnail != null)
+                if(replaced != null)
                 {
-                    IOUtils.writeAllBytesToFile(campaign.getThumbnailPath(), campaign.thumbnail);
+                    try { replaced.reopen(); }
+                    catch(IOException ex2) { ex.addSuppressed(ex2); }
                 }
+                throw ex;
             }
-            catch(IOException ex) {}
-            finally { state.resolveElement(); }
+            pack = CampaignPack.open(path);
+            var stored = new CampaignSnapshot.Stored(saved, path, pack, campaign.blobStore.getOptimizedImages());
+            for(var episode : saved.getEpisodes())
+                episode.collectStoredSources(pack, stored);
+            campaign.finishSave(stored, state, modelThread);
+        }
+        catch(Throwable ex)
+        {
+            try { Files.deleteIfExists(temp); }
+            catch(IOException ex2) {}
+            if(pack != null)
+            {
+                try { pack.close(); }
+                catch(IOException ex2) {}
+            }
+            campaign.failSave(state, ex);
+        }
+    }
+    
+    // Every change is staged next to the file it replaces, so a failed or cancelled save leaves the campaign untouched.
+    private static void doSaveChanges(@NonNull List<Level> removedLevels, @NonNull CampaignSnapshot saved, @NonNull Path path, @NonNull CampaingLoadSaveState state, Executor modelThread)
+    {
+        var campaign = saved.owner;
+        campaign.blobStore.startSave();
+        state.start(path);
+        var changes = new StagedChanges();
+        try
+        {
+            campaign.journal.detach(removedLevels);
+            if(saved.propertiesDirty)
+                state.addElement();
+            if(saved.thumbnailDirty)
+                state.addElement();
+            for(var episode : saved.getEpisodes())
+                episode.prepareChangesSaveState(state);
             
-            state.finish();
+            campaign.optimizeThumbnails(saved, state);
+            for(var removedName : saved.removedEpisodes)
+                changes.deleteFolder(path.resolve(removedName));
+            
+            for(var episode : saved.getEpisodes())
+                episode.writeChanges(path, state, changes, campaign.blobStore);
+            
+            if(saved.propertiesDirty)
+            {
+                state.checkCancelled();
+                try(var w = Files.newBufferedWriter(changes.stage(saved.getPropertiesPath(path))))
+                {
+                    state.setCurrentDataText(saved.getPropertiesPath(path));
+                    saved.json.write(w, 4, 0);
+                    state.resolveElement();
+                }
+            }
+            
+            if(saved.thumbnailDirty)
+            {
+                try
+                {
+                    state.setCurrentDataText(saved.getThumbnailPath(path));
+                    if(saved.thumbnail != null)
+                        campaign.blobStore.write(campaign.blobStore.getOptimizedImage(saved.thumbnail), changes.stage(saved.getThumbnailPath(path)), false);
+                    else
+                        changes.delete(saved.getThumbnailPath(path));
+                }
+                finally { state.resolveElement(); }
+            }
+            
+            // Past this point the save is no longer cancellable.
+            state.checkCancelled();
+            changes.commit();
+            
+            var stored = new CampaignSnapshot.Stored(saved, path, null, campaign.blobStore.getOptimizedImages());
+            for(var episode : saved.getEpisodes())
+                episode.collectStoredSources(path, true, stored);
+            campaign.finishSave(stored, state, modelThread);
         }
         catch(Throwable ex)
         {
-            ex.printStackTrace(System.err);
-            state.finish(ex.getLocalizedMessage());
+            changes.rollback();
+            campaign.failSave(state, ex);
+        }
+    }
+    
+    private void finishSave(CampaignSnapshot.Stored stored, CampaingLoadSaveState state, Executor modelThread)
+    {
+        blobStore.finishSave();
+        LevelMetadataCache.save();
+        modelThread.execute(() -> {
+            try
+            {
+                storedAs(stored);
+                state.finish();
+            }
+            catch(Throwable ex) { state.finish(ex); }
+            finally { saving.set(false); }
+        });
+    }
+    
+    private void failSave(CampaingLoadSaveState state, Throwable ex)
+    {
+        blobStore.finishSave();
+        saving.set(false);
+        state.finish(ex);
+    }
+    
+    // Takes the storage of a finished save. The files written are the new sources of the levels
+    // whose payload has not changed since the snapshot, and only what is unchanged stops being dirty.
+    private void storedAs(CampaignSnapshot.Stored stored)
+    {
+        var saved = stored.getSnapshot();
+        boolean changed = saved != snapshot;
+        var previousPack = pack;
+        path = stored.getPath();
+        pack = stored.getPack();
+        for(var episode : saved.getEpisodes())
+            episode.owner.storedAs(episode, stored);
+        
+        if(previousPack != null && previousPack != pack)
+        {
+            try { previousPack.close(); }
+            catch(IOException ex) { ex.printStackTrace(System.err); }
+        }
+        
+        this.stored = true;
+        removedEpisodes.removeAll(saved.removedEpisodes);
+        if(thumbnail == saved.thumbnail)
+        {
+            thumbnail = stored.getStoredImage(thumbnail);
+            thumbnailDirty = false;
+        }
+        if(!changed)
+            propertiesDirty = false;
+        invalidateSnapshot();
+    }
+    
+    // Optional first stage of a save. The thumbnails it writes from memory, the ones imported or
+    // changed since the last save, are written with their optimized PNG encoding, made in parallel.
+    private void optimizeThumbnails(CampaignSnapshot saved, CampaingLoadSaveState state) throws IOException, InterruptedException
+    {
+        if(!GlobalProperties.getBoolean("optimizeThumbnails", false))
+            return;
+        
+        int maxSize = GlobalProperties.getInt("thumbnailMaxSize", 0);
+        state.setCurrentDataText("Optimizing thumbnails");
+        try(var pool = new TaskPool("thumbnail-optimizer"))
+        {
+            for(var episode : saved.getEpisodes())
+                episode.optimizeThumbnails(state, pool, blobStore, maxSize);
+            
+            if(saved.thumbnailDirty && saved.thumbnail != null)
+            {
+                state.addElement();
+                pool.submit(() -> {
+                    try { blobStore.optimizeImage(saved.thumbnail, maxSize); }
+                    finally { state.resolveElement(); }
+                });
+            }
+            pool.await();
         }
     }
     
     public static CampaingLoadSaveState load(@NonNull Path path)
+    {
+        return load(path, TaskPool.defaultParallelism(), true);
+    }
+    
+    public static CampaingLoadSaveState load(@NonNull Path path, int threads)
+    {
+        return load(path, threads, true);
+    }
+    
+    // A lazy load keeps only the level metadata in memory. Level data and thumbnails are read back on demand.
+    public static CampaingLoadSaveState load(@NonNull Path path, int threads, boolean lazy)
     {
         var fileName = path.getFileName();
         if(fileName != null && fileName.toString().equals("campaign.json"))
             path = path.getParent();
         
         var campaign = new Campaign(path);
-        var state = new CampaingLoadSaveState(campaign, path, Campaign::doLoad);
+        var state = new CampaingLoadSaveState(campaign, path, (c, p, s) -> doLoad(c, p, s, threads, lazy));
         return state;
     }
-    private static void doLoad(@NonNull Campaign campaign, @NonNull Path path, @NonNull CampaingLoadSaveState state)
+    private static void doLoad(@NonNull Campaign campaign, @NonNull Path path, @NonNull CampaingLoadSaveState state, int threads, boolean lazy)
     {
-        try(var is = Files.newInputStream(campaign.getPropertiesPath()))
+        try(var pool = new TaskPool(threads, "campaign-load"))
         {
-            var json = new JSONObject(new JSONTokener(is));
+            if(isPackPath(path))
+                campaign.pack = CampaignPack.open(path);
+            
+            var properties = campaign.readStoredFile(campaign.getPropertiesPath());
+            if(properties == null)
+                throw new NoSuchFileException(campaign.getPropertiesPath().toString());
+            
+            var json = new JSONObject(new JSONTokener(new String(properties, StandardCharsets.UTF_8)));
             campaign.prepareFromJson(json);
             
             state.addElements(2);
@@ -245,24 +957,30 @@ public final class Campaign
             state.start(path);
             state.resolveElement();
             for(var episode : campaign.episodes)
-                episode.read(state);
+                episode.read(state, pool, lazy);
             
-            if(!campaign.hasThumbnailPath())
-                campaign.thumbnail = null;
-            else
-            {
+            pool.submit(() -> {
                 state.setCurrentDataText(campaign.getThumbnailPath());
-                try { campaign.thumbnail = IOUtils.readAllBytesFromFile(campaign.getThumbnailPath()); }
-                catch(IOException ex) {}
+                try { campaign.thumbnail = campaign.blobStore.intern(campaign.readStoredFile(campaign.getThumbnailPath())); }
+                catch(IOException ex) { campaign.thumbnail = null; }
                 finally { state.resolveElement(); }
-            }
+            });
             
+            pool.await();
+            campaign.markStored();
+            LevelMetadataCache.save();
+            campaign.warmUpMetadata();
             state.finish();
         }
         catch(Throwable ex)
         {
-            ex.printStackTrace(System.err);
-            state.finish(ex.getLocalizedMessage());
+            if(campaign.pack != null)
+            {
+                try { campaign.pack.close(); }
+                catch(IOException ex2) {}
+                campaign.pack = null;
+            }
+            state.finish(ex);
         }
     }
     
@@ -271,7 +989,7 @@ public final class Campaign
         return new Campaign(IOUtils.getUserDirectory().resolve("temp"));
     }
     
-    private @NonNull JSONObject toJson()
+    private @NonNull JSONObject toJson(List<EpisodeSnapshot> episodes)
     {
         var json = new JSONObject();
         json.put("name", name);
@@ -283,7 +1001,7 @@ public final class Campaign
         
         var episodesJson = new JSONArray();
         for(var episode : episodes)
-            episodesJson.put(episode.toJson());
+            episodesJson.put(episode.json);
         json.put("episodes", episodesJson);
         
         return json;
@@ -0,0 +1,460 @@
+package kp.rollingcube.ce.campaign;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import kp.rollingcube.ce.utils.Permutations;
+import lombok.NonNull;
+
+/**
+ * Change of a campaign as the journal records it, see CampaignJournal. Edits only hold what they
+ * need to be undone and redone: positions, names, the values of a property, and the levels and
+ * episodes they take out of the campaign. Those keep reading their payloads from where they are
+ * stored until a save frees them from it, see CampaignJournal.prepareSave.
+ *
+ * Undoing an edit expects the campaign as the edit left it, which holds as long as the edits
+ * recorded after it have been undone first.
+ *
+ * @author Marc
+ */
+abstract class CampaignEdit
+{
+    @FunctionalInterface
+    interface Factory
+    {
+        @NonNull CampaignEdit create();
+    }
+    
+    abstract void undo(CampaignJournal journal) throws IOException;
+    abstract void redo(CampaignJournal journal) throws IOException;
+    
+    // Takes in the edit recorded right after this one, if both can be undone as a single edit.
+    boolean merge(CampaignEdit next) { return false; }
+    
+    // The edit is dropped from the history.
+    void discard() {}
+    
+    // Adds the episodes and the levels the edit holds out of the campaign.
+    void collectRemoved(List<Episode> episodes, List<Level> levels) {}
+    
+    
+    private static int[] range(int first, int count) { return IntStream.range(first, first + count).toArray(); }
+    
+    
+    static final class SwapLevels extends CampaignEdit
+    {
+        private final Episode episode;
+        private final LevelType type;
+        private final int first;
+        private final int second;
+        
+        SwapLevels(@NonNull Episode episode, @NonNull LevelType type, int first, int second)
+        {
+            this.episode = episode;
+            this.type = type;
+            this.first = first;
+            this.second = second;
+        }
+        
+        @Override void undo(CampaignJournal journal) { swap(); }
+        @Override void redo(CampaignJournal journal) { swap(); }
+        
+        private void swap()
+        {
+            if(type == LevelType.BONUS)
+                episode.swapBonusLevels(first, second);
+            else
+                episode.swapNormalLevels(first, second);
+        }
+    }
+    
+    static final class MoveLevel extends CampaignEdit
+    {
+        private final Episode episode;
+        private final LevelType type;
+        private final int from;
+        private final int to;
+        
+        MoveLevel(@NonNull Episode episode, @NonNull LevelType type, int from, int to)
+        {
+            this.episode = episode;
+            this.type = type;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override void undo(CampaignJournal journal) { episode.moveLevel(type, to, from); }
+        @Override void redo(CampaignJournal journal) { episode.moveLevel(type, from, to); }
+    }
+    
+    static final class ReorderLevels extends CampaignEdit
+    {
+        private final Episode episode;
+        private final LevelType type;
+        private final int[] permutation;
+        
+        ReorderLevels(@NonNull Episode episode, @NonNull LevelType type, @NonNull int[] permutation)
+        {
+            this.episode = episode;
+            this.type = type;
+            this.permutation = permutation.clone();
+        }
+        
+        @Override void undo(CampaignJournal journal) { episode.reorderLevels(type, Permutations.invert(permutation)); }
+        @Override void redo(CampaignJournal journal) { episode.reorderLevels(type, permutation); }
+    }
+    
+    // Normal or bonus levels added to or removed from their episode.
+    static final class IndexedLevels extends CampaignEdit
+    {
+        private final Episode episode;
+        private final LevelType type;
+        private final List<IndexedLevel> levels;
+        private final int[] indices;
+        private final boolean added;
+        private boolean out;
+        
+        private IndexedLevels(Episode episode, LevelType type, List<? extends IndexedLevel> levels, int[] indices, boolean added)
+        {
+            this.episode = episode;
+            this.type = type;
+            this.levels = List.copyOf(levels);
+            this.indices = indices.clone();
+            this.added = added;
+            out = !added;
+        }
+        
+        // The levels have been inserted from the index of the first one on.
+        static @NonNull IndexedLevels added(@NonNull Episode episode, @NonNull LevelType type, @NonNull List<? extends IndexedLevel> levels)
+        {
+            return new IndexedLevels(episode, type, levels, range(levels.get(0).getIndex(), levels.size()), true);
+        }
+        
+        // The levels have been removed from the sorted indices, in the same order.
+        static @NonNull IndexedLevels removed(@NonNull Episode episode, @NonNull LevelType type, @NonNull List<? extends IndexedLevel> levels, @NonNull int[] formerIndices)
+        {
+            return new IndexedLevels(episode, type, levels, formerIndices, false);
+        }
+        
+        @Override
+        void undo(CampaignJournal journal)
+        {
+            if(added)
+                takeOut();
+            else
+                putBack();
+        }
+        
+        @Override
+        void redo(CampaignJournal journal)
+        {
+            if(added)
+                putBack();
+            else
+                takeOut();
+        }
+        
+        private void takeOut()
+        {
+            episode.removeLevels(type, indices);
+            out = true;
+        }
+        
+        private void putBack()
+        {
+            episode.restoreLevels(type, levels, indices);
+            out = false;
+        }
+        
+        @Override
+        void discard()
+        {
+            if(out)
+                levels.forEach(Level::discardPayload);
+        }
+        
+        @Override
+        void collectRemoved(List<Episode> episodes, List<Level> removedLevels)
+        {
+            if(out)
+                removedLevels.addAll(levels);
+        }
+    }
+    
+    static final class SecretLevelPresence extends CampaignEdit
+    {
+        private final Episode episode;
+        private final SecretLevel level;
+        private final boolean added;
+        private boolean out;
+        
+        private SecretLevelPresence(Episode episode, SecretLevel level, boolean added)
+        {
+            this.episode = episode;
+            this.level = level;
+            this.added = added;
+            out = !added;
+        }
+        
+        static @NonNull SecretLevelPresence added(@NonNull SecretLevel level)
+        {
+            return new SecretLevelPresence(level.getEpisode(), level, true);
+        }
+        
+        static @NonNull SecretLevelPresence removed(@NonNull SecretLevel level) { return new SecretLevelPresence(level.getEpisode(), level, false); }
+        
+        @Override
+        void undo(CampaignJournal journal)
+        {
+            if(added)
+                takeOut();
+            else
+                putBack();
+        }
+        
+        @Override
+        void redo(CampaignJournal journal)
+        {
+            if(added)
+                putBack();
+            else
+                takeOut();
+        }
+        
+        private void takeOut()
+        {
+            episode.removeSecretLevel(level.getName());
+            out = true;
+        }
+        
+        private void putBack()
+        {
+            episode.restoreSecretLevel(level);
+            out = false;
+        }
+        
+        @Override
+        void discard()
+        {
+            if(out)
+                level.discardPayload();
+        }
+        
+        @Override
+        void collectRemoved(List<Episode> episodes, List<Level> levels)
+        {
+            if(out)
+                levels.add(level);
+        }
+    }
+    
+    static final class RenameSecretLevel extends CampaignEdit
+    {
+        private final Episode episode;
+        private final String formerName;
+        private final String name;
+        
+        RenameSecretLevel(@NonNull Episode episode, @NonNull String formerName, @NonNull String name)
+        {
+            this.episode = episode;
+            this.formerName = formerName;
+            this.name = name;
+        }
+        
+        @Override void undo(CampaignJournal journal) { episode.changeSecretLevelName(name, formerName); }
+        @Override void redo(CampaignJournal journal) { episode.changeSecretLevelName(formerName, name); }
+    }
+    
+    static final class SwapEpisodes extends CampaignEdit
+    {
+        private final int first;
+        private final int second;
+        
+        SwapEpisodes(int first, int second)
+        {
+            this.first = first;
+            this.second = second;
+        }
+        
+        @Override void undo(CampaignJournal journal) { journal.getCampaign().swapEpisodes(first, second); }
+        @Override void redo(CampaignJournal journal) { journal.getCampaign().swapEpisodes(first, second); }
+    }
+    
+    static final class MoveEpisode extends CampaignEdit
+    {
+        private final int from;
+        private final int to;
+        
+        MoveEpisode(int from, int to)
+        {
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override void undo(CampaignJournal journal) { journal.getCampaign().moveEpisode(to, from); }
+        @Override void redo(CampaignJournal journal) { journal.getCampaign().moveEpisode(from, to); }
+    }
+    
+    static final class ReorderEpisodes extends CampaignEdit
+    {
+        private final int[] permutation;
+        
+        ReorderEpisodes(@NonNull int[] permutation) { this.permutation = permutation.clone(); }
+        
+        @Override void undo(CampaignJournal journal) { journal.getCampaign().reorderEpisodes(Permutations.invert(permutation)); }
+        @Override void redo(CampaignJournal journal) { journal.getCampaign().reorderEpisodes(permutation); }
+    }
+    
+    static final class RenameEpisode extends CampaignEdit
+    {
+        private final String formerName;
+        private final String name;
+        
+        RenameEpisode(@NonNull String formerName, @NonNull String name)
+        {
+            this.formerName = formerName;
+            this.name = name;
+        }
+        
+        @Override void undo(CampaignJournal journal) throws IOException { journal.getCampaign().changeEpisodeName(name, formerName); }
+        @Override void redo(CampaignJournal journal) throws IOException { journal.getCampaign().changeEpisodeName(formerName, name); }
+    }
+    
+    // Episodes added to or removed from the campaign.
+    static final class Episodes extends CampaignEdit
+    {
+        private final List<Episode> episodes;
+        private final int[] indices;
+        private final boolean added;
+        private boolean out;
+        
+        private Episodes(List<Episode> episodes, int[] indices, boolean added)
+        {
+            this.episodes = List.copyOf(episodes);
+            this.indices = indices.clone();
+            this.added = added;
+            out = !added;
+        }
+        
+        static @NonNull Episodes added(@NonNull Episode episode) { return new Episodes(List.of(episode), new int[] { episode.getIndex() }, true); }
+        
+        // The episodes have been removed from the sorted indices, in the same order.
+        static @NonNull Episodes removed(@NonNull List<Episode> episodes, @NonNull int[] formerIndices) { return new Episodes(episodes, formerIndices, false); }
+        
+        @Override
+        void undo(CampaignJournal journal)
+        {
+            if(added)
+                takeOut(journal);
+            else
+                putBack(journal);
+        }
+        
+        @Override
+        void redo(CampaignJournal journal)
+        {
+            if(added)
+                putBack(journal);
+            else
+                takeOut(journal);
+        }
+        
+        private void takeOut(CampaignJournal journal)
+        {
+            journal.getCampaign().removeEpisodes(episodes.stream().map(Episode::getName).collect(Collectors.toList()));
+            out = true;
+        }
+        
+        private void putBack(CampaignJournal journal)
+        {
+            journal.getCampaign().restoreEpisodes(episodes, indices);
+            out = false;
+        }
+        
+        @Override
+        void discard()
+        {
+            if(out)
+            {
+                var levels = new ArrayList<Level>();
+                episodes.forEach(episode -> episode.collectLevels(levels));
+                levels.forEach(Level::discardPayload);
+            }
+        }
+        
+        @Override
+        void collectRemoved(List<Episode> removedEpisodes, List<Level> levels)
+        {
+            if(out)
+            {
+                removedEpisodes.addAll(episodes);
+                episodes.forEach(episode -> episode.collectLevels(levels));
+            }
+        }
+    }
+    
+    // A property of the campaign, an episode or a level, set to a new value.
+    static class SetProperty<T> extends CampaignEdit
+    {
+        private final Object owner;
+        private final String property;
+        private final Consumer<T> setter;
+        private final T formerValue;
+        private T value;
+        
+        SetProperty(@NonNull Object owner, @NonNull String property, @NonNull Consumer<T> setter, T formerValue, T value)
+        {
+            this.owner = owner;
+            this.property = property;
+            this.setter = setter;
+            this.formerValue = formerValue;
+            this.value = value;
+        }
+        
+        @Override void undo(CampaignJournal journal) { set(journal, formerValue); }
+        @Override void redo(CampaignJournal journal) { set(journal, value); }
+        
+        private void set(CampaignJournal journal, T newValue)
+        {
+            setter.accept(newValue);
+            var campaign = journal.getCampaign();
+            if(owner instanceof Episode)
+                campaign.fireEvent(listener -> listener.episodePropertiesChanged((Episode) owner));
+            else if(owner instanceof Level)
+                campaign.fireEvent(listener -> listener.levelPropertiesChanged((Level) owner));
+            else
+                campaign.fireEvent(CampaignListener::campaignPropertiesChanged);
+        }
+        
+        @Override
+        boolean merge(CampaignEdit next)
+        {
+            if(!(next instanceof SetProperty) || next instanceof ChangeThumbnail)
+                return false;
+            
+            var other = (SetProperty<?>) next;
+            if(other.owner != owner || !other.property.equals(property) || !Objects.equals(other.formerValue, value))
+                return false;
+            
+            @SuppressWarnings("unchecked")
+            var newValue = (T) other.value;
+            value = newValue;
+            return true;
+        }
+    }
+    
+    // Thumbnails are interned blobs, both of them are held by reference. Changes are never merged.
+    static final class ChangeThumbnail extends SetProperty<byte[]>
+    {
+        ChangeThumbnail(@NonNull Object owner, @NonNull Consumer<byte[]> setter, byte[] formerThumbnail, byte[] thumbnail)
+        {
+            super(owner, "thumbnail", setter, formerThumbnail, thumbnail);
+        }
+        
+        @Override boolean merge(CampaignEdit next) { return false; }
+    }
+}
@@ -0,0 +1,174 @@
+package kp.rollingcube.ce.campaign;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import kp.rollingcube.ce.utils.DirectoryUtils;
+import lombok.NonNull;
+
+/**
+ * Undo and redo history of the edits of a campaign. Every change made through the campaign, its
+ * episodes and its levels is recorded as a small edit, see CampaignEdit, and undoing or redoing it
+ * goes through the same methods, so listeners are told of it as of any other change.
+ *
+ * The journal belongs to the thread the campaign is changed from. Edits of a property that follow
+ * each other, as when a name is typed, are merged into one.
+ *
+ * Levels and episodes taken out of the campaign by an edit keep their stored files as long as no
+ * save may change those files. Recording and undoing an edit never reads a payload.
+ *
+ * @author Marc
+ */
+public final class CampaignJournal
+{
+    private static final int MAX_EDITS = 1000;
+    
+    private final @NonNull Campaign campaign;
+    private final ArrayDeque<CampaignEdit> undoEdits = new ArrayDeque<>();
+    private final ArrayDeque<CampaignEdit> redoEdits = new ArrayDeque<>();
+    private boolean applying;
+    private Path spillFolder;
+    private Runnable onChangeCallback;
+    
+    CampaignJournal(@NonNull Campaign campaign) { this.campaign = campaign; }
+    
+    public boolean canUndo() { return !undoEdits.isEmpty(); }
+    public boolean canRedo() { return !redoEdits.isEmpty(); }
+    
+    // Run whenever what can be undone or redone changes.
+    public void setOnChangeCallback(Runnable callback) { onChangeCallback = callback; }
+    
+    private void changed()
+    {
+        if(onChangeCallback != null)
+            onChangeCallback.run();
+    }
+    
+    // The edit stays to be undone if it fails.
+    public void undo() throws IOException, IllegalStateException
+    {
+        if(undoEdits.isEmpty())
+            return;
+        
+        var edit = undoEdits.peek();
+        apply(edit, true);
+        redoEdits.push(undoEdits.pop());
+        changed();
+    }
+    
+    // The edit stays to be redone if it fails.
+    public void redo() throws IOException, IllegalStateException
+    {
+        if(redoEdits.isEmpty())
+            return;
+        
+        var edit = redoEdits.peek();
+        apply(edit, false);
+        undoEdits.push(redoEdits.pop());
+        changed();
+    }
+    
+    private void apply(CampaignEdit edit, boolean undo) throws IOException
+    {
+        applying = true;
+        try
+        {
+            if(undo)
+                edit.undo(this);
+            else
+                edit.redo(this);
+        }
+        finally { applying = false; }
+    }
+    
+    // Forgets the whole history and deletes the payloads it spilled.
+    public void clear()
+    {
+        discard(undoEdits);
+        discard(redoEdits);
+        deleteSpillFolder();
+        changed();
+    }
+    
+    private synchronized void deleteSpillFolder()
+    {
+        if(spillFolder != null)
+        {
+            try { DirectoryUtils.deleteRecursively(spillFolder); }
+            catch(IOException ex) { ex.printStackTrace(System.err); }
+            spillFolder = null;
+        }
+    }
+    
+    private static void discard(ArrayDeque<CampaignEdit> edits)
+    {
+        edits.forEach(CampaignEdit::discard);
+        edits.clear();
+    }
+    
+    // Records the edit made by a change that has just been applied, unless the change is an undo or a redo.
+    void record(@NonNull CampaignEdit.Factory factory)
+    {
+        if(applying)
+            return;
+        
+        discard(redoEdits);
+        var edit = factory.create();
+        if(undoEdits.isEmpty() || !undoEdits.peek().merge(edit))
+        {
+            undoEdits.push(edit);
+            if(undoEdits.size() > MAX_EDITS)
+                undoEdits.removeLast().discard();
+        }
+        changed();
+    }
+    
+    @NonNull Campaign getCampaign() { return campaign; }
+    
+    // Called before a save takes its snapshot. The episodes out of the campaign will not find their
+    // folders as they are once it is stored elsewhere or they are deleted, so they are written whole
+    // if they are put back. The levels out of the campaign are returned, to be detached by the save
+    // before it changes any file.
+    @NonNull List<Level> prepareSave()
+    {
+        var episodes = new ArrayList<Episode>();
+        var levels = new ArrayList<Level>();
+        collectRemoved(episodes, levels);
+        episodes.forEach(Episode::forgetStorage);
+        return levels;
+    }
+    
+    // Called from the thread of the save, see LevelData.detach. Levels put back meanwhile are
+    // detached all the same, they are only written whole by the next save.
+    void detach(@NonNull List<Level> levels) throws IOException
+    {
+        for(var level : levels)
+            level.detach(this);
+    }
+    
+    // The stored files of an episode have been moved along with its folder, those of the levels
+    // taken out of it as well.
+    void relocate(@NonNull Path from, @NonNull Path to)
+    {
+        var levels = new ArrayList<Level>();
+        collectRemoved(new ArrayList<>(), levels);
+        levels.forEach(level -> level.relocate(from, to));
+    }
+    
+    private void collectRemoved(List<Episode> episodes, List<Level> levels)
+    {
+        undoEdits.forEach(edit -> edit.collectRemoved(episodes, levels));
+        redoEdits.forEach(edit -> edit.collectRemoved(episodes, levels));
+    }
+    
+    // New empty file for a spilled payload, see LevelPayload.
+    synchronized @NonNull Path createSpillFile(@NonNull String extension) throws IOException
+    {
+        if(spillFolder == null || !Files.isDirectory(spillFolder))
+            spillFolder = Files.createTempDirectory("rollingcube-journal-");
+        return Files.createTempFile(spillFolder, "level-", extension);
+    }
+}
@@ -0,0 +1,59 @@
+package kp.rollingcube.ce.campaign;
+
+import java.util.List;
+
+/**
+ * Receives the structural changes of a campaign and its episodes, right after they are applied,
+ * so views can patch what they show instead of building it again.
+ *
+ * Events are delivered on the thread that made the change.
+ *
+ * @author Marc
+ */
+public interface CampaignListener
+{
+    default void episodeAdded(Episode episode) {}
+    default void episodeRemoved(Episode episode, int formerIndex) {}
+    default void episodesSwapped(Episode first, Episode second) {}
+    default void episodeRenamed(Episode episode, String formerName) {}
+    
+    // Episodes removed at once. The former indices are sorted, in the order of the list.
+    default void episodesRemoved(List<Episode> episodes, int[] formerIndices)
+    {
+        for(int i = episodes.size() - 1; i >= 0; i--)
+            episodeRemoved(episodes.get(i), formerIndices[i]);
+    }
+    
+    // The episodes from fromIndex to toIndex, both included, changed their positions among them.
+    default void episodesReordered(int fromIndex, int toIndex) {}
+    
+    default void levelAdded(Level level) {}
+    
+    // Normal or bonus levels inserted at once in consecutive positions, from the index of the first one.
+    default void levelsAdded(List<? extends IndexedLevel> levels) { levels.forEach(this::levelAdded); }
+    
+    // For secret levels formerIndex is meaningless, they are only identified by their name.
+    default void levelRemoved(Level level, int formerIndex) {}
+    
+    // Normal or bonus levels removed at once. The former indices are sorted, in the order of the list.
+    default void levelsRemoved(List<? extends IndexedLevel> levels, int[] formerIndices)
+    {
+        for(int i = levels.size() - 1; i >= 0; i--)
+            levelRemoved(levels.get(i), formerIndices[i]);
+    }
+    
+    default void levelsSwapped(IndexedLevel first, IndexedLevel second) {}
+    
+    // The levels of the type from fromIndex to toIndex, both included, changed their positions among them.
+    default void levelsReordered(Episode episode, LevelType type, int fromIndex, int toIndex) {}
+    default void levelRenamed(SecretLevel level, String formerName) {}
+    
+    // Properties or thumbnails set again by undoing or redoing an edit, see CampaignJournal. Nothing
+    // is fired when they are edited directly, the view editing them is up to date already.
+    default void campaignPropertiesChanged() {}
+    default void episodePropertiesChanged(Episode episode) {}
+    default void levelPropertiesChanged(Level level) {}
+    
+    // Fired by the metadata warm-up threads, see Campaign.warmUpMetadata.
+    default void levelMetadataLoaded(Level level) {}
+}
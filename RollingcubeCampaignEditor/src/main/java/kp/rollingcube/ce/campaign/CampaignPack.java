@@ -0,0 +1,326 @@
+package kp.rollingcube.ce.campaign;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import kp.rollingcube.ce.utils.PathUtils;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * Single file campaign container.
+ *
+ * Layout: a fixed header (magic, version, table of contents offset and entry count),
+ * the contiguous file blobs, and the table of contents at the end. Each entry holds the
+ * relative path of the file inside the campaign folder, its offset and its length.
+ *
+ * Blobs are read from the file as they are asked for, nothing stays mapped, so an open pack can
+ * be released while a save replaces its file, see release.
+ *
+ * @author Marc
+ */
+final class CampaignPack implements AutoCloseable
+{
+    public static final String EXTENSION = "rcpak";
+    
+    private static final int MAGIC = 0x5243504B; // "RCPK"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+    
+    @Getter private final @NonNull Path path;
+    private final HashMap<String, Entry> entries = new HashMap<>();
+    
+    // Null while the pack is released.
+    private FileChannel channel;
+    
+    private CampaignPack(Path path, FileChannel channel)
+    {
+        this.path = path;
+        this.channel = channel;
+    }
+    
+    public static boolean isPackPath(Path path)
+    {
+        return path != null && PathUtils.hasExtension(path, EXTENSION, true);
+    }
+    
+    public static @NonNull CampaignPack open(@NonNull Path path) throws IOException
+    {
+        var channel = FileChannel.open(path, StandardOpenOption.READ);
+        try
+        {
+            var pack = new CampaignPack(path, channel);
+            pack.readTableOfContents(channel.size());
+            return pack;
+        }
+        catch(IOException | RuntimeException ex)
+        {
+            channel.close();
+            throw ex;
+        }
+    }
+    
+    public static @NonNull Writer create(@NonNull Path path) throws IOException { return new Writer(path); }
+    
+    public boolean contains(String name) { return entries.containsKey(name); }
+    
+    // Length of the entry, or -1 if the pack has no such entry.
+    public long sizeOf(String name)
+    {
+        var entry = entries.get(name);
+        return entry == null ? -1 : entry.length;
+    }
+    
+    public ByteBuffer get(String name) throws IOException
+    {
+        var entry = entries.get(name);
+        if(entry == null)
+            return null;
+        
+        var data = ByteBuffer.allocate(entry.length);
+        readFully(getChannel(), data, entry.offset);
+        return data;
+    }
+    
+    public byte[] readBytes(String name) throws IOException
+    {
+        var data = get(name);
+        if(data == null)
+            return null;
+        
+        var bytes = new byte[data.remaining()];
+        data.get(bytes);
+        return bytes;
+    }
+    
+    public String readString(String name) throws IOException
+    {
+        var bytes = readBytes(name);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    public void copy(String name, Path target) throws IOException
+    {
+        var entry = entries.get(name);
+        Files.deleteIfExists(target);
+        if(entry == null)
+            return;
+        
+        var in = getChannel();
+        try(var out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW))
+        {
+            long position = entry.offset;
+            long end = entry.offset + entry.length;
+            while(position < end)
+            {
+                long transferred = in.transferTo(position, end - position, out);
+                if(transferred <= 0)
+                    throw new IOException("Unexpected end of campaign pack");
+                position += transferred;
+            }
+        }
+    }
+    
+    // Closes the file until reopen, so a save can replace it: Windows does not let an open file be
+    // replaced. Reading the pack meanwhile fails.
+    public synchronized void release() throws IOException
+    {
+        if(channel != null)
+        {
+            channel.close();
+            channel = null;
+        }
+    }
+    
+    // Opens the file again after release, when it has not been replaced after all.
+    public synchronized void reopen() throws IOException
+    {
+        if(channel == null)
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+    }
+    
+    @Override
+    public void close() throws IOException { release(); }
+    
+    private synchronized FileChannel getChannel() throws IOException
+    {
+        if(channel == null)
+            throw new IOException(String.format("Campaign pack \"%s\" is released", path));
+        return channel;
+    }
+    
+    private void readTableOfContents(long size) throws IOException
+    {
+        var header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        readFully(channel, header, 0);
+        if(header.getInt() != MAGIC)
+            throw new IOException(String.format("\"%s\" is not a campaign pack", path));
+        
+        int version = header.getInt();
+        if(version != VERSION)
+            throw new IOException(String.format("Unsupported campaign pack version %d", version));
+        
+        long tocOffset = header.getLong();
+        int count = header.getInt();
+        if(tocOffset < HEADER_SIZE || tocOffset > size || count < 0)
+            throw new IOException("Corrupted campaign pack header");
+        
+        var toc = ByteBuffer.allocate((int) (size - tocOffset));
+        readFully(channel, toc, tocOffset);
+        for(int i = 0; i < count; i++)
+        {
+            // Each entry is the name length, the name, then 12 bytes of offset and length.
+            int nameLength = toc.remaining() < 4 ? -1 : toc.getInt();
+            if(nameLength < 0 || nameLength > toc.remaining() - 12)
+                throw new IOException("Corrupted campaign pack table of contents");
+            
+            var nameBytes = new byte[nameLength];
+            toc.get(nameBytes);
+            long offset = toc.getLong();
+            int length = toc.getInt();
+            if(offset < HEADER_SIZE || length < 0 || offset + length > tocOffset)
+                throw new IOException("Corrupted campaign pack table of contents");
+            
+            entries.put(new String(nameBytes, StandardCharsets.UTF_8), new Entry(offset, length));
+        }
+    }
+    
+    private static void readFully(FileChannel channel, ByteBuffer target, long position) throws IOException
+    {
+        while(target.hasRemaining())
+        {
+            int read = channel.read(target, position);
+            if(read < 0)
+                throw new IOException("Unexpected end of campaign pack");
+            position += read;
+        }
+        target.flip();
+    }
+    
+    
+    private static final class Entry
+    {
+        private final long offset;
+        private final int length;
+        
+        private Entry(long offset, int length)
+        {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+    
+    public static final class Writer implements AutoCloseable
+    {
+        private final FileChannel channel;
+        private final ArrayList<String> names = new ArrayList<>();
+        private final ArrayList<Entry> written = new ArrayList<>();
+        private final HashMap<String, Entry> writtenByName = new HashMap<>();
+        private long position = HEADER_SIZE;
+        
+        private Writer(Path path) throws IOException
+        {
+            channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        
+        public synchronized void add(@NonNull String name, @NonNull ByteBuffer data) throws IOException
+        {
+            long offset = position;
+            int length = data.remaining();
+            while(data.hasRemaining())
+                position += channel.write(data, position);
+            
+            addEntry(name, new Entry(offset, length));
+        }
+        
+        public void add(@NonNull String name, byte[] data) throws IOException
+        {
+            if(data != null)
+                add(name, ByteBuffer.wrap(data));
+        }
+        
+        public void add(@NonNull String name, String text) throws IOException
+        {
+            if(text != null)
+                add(name, text.getBytes(StandardCharsets.UTF_8));
+        }
+        
+        public synchronized void add(@NonNull String name, @NonNull Path file) throws IOException
+        {
+            try(var in = FileChannel.open(file, StandardOpenOption.READ))
+            {
+                long offset = position;
+                long size = in.size();
+                if(size > Integer.MAX_VALUE)
+                    throw new IOException(String.format("\"%s\" is too large to be packed", file));
+                
+                long done = 0;
+                while(done < size)
+                    done += in.transferTo(done, size - done, channel.position(position + done));
+                position += size;
+                
+                addEntry(name, new Entry(offset, (int) size));
+            }
+        }
+        
+        // Another entry for the blob already added as existingName. It is not written again.
+        public synchronized void alias(@NonNull String name, @NonNull String existingName) throws IOException
+        {
+            var entry = writtenByName.get(existingName);
+            if(entry == null)
+                throw new IOException(String.format("\"%s\" is not in the campaign pack", existingName));
+            addEntry(name, entry);
+        }
+        
+        private void addEntry(String name, Entry entry)
+        {
+            names.add(name);
+            written.add(entry);
+            writtenByName.put(name, entry);
+        }
+        
+        public synchronized void finish() throws IOException
+        {
+            int tocSize = 0;
+            var encodedNames = new ArrayList<byte[]>(names.size());
+            for(var name : names)
+            {
+                var bytes = name.getBytes(StandardCharsets.UTF_8);
+                encodedNames.add(bytes);
+                tocSize += 16 + bytes.length;
+            }
+            
+            var toc = ByteBuffer.allocate(tocSize).order(ByteOrder.BIG_ENDIAN);
+            for(int i = 0; i < encodedNames.size(); i++)
+            {
+                var entry = written.get(i);
+                toc.putInt(encodedNames.get(i).length).put(encodedNames.get(i));
+                toc.putLong(entry.offset).putInt(entry.length);
+            }
+            toc.flip();
+            
+            long tocOffset = position;
+            while(toc.hasRemaining())
+                position += channel.write(toc, position);
+            
+            var header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).putLong(tocOffset).putInt(names.size()).flip();
+            long headerPosition = 0;
+            while(header.hasRemaining())
+                headerPosition += channel.write(header, headerPosition);
+            
+            channel.truncate(position);
+            channel.force(true);
+        }
+        
+        @Override
+        public void close() throws IOException { channel.close(); }
+    }
+}
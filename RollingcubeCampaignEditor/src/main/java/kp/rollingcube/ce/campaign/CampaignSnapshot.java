@@ -0,0 +1,91 @@
+package kp.rollingcube.ce.campaign;
+
+import java.nio.file.Path;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import lombok.Getter;
+import lombok.NonNull;
+import org.json.JSONObject;
+
+/**
+ * Immutable state of a campaign at the time of a snapshot, which a save can write from another
+ * thread while the campaign keeps changing.
+ *
+ * Campaigns, episodes and levels cache their last snapshot until they change, so taking a
+ * snapshot of an unchanged campaign costs nothing. After a level changed, a new one takes again
+ * the level, its chunk of the levels of its episode, the chunk table of that list and the list of
+ * episodes; the JSON of the campaign and of the episodes is kept. Adding, removing or moving
+ * levels, or changing the episode itself, takes all the levels of the episode again.
+ *
+ * @author Marc
+ */
+public final class CampaignSnapshot
+{
+    final @NonNull Campaign owner;
+    
+    // Folder or pack the campaign was stored at, or would have been stored at, when the snapshot was taken.
+    @Getter private final @NonNull Path path;
+    @Getter private final @NonNull String name;
+    @Getter private final @NonNull List<EpisodeSnapshot> episodes;
+    
+    // Never modified once built.
+    final @NonNull JSONObject json;
+    
+    final byte[] thumbnail;
+    final boolean propertiesDirty;
+    final boolean thumbnailDirty;
+    final @NonNull Set<String> removedEpisodes;
+    
+    CampaignSnapshot(@NonNull Campaign owner, @NonNull Path path, @NonNull String name, @NonNull JSONObject json, byte[] thumbnail,
+            @NonNull List<EpisodeSnapshot> episodes, boolean propertiesDirty, boolean thumbnailDirty, @NonNull Set<String> removedEpisodes)
+    {
+        this.owner = owner;
+        this.path = path;
+        this.name = name;
+        this.json = json;
+        this.thumbnail = thumbnail;
+        this.episodes = List.copyOf(episodes);
+        this.propertiesDirty = propertiesDirty;
+        this.thumbnailDirty = thumbnailDirty;
+        this.removedEpisodes = Set.copyOf(removedEpisodes);
+    }
+    
+    Path getPropertiesPath(@NonNull Path root) { return root.resolve("campaign.json"); }
+    Path getThumbnailPath(@NonNull Path root) { return root.resolve("campaign.png"); }
+    
+    
+    /**
+     * Outcome of a finished save of a snapshot, which the campaign takes once the save is done:
+     * where the snapshot is stored now, the sources of the levels written and the optimized
+     * encodings the save wrote instead of the thumbnails of the snapshot.
+     */
+    static final class Stored
+    {
+        @Getter private final @NonNull CampaignSnapshot snapshot;
+        @Getter private final @NonNull Path path;
+        @Getter private final CampaignPack pack;
+        private final IdentityHashMap<LevelSnapshot, LevelSource> sources = new IdentityHashMap<>();
+        private final Map<byte[], byte[]> optimizedImages;
+        
+        Stored(@NonNull CampaignSnapshot snapshot, @NonNull Path path, CampaignPack pack, @NonNull Map<byte[], byte[]> optimizedImages)
+        {
+            this.snapshot = snapshot;
+            this.path = path;
+            this.pack = pack;
+            this.optimizedImages = optimizedImages;
+        }
+        
+        void addSource(@NonNull LevelSnapshot level, @NonNull LevelSource source) { sources.put(level, source); }
+        
+        // Null if the level has not been written.
+        LevelSource getSource(@NonNull LevelSnapshot level) { return sources.get(level); }
+        
+        byte[] getStoredImage(byte[] image)
+        {
+            var optimized = image == null ? null : optimizedImages.get(image);
+            return optimized == null ? image : optimized;
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package kp.rollingcube.ce.campaign;
 
 import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import lombok.Getter;
 import lombok.NonNull;
@@ -13,11 +17,16 @@ import lombok.Setter;
  */
 public final class CampaingLoadSaveState
 {
+    // Progress updates are coalesced to at most 30 per second, however fast elements are resolved.
+    private static final long UPDATE_INTERVAL = TimeUnit.SECONDS.toNanos(1) / 30;
+    
     private final @NonNull Thread thread;
     @Getter private final @NonNull Campaign campaign;
     private final AtomicInteger total = new AtomicInteger(0);
     private final AtomicInteger current = new AtomicInteger(0);
     private final AtomicReference<String> currentDataText = new AtomicReference<>();
+    private final AtomicLong lastUpdate = new AtomicLong(System.nanoTime());
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
     
     @Getter @Setter private StateStartCallback onStartCallback;
     @Getter @Setter private StateUpdateCallback onUpdateCallback;
@@ -35,6 +44,10 @@ public final class CampaingLoadSaveState
             thread.start();
     }
     
+    // Asks the operation to stop. It rolls back what it has done so far and finishes as cancelled.
+    public void cancel() { cancelled.set(true); }
+    public boolean isCancelled() { return cancelled.get(); }
+    
     public int getTotal() { return total.get(); }
     public int getCurrent() { return current.get(); }
     
@@ -55,6 +68,12 @@ public final class CampaingLoadSaveState
     
     void resolveElement() { this.current.incrementAndGet(); sendUpdateSignal(); }
     
+    void checkCancelled() throws CancellationException
+    {
+        if(cancelled.get())
+            throw new CancellationException("Operation cancelled");
+    }
+    
     void start(String firstData)
     {
         setCurrentDataText(firstData);
@@ -67,9 +86,23 @@ public final class CampaingLoadSaveState
     {
         setCurrentDataText("Done!");
         if(onFinishCallback != null)
-            onFinishCallback.onFinish(new OperationResult(error));
+            onFinishCallback.onFinish(new OperationResult(error, false));
+    }
+    void finish() { finish((String) null); }
+    
+    void finish(Throwable failure)
+    {
+        if(!cancelled.get())
+        {
+            failure.printStackTrace(System.err);
+            finish(failure.getLocalizedMessage());
+            return;
+        }
+        
+        setCurrentDataText("Cancelled");
+        if(onFinishCallback != null)
+            onFinishCallback.onFinish(new OperationResult(null, true));
     }
-    void finish() { finish(null); }
     
     void setCurrentDataText(String text)
     {
@@ -80,8 +113,15 @@ public final class CampaingLoadSaveState
     
     private void sendUpdateSignal()
     {
-        if(onUpdateCallback != null)
-            onUpdateCallback.onUpdate(total.get(), current.get(), getCurrentDataText());
+        if(onUpdateCallback == null)
+            return;
+        
+        long now = System.nanoTime();
+        long last = lastUpdate.get();
+        if(now - last < UPDATE_INTERVAL || !lastUpdate.compareAndSet(last, now))
+            return;
+        
+        onUpdateCallback.onUpdate(total.get(), current.get(), getCurrentDataText());
     }
     
     
@@ -103,9 +143,15 @@ public final class CampaingLoadSaveState
     public static final class OperationResult
     {
         private final String error;
+        private final boolean cancelled;
         
-        private OperationResult(String error) { this.error = error; }
+        private OperationResult(String error, boolean cancelled)
+        {
+            this.error = error;
+            this.cancelled = cancelled;
+        }
         
+        public boolean isCancelled() { return cancelled; }
         public boolean hasError() { return error != null; }
         public @NonNull String getError() { return error == null ? "" : error; }
     }
@@ -4,12 +4,22 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Supplier;
 import kp.rollingcube.ce.campaign.locks.EpisodeUnlockRequirementsCollection;
+import kp.rollingcube.ce.utils.ChunkedList;
 import kp.rollingcube.ce.utils.IOUtils;
+import kp.rollingcube.ce.utils.Permutations;
 import kp.rollingcube.ce.utils.StringUtils;
+import kp.rollingcube.ce.utils.TaskPool;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NonNull;
@@ -28,7 +38,7 @@ public final class Episode
     @Getter @Setter(AccessLevel.PACKAGE)
     private int index;
     
-    @Getter @Setter(AccessLevel.PACKAGE)
+    @Getter
     private @NonNull String name;
     
     @Getter
@@ -40,7 +50,24 @@ public final class Episode
     private final ArrayList<BonusLevel> bonusLevels = new ArrayList<>();
     private final HashMap<String, SecretLevel> secretLevels = new HashMap<>();
     
-    private final EpisodeUnlockRequirementsCollection requirements = new EpisodeUnlockRequirementsCollection();
+    @Getter
+    private final SecretLinks secretLinks = new SecretLinks();
+    
+    private final EpisodeUnlockRequirementsCollection requirements = new EpisodeUnlockRequirementsCollection(this::invalidateSnapshot);
+    
+    private boolean propertiesDirty;
+    private boolean thumbnailDirty;
+    private int storedNormalLevels;
+    private int storedBonusLevels;
+    private final HashSet<String> removedSecretLevels = new HashSet<>();
+    private boolean rewrite;
+    private EpisodeSnapshot snapshot;
+    
+    // Parts of the snapshot kept until they change. The snapshots of positioned levels are also
+    // kept in chunks, so a change to a level only takes its chunk again, see invalidateSnapshot(Level).
+    private JSONObject json;
+    private final EnumMap<LevelType, List<LevelSnapshot>> levelSnapshots = new EnumMap<>(LevelType.class);
+    private final EnumMap<LevelType, ArrayList<List<LevelSnapshot>>> levelSnapshotChunks = new EnumMap<>(LevelType.class);
     
     Episode(@NonNull Campaign campaign, int index, @NonNull String name)
     {
@@ -51,6 +78,12 @@ public final class Episode
     
     public @NonNull Path getPath() { return campaign.getPath().resolve(name); }
     
+    void setName(@NonNull String name)
+    {
+        this.name = name;
+        invalidateSnapshot();
+    }
+    
     public @NonNull Path getNormalLevelsPath() { return getPath().resolve(LevelType.NORMAL.getFolderName()); }
     public @NonNull Path getBonusLevelsPath() { return getPath().resolve(LevelType.BONUS.getFolderName()); }
     public @NonNull Path getSecretLevelsPath() { return getPath().resolve(LevelType.SECRET.getFolderName()); }
@@ -66,12 +99,77 @@ public final class Episode
     public void changeThumbnail(Path path) throws IOException
     {
         var data = IOUtils.readAllBytesFromFile(path);
-        thumbnail = data;
+        setThumbnail(campaign.getBlobStore().intern(data));
+    }
+    
+    public void removeThumbnail() { setThumbnail(null); }
+    
+    private void setThumbnail(byte[] thumbnail)
+    {
+        if(thumbnail == this.thumbnail)
+            return;
+        
+        var formerThumbnail = this.thumbnail;
+        this.thumbnail = thumbnail;
+        thumbnailDirty = true;
+        invalidateSnapshot();
+        record(() -> new CampaignEdit.ChangeThumbnail(this, this::setThumbnail, formerThumbnail, thumbnail));
+    }
+    
+    public boolean isDirty()
+    {
+        if(isPropertiesDirty() || thumbnailDirty || !removedSecretLevels.isEmpty())
+            return true;
+        
+        if(normalLevels.size() != storedNormalLevels || bonusLevels.size() != storedBonusLevels)
+            return true;
+        
+        return hasDirtyLevels(normalLevels) || hasDirtyLevels(bonusLevels) || hasDirtyLevels(secretLevels.values());
+    }
+    private static boolean hasDirtyLevels(Iterable<? extends Level> levels)
+    {
+        for(var level : levels)
+            if(level.isDirty())
+                return true;
+        return false;
+    }
+    
+    boolean isPropertiesDirty() { return propertiesDirty || requirements.isDirty(); }
+    
+    void markPropertiesDirty()
+    {
+        propertiesDirty = true;
+        invalidateSnapshot();
+    }
+    
+    // The folder named after the episode does not hold its stored files: they are elsewhere, or
+    // they may be deleted or belong to a removed episode. The next in place save writes all of the
+    // episode again and replaces that folder with it.
+    void forgetStorage()
+    {
+        rewrite = true;
+        propertiesDirty = true;
+        thumbnailDirty = thumbnail != null;
+        storedNormalLevels = 0;
+        storedBonusLevels = 0;
+        removedSecretLevels.clear();
+        invalidateSnapshot();
     }
     
-    public void removeThumbnail()
+    boolean needsRewrite() { return rewrite; }
+    
+    private void record(CampaignEdit.Factory factory) { campaign.getJournal().record(factory); }
+    
+    void markStored()
     {
-        thumbnail = null;
+        rewrite = false;
+        propertiesDirty = false;
+        thumbnailDirty = false;
+        storedNormalLevels = normalLevels.size();
+        storedBonusLevels = bonusLevels.size();
+        removedSecretLevels.clear();
+        requirements.clearDirty();
+        invalidateSnapshot();
     }
     
     public void swapWith(Episode other)
@@ -87,9 +185,16 @@ public final class Episode
     public void setUnlockedNormalLevels(Integer amount)
     {
         if(amount == null || amount < 1)
-            unlockedNormalLevels = null;
-        else
+            amount = null;
+        
+        if(!Objects.equals(unlockedNormalLevels, amount))
+        {
+            var formerAmount = unlockedNormalLevels;
+            var newAmount = amount;
             unlockedNormalLevels = amount;
+            markPropertiesDirty();
+            record(() -> new CampaignEdit.SetProperty<>(this, "unlockedNormalLevels", this::setUnlockedNormalLevels, formerAmount, newAmount));
+        }
     }
     
     public EpisodeUnlockRequirements getRequirements() { return requirements; }
@@ -120,15 +225,15 @@ public final class Episode
     
     public void swapNormalLevels(int sourceIndex, int targetIndex) throws IndexOutOfBoundsException
     {
-        swapIndexedLevels(normalLevels, sourceIndex, targetIndex);
+        swapIndexedLevels(normalLevels, LevelType.NORMAL, sourceIndex, targetIndex);
     }
     
     public void swapBonusLevels(int sourceIndex, int targetIndex) throws IndexOutOfBoundsException
     {
-        swapIndexedLevels(bonusLevels, sourceIndex, targetIndex);
+        swapIndexedLevels(bonusLevels, LevelType.BONUS, sourceIndex, targetIndex);
     }
     
-    private <T extends IndexedLevel> void swapIndexedLevels(ArrayList<T> levels, int sourceIndex, int targetIndex) throws IndexOutOfBoundsException
+    private <T extends IndexedLevel> void swapIndexedLevels(ArrayList<T> levels, LevelType type, int sourceIndex, int targetIndex) throws IndexOutOfBoundsException
     {
         if(sourceIndex < 0 || sourceIndex >= levels.size())
             throw new IndexOutOfBoundsException(sourceIndex);
@@ -146,6 +251,9 @@ public final class Episode
         
         target.setIndex(sourceIndex);
         levels.set(target.getIndex(), target);
+        
+        record(() -> new CampaignEdit.SwapLevels(this, type, sourceIndex, targetIndex));
+        campaign.fireEvent(listener -> listener.levelsSwapped(current, target));
     }
     
     public void changeSecretLevelName(String currentName, String newName) throws IllegalArgumentException
@@ -160,31 +268,174 @@ public final class Episode
             throw new IllegalArgumentException(String.format("Secret Level \"%s\" already exists", newName));
         
         var level = getSecretLevel(currentName);
+        var formerName = level.getName();
         secretLevels.remove(level.getName());
+        removedSecretLevels.add(level.getName());
         level.setName(newName);
         secretLevels.put(level.getName(), level);
+        secretLinks.secretLevelRenamed(level, formerName);
+        markPropertiesDirty();
+        
+        record(() -> new CampaignEdit.RenameSecretLevel(this, formerName, newName));
+        campaign.fireEvent(listener -> listener.levelRenamed(level, formerName));
     }
     
     public void removeNormalLevel(int index) throws IllegalArgumentException
     {
-        removeIndexedLevel(normalLevels, index);
+        removeIndexedLevel(normalLevels, LevelType.NORMAL, index);
     }
     
     public void removeBonusLevel(int index) throws IllegalArgumentException
     {
-        removeIndexedLevel(bonusLevels, index);
+        removeIndexedLevel(bonusLevels, LevelType.BONUS, index);
     }
     
-    private void removeIndexedLevel(ArrayList<? extends IndexedLevel> levels, int index) throws IllegalArgumentException
+    private void removeIndexedLevel(ArrayList<? extends IndexedLevel> levels, LevelType type, int index) throws IllegalArgumentException
     {
         if(index < 0 || index >= levels.size())
             throw new IndexOutOfBoundsException(index);
         
-        levels.remove(index);
+        var removed = levels.remove(index);
+        secretLinks.remove(removed);
         
-        int idx = 0;
-        for(var level : levels)
-            level.setIndex(idx++);
+        for(int i = index; i < levels.size(); i++)
+            levels.get(i).setIndex(i);
+        
+        markPropertiesDirty();
+        record(() -> CampaignEdit.IndexedLevels.removed(this, type, List.of(removed), new int[] { index }));
+        campaign.fireEvent(listener -> listener.levelRemoved(removed, index));
+    }
+    
+    // Moves the level at from to the position to, shifting the levels in between by one.
+    public void moveLevel(@NonNull LevelType type, int from, int to) throws IndexOutOfBoundsException
+    {
+        moveIndexedLevel(getIndexedLevels(type), type, from, to);
+    }
+    
+    private <T extends IndexedLevel> void moveIndexedLevel(ArrayList<T> levels, LevelType type, int from, int to) throws IndexOutOfBoundsException
+    {
+        Objects.checkIndex(from, levels.size());
+        Objects.checkIndex(to, levels.size());
+        if(from == to)
+            return;
+        
+        var level = levels.get(from);
+        int step = from < to ? 1 : -1;
+        for(int i = from; i != to; i += step)
+            levels.set(i, levels.get(i + step));
+        levels.set(to, level);
+        
+        int first = Math.min(from, to);
+        int last = Math.max(from, to);
+        reindexLevels(levels, first, last);
+        markPropertiesDirty();
+        record(() -> new CampaignEdit.MoveLevel(this, type, from, to));
+        campaign.fireEvent(listener -> listener.levelsReordered(this, type, first, last));
+    }
+    
+    // Removes the levels at the given indices in a single pass. Repeated indices are removed once.
+    public void removeLevels(@NonNull LevelType type, @NonNull int... indices) throws IndexOutOfBoundsException
+    {
+        removeIndexedLevels(getIndexedLevels(type), type, indices);
+    }
+    
+    private <T extends IndexedLevel> void removeIndexedLevels(ArrayList<T> levels, LevelType type, int[] indices) throws IndexOutOfBoundsException
+    {
+        var sorted = Arrays.stream(indices).sorted().distinct().toArray();
+        if(sorted.length == 0)
+            return;
+        Objects.checkIndex(sorted[0], levels.size());
+        Objects.checkIndex(sorted[sorted.length - 1], levels.size());
+        
+        var removed = new ArrayList<T>(sorted.length);
+        int next = 0;
+        int kept = sorted[0];
+        for(int i = sorted[0]; i < levels.size(); i++)
+        {
+            if(next < sorted.length && sorted[next] == i)
+            {
+                removed.add(levels.get(i));
+                next++;
+            }
+            else
+                levels.set(kept++, levels.get(i));
+        }
+        levels.subList(kept, levels.size()).clear();
+        removed.forEach(secretLinks::remove);
+        
+        reindexLevels(levels, sorted[0], levels.size() - 1);
+        markPropertiesDirty();
+        record(() -> CampaignEdit.IndexedLevels.removed(this, type, removed, sorted));
+        campaign.fireEvent(listener -> listener.levelsRemoved(removed, sorted));
+    }
+    
+    // Reads the levels and inserts them from the position at on. Nothing is inserted if any of them cannot be read.
+    public @NonNull List<? extends IndexedLevel> insertLevels(@NonNull LevelType type, int at, @NonNull List<Path> levelPaths)
+            throws IllegalArgumentException, IndexOutOfBoundsException, IOException
+    {
+        switch(type)
+        {
+            case NORMAL: return insertIndexedLevels(normalLevels, type, at, levelPaths, () -> new NormalLevel(this));
+            case BONUS: return insertIndexedLevels(bonusLevels, type, at, levelPaths, () -> new BonusLevel(this));
+            default: throw new IllegalArgumentException("Secret levels have no position");
+        }
+    }
+    
+    private <T extends IndexedLevel> List<T> insertIndexedLevels(ArrayList<T> levels, LevelType type, int at, List<Path> levelPaths, Supplier<T> factory)
+            throws IndexOutOfBoundsException, IOException
+    {
+        Objects.checkIndex(at, levels.size() + 1);
+        var newLevels = new ArrayList<T>(levelPaths.size());
+        for(var path : levelPaths)
+        {
+            var level = factory.get();
+            level.loadExternData(path);
+            newLevels.add(level);
+        }
+        if(newLevels.isEmpty())
+            return newLevels;
+        
+        levels.addAll(at, newLevels);
+        newLevels.forEach(secretLinks::add);
+        reindexLevels(levels, at, levels.size() - 1);
+        markPropertiesDirty();
+        record(() -> CampaignEdit.IndexedLevels.added(this, type, newLevels));
+        campaign.fireEvent(listener -> listener.levelsAdded(newLevels));
+        return newLevels;
+    }
+    
+    // Puts each level at the index given for it: the level at i moves to permutation[i].
+    public void reorderLevels(@NonNull LevelType type, @NonNull int[] permutation) throws IllegalArgumentException
+    {
+        reorderIndexedLevels(getIndexedLevels(type), type, permutation);
+    }
+    
+    private <T extends IndexedLevel> void reorderIndexedLevels(ArrayList<T> levels, LevelType type, int[] permutation) throws IllegalArgumentException
+    {
+        var range = Permutations.apply(levels, permutation);
+        if(range == null)
+            return;
+        
+        reindexLevels(levels, range[0], range[1]);
+        markPropertiesDirty();
+        record(() -> new CampaignEdit.ReorderLevels(this, type, permutation));
+        campaign.fireEvent(listener -> listener.levelsReordered(this, type, range[0], range[1]));
+    }
+    
+    private static void reindexLevels(ArrayList<? extends IndexedLevel> levels, int first, int last)
+    {
+        for(int i = first; i <= last && i < levels.size(); i++)
+            levels.get(i).setIndex(i);
+    }
+    
+    private ArrayList<? extends IndexedLevel> getIndexedLevels(LevelType type) throws IllegalArgumentException
+    {
+        switch(type)
+        {
+            case NORMAL: return normalLevels;
+            case BONUS: return bonusLevels;
+            default: throw new IllegalArgumentException("Secret levels have no position");
+        }
     }
     
     public void removeSecretLevel(String name) throws IllegalArgumentException
@@ -194,6 +445,25 @@ public final class Episode
         
         var level = getSecretLevel(name);
         secretLevels.remove(level.getName());
+        secretLinks.remove(level);
+        removedSecretLevels.add(level.getName());
+        markPropertiesDirty();
+        record(() -> CampaignEdit.SecretLevelPresence.removed(level));
+        campaign.fireEvent(listener -> listener.levelRemoved(level, -1));
+    }
+    
+    // Puts back a secret level removed by removeSecretLevel, see CampaignJournal.
+    void restoreSecretLevel(@NonNull SecretLevel level) throws IllegalArgumentException
+    {
+        if(level.getEpisode() != this || existsSecretLevel(level.getName()))
+            throw new IllegalArgumentException(String.format("Secret Level \"%s\" cannot be put back", level.getName()));
+        
+        // Its name stays among the removed ones, whose files a save deletes unless a level is written to them.
+        level.markDirty();
+        secretLevels.put(level.getName(), level);
+        secretLinks.add(level);
+        markPropertiesDirty();
+        campaign.fireEvent(listener -> listener.levelAdded(level));
     }
     
     public @NonNull NormalLevel addNormalLevel(Path levelPath) throws IllegalArgumentException, IOException
@@ -206,14 +476,51 @@ public final class Episode
         return addIndexedLevel(bonusLevels, new BonusLevel(this), levelPath);
     }
     
-    private static <T extends IndexedLevel> @NonNull T addIndexedLevel(ArrayList<T> levels, T newLevel, Path levelPath) throws IllegalArgumentException, IOException
+    private <T extends IndexedLevel> @NonNull T addIndexedLevel(ArrayList<T> levels, T newLevel, Path levelPath) throws IllegalArgumentException, IOException
     {
         newLevel.loadExternData(levelPath);
         newLevel.setIndex(levels.size());
         levels.add(newLevel);
+        secretLinks.add(newLevel);
+        markPropertiesDirty();
+        record(() -> CampaignEdit.IndexedLevels.added(this, newLevel.getType(), List.of(newLevel)));
+        campaign.fireEvent(listener -> listener.levelAdded(newLevel));
         return newLevel;
     }
     
+    // Reads the levels in the background, see LevelsImport. The episode is untouched until it is committed.
+    public @NonNull LevelsImport importLevels(@NonNull LevelType type, @NonNull List<Path> levelPaths)
+    {
+        return new LevelsImport(this, type, levelPaths, TaskPool.defaultParallelism());
+    }
+    
+    void addIndexedLevels(@NonNull LevelType type, @NonNull List<? extends IndexedLevel> newLevels)
+    {
+        if(newLevels.isEmpty())
+            return;
+        
+        if(type == LevelType.BONUS)
+            appendIndexedLevels(bonusLevels, newLevels, BonusLevel.class);
+        else
+            appendIndexedLevels(normalLevels, newLevels, NormalLevel.class);
+        
+        markPropertiesDirty();
+        record(() -> CampaignEdit.IndexedLevels.added(this, type, newLevels));
+        campaign.fireEvent(listener -> listener.levelsAdded(newLevels));
+    }
+    
+    private <T extends IndexedLevel> void appendIndexedLevels(ArrayList<T> levels, List<? extends IndexedLevel> newLevels, Class<T> levelClass)
+    {
+        checkOwnLevels(newLevels, levelClass);
+        levels.ensureCapacity(levels.size() + newLevels.size());
+        for(var level : newLevels)
+        {
+            level.setIndex(levels.size());
+            levels.add(levelClass.cast(level));
+            secretLinks.add(level);
+        }
+    }
+    
     public @NonNull SecretLevel addSecretLevel(String name, Path levelPath) throws IllegalArgumentException, IOException
     {
         if(name == null || name.isBlank())
@@ -227,109 +534,237 @@ public final class Episode
         level.loadExternData(levelPath);
         
         secretLevels.put(level.getName(), level);
+        secretLinks.add(level);
+        markPropertiesDirty();
+        record(() -> CampaignEdit.SecretLevelPresence.added(level));
+        campaign.fireEvent(listener -> listener.levelAdded(level));
         return level;
     }
     
-    void read(CampaingLoadSaveState state)
+    // Puts back levels removed by removeLevels, at the sorted indices they were removed from. See CampaignJournal.
+    void restoreLevels(@NonNull LevelType type, @NonNull List<? extends IndexedLevel> restored, @NonNull int[] indices) throws IllegalArgumentException
     {
-        readLevels(normalLevels, state);
-        readLevels(bonusLevels, state);
-        readLevels(secretLevels.values(), state);
-        
-        if(!hasThumbnailPath())
-            thumbnail = null;
+        if(type == LevelType.BONUS)
+            restoreIndexedLevels(bonusLevels, restored, indices, BonusLevel.class);
         else
+            restoreIndexedLevels(normalLevels, restored, indices, NormalLevel.class);
+    }
+    
+    private <T extends IndexedLevel> void restoreIndexedLevels(ArrayList<T> levels, List<? extends IndexedLevel> restored, int[] indices, Class<T> levelClass)
+    {
+        if(restored.isEmpty())
+            return;
+        checkOwnLevels(restored, levelClass);
+        if(indices.length != restored.size())
+            throw new IllegalArgumentException("Expected an index for each level");
+        
+        int size = levels.size() + restored.size();
+        Objects.checkIndex(indices[indices.length - 1], size);
+        
+        // From the end, so every level is moved once.
+        int kept = levels.size() - 1;
+        levels.addAll(Collections.nCopies(restored.size(), null));
+        int next = restored.size() - 1;
+        for(int i = size - 1; next >= 0; i--)
         {
+            if(indices[next] == i)
+                levels.set(i, levelClass.cast(restored.get(next--)));
+            else
+                levels.set(i, levels.get(kept--));
+        }
+        
+        restored.forEach(secretLinks::add);
+        reindexLevels(levels, indices[0], size - 1);
+        markPropertiesDirty();
+        for(var level : restored)
+            campaign.fireEvent(listener -> listener.levelAdded(level));
+    }
+    
+    private <T extends IndexedLevel> void checkOwnLevels(List<? extends IndexedLevel> levels, Class<T> levelClass) throws IllegalArgumentException
+    {
+        for(var level : levels)
+            if(level.getEpisode() != this || !levelClass.isInstance(level))
+                throw new IllegalArgumentException("The level cannot be added to this episode");
+    }
+    
+    void collectLevels(List<Level> target)
+    {
+        target.addAll(normalLevels);
+        target.addAll(bonusLevels);
+        target.addAll(secretLevels.values());
+    }
+    
+    void collectLevelsWithoutMetadata(List<Level> target)
+    {
+        collectLevelsWithoutMetadata(normalLevels, target);
+        collectLevelsWithoutMetadata(bonusLevels, target);
+        collectLevelsWithoutMetadata(secretLevels.values(), target);
+    }
+    private static void collectLevelsWithoutMetadata(Iterable<? extends Level> levels, List<Level> target)
+    {
+        for(var level : levels)
+            if(!level.hasMetadata())
+                target.add(level);
+    }
+    
+    void read(CampaingLoadSaveState state, TaskPool pool, boolean lazy)
+    {
+        readLevels(normalLevels, state, pool, lazy);
+        readLevels(bonusLevels, state, pool, lazy);
+        readLevels(secretLevels.values(), state, pool, lazy);
+        
+        pool.submit(() -> {
             state.setCurrentDataText(getThumbnailPath());
-            try { thumbnail = IOUtils.readAllBytesFromFile(getThumbnailPath()); }
-            catch(IOException ex) {}
+            try { thumbnail = campaign.getBlobStore().intern(campaign.readStoredFile(getThumbnailPath())); }
+            catch(IOException ex) { thumbnail = null; }
             finally { state.resolveElement(); }
-        }
+        });
     }
-    private static void readLevels(Iterable<? extends Level> levels, CampaingLoadSaveState state)
+    private static void readLevels(Iterable<? extends Level> levels, CampaingLoadSaveState state, TaskPool pool, boolean lazy)
     {
         for(var level : levels)
         {
-            try
-            {
-                level.read(state);
-            }
-            catch(IOException ex)
-            {
-                ex.printStackTrace(System.err);
-            }
+            pool.submit(() -> {
+                try
+                {
+                    level.read(state, lazy);
+                }
+                catch(IOException ex)
+                {
+                    ex.printStackTrace(System.err);
+                }
+            });
         }
     }
     
-    void write(CampaingLoadSaveState state)
+    void relocateLevels(Path from, Path to)
     {
-        try
-        {
-            Files.createDirectories(getPath());
-            Files.createDirectories(getNormalLevelsPath());
-            Files.createDirectories(getBonusLevelsPath());
-            Files.createDirectories(getSecretLevelsPath());
-        }
-        catch(IOException ex)
+        normalLevels.forEach(level -> level.relocate(from, to));
+        bonusLevels.forEach(level -> level.relocate(from, to));
+        secretLevels.values().forEach(level -> level.relocate(from, to));
+        invalidateSnapshot();
+    }
+    
+    void prepareLoadState(CampaingLoadSaveState state)
+    {
+        normalLevels.forEach(level -> level.prepareLoadState(state));
+        bonusLevels.forEach(level -> level.prepareLoadState(state));
+        secretLevels.values().forEach(level -> level.prepareLoadState(state));
+        state.addElement();
+    }
+    
+    // The cached snapshot of the episode, rebuilt from the parts of the former one that did not change.
+    @NonNull EpisodeSnapshot snapshot()
+    {
+        if(snapshot == null)
         {
-            ex.printStackTrace(System.err);
+            if(json == null)
+                json = toJson();
+            
+            snapshot = new EpisodeSnapshot(this, name, json, thumbnail,
+                    snapshotLevels(LevelType.NORMAL, normalLevels), snapshotLevels(LevelType.BONUS, bonusLevels), snapshotSecretLevels(),
+                    isPropertiesDirty(), thumbnailDirty, storedNormalLevels, storedBonusLevels, removedSecretLevels, rewrite);
         }
+        return snapshot;
+    }
+    
+    private List<LevelSnapshot> snapshotLevels(LevelType type, ArrayList<? extends IndexedLevel> levels)
+    {
+        var snapshots = levelSnapshots.get(type);
+        if(snapshots != null)
+            return snapshots;
         
-        writeLevels(normalLevels, state);
-        writeLevels(bonusLevels, state);
-        writeLevels(secretLevels.values(), state);
+        var chunks = levelSnapshotChunks.computeIfAbsent(type, t -> new ArrayList<>());
+        if(chunks.isEmpty())
+            chunks.addAll(Collections.nCopies(ChunkedList.chunksFor(levels.size()), null));
         
-        try
+        for(int i = 0; i < chunks.size(); i++)
         {
-            state.setCurrentDataText(getThumbnailPath());
-            if(thumbnail != null)
+            if(chunks.get(i) == null)
             {
-                IOUtils.writeAllBytesToFile(getThumbnailPath(), thumbnail);
+                var chunk = levels.subList(i * ChunkedList.CHUNK_SIZE, Math.min((i + 1) * ChunkedList.CHUNK_SIZE, levels.size()));
+                var chunkSnapshots = new ArrayList<LevelSnapshot>(chunk.size());
+                for(var level : chunk)
+                    chunkSnapshots.add(level.snapshot());
+                chunks.set(i, List.copyOf(chunkSnapshots));
             }
         }
-        catch(IOException ex) {}
-        finally { state.resolveElement(); }
+        
+        snapshots = new ChunkedList<>(chunks);
+        levelSnapshots.put(type, snapshots);
+        return snapshots;
     }
-    private static void writeLevels(Iterable<? extends Level> levels, CampaingLoadSaveState state)
+    
+    // Secret levels have no position, they are taken again together.
+    private List<LevelSnapshot> snapshotSecretLevels()
     {
-        for(var level : levels)
+        var snapshots = levelSnapshots.get(LevelType.SECRET);
+        if(snapshots == null)
         {
-            try
-            {
-                level.write(state);
-            }
-            catch(IOException ex)
-            {
-                ex.printStackTrace(System.err);
-            }
+            var secretSnapshots = new ArrayList<LevelSnapshot>(secretLevels.size());
+            for(var level : secretLevels.values())
+                secretSnapshots.add(level.snapshot());
+            snapshots = List.copyOf(secretSnapshots);
+            levelSnapshots.put(LevelType.SECRET, snapshots);
         }
+        return snapshots;
     }
     
-    void prepareLoadState(CampaingLoadSaveState state)
+    void invalidateSnapshot()
     {
-        prepareLoadSaveState(normalLevels, state, false);
-        prepareLoadSaveState(bonusLevels, state, false);
-        prepareLoadSaveState(secretLevels.values(), state, false);
-        state.addElement();
+        snapshot = null;
+        json = null;
+        levelSnapshots.clear();
+        levelSnapshotChunks.clear();
+        campaign.invalidateSnapshot();
     }
     
-    void prepareSaveState(CampaingLoadSaveState state)
+    // Only the snapshot of the level changed. Its position and the properties of the episode are
+    // the same, anything else calls invalidateSnapshot(), so the rest of the snapshot is kept.
+    void invalidateSnapshot(@NonNull Level level)
     {
-        prepareLoadSaveState(normalLevels, state, true);
-        prepareLoadSaveState(bonusLevels, state, true);
-        prepareLoadSaveState(secretLevels.values(), state, true);
-        state.addElement();
+        snapshot = null;
+        levelSnapshots.remove(level.getType());
+        var chunks = levelSnapshotChunks.get(level.getType());
+        if(chunks != null && level instanceof IndexedLevel)
+        {
+            int chunk = ChunkedList.chunkOf(((IndexedLevel) level).getIndex());
+            if(chunk < chunks.size())
+                chunks.set(chunk, null);
+        }
+        campaign.invalidateLevelSnapshot();
     }
     
-    private static void prepareLoadSaveState(Iterable<? extends Level> levels, CampaingLoadSaveState state, boolean isSave)
+    // The episode has been saved as in saved, see Campaign.storedAs. What changed meanwhile stays dirty.
+    void storedAs(@NonNull EpisodeSnapshot saved, @NonNull CampaignSnapshot.Stored stored)
     {
-        for(var level : levels)
+        boolean changed = saved != snapshot;
+        for(var type : LevelType.values())
         {
-            if(isSave)
-                level.prepareSaveState(state);
-            else
-                level.prepareLoadState(state);
+            for(var level : saved.getLevels(type))
+            {
+                var source = stored.getSource(level);
+                if(source != null)
+                    level.owner.storedAs(level, source, stored.getStoredImage(level.thumbnail));
+            }
+        }
+        
+        storedNormalLevels = saved.getNormalLevels().size();
+        storedBonusLevels = saved.getBonusLevels().size();
+        removedSecretLevels.removeAll(saved.removedSecretLevels);
+        if(saved.rewrite)
+            rewrite = false;
+        if(thumbnail == saved.thumbnail)
+        {
+            thumbnail = stored.getStoredImage(thumbnail);
+            thumbnailDirty = false;
+        }
+        if(!changed)
+        {
+            propertiesDirty = false;
+            requirements.clearDirty();
         }
+        invalidateSnapshot();
     }
     
     @NonNull JSONObject toJson()
@@ -381,6 +816,7 @@ public final class Episode
             var level = new NormalLevel(episode);
             level.setIndex(i);
             episode.normalLevels.add(level);
+            episode.secretLinks.add(level);
         }
         
         int bonusLevelsCount = json.optInt("bonusLevels", 0);
@@ -389,6 +825,7 @@ public final class Episode
             var level = new BonusLevel(episode);
             level.setIndex(i);
             episode.bonusLevels.add(level);
+            episode.secretLinks.add(level);
         }
         
         int unlockedNormalLevels = json.optInt("unlockedNormalLevels", -1);
@@ -420,6 +857,7 @@ public final class Episode
                     level.setPenalty(penalty);
                     
                     episode.secretLevels.put(level.getName(), level);
+                    episode.secretLinks.add(level);
                 }
             }
         }
@@ -0,0 +1,270 @@
+package kp.rollingcube.ce.campaign;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import kp.rollingcube.ce.utils.LevelLocation;
+import kp.rollingcube.ce.utils.TaskPool;
+import lombok.Getter;
+import lombok.NonNull;
+import org.json.JSONObject;
+
+/**
+ * Immutable state of an episode at the time of a snapshot. The snapshots of its levels are
+ * shared with every other snapshot taken while those levels did not change.
+ *
+ * The lists of levels are immutable and taken as they are, see Episode.snapshot.
+ *
+ * @author Marc
+ */
+public final class EpisodeSnapshot
+{
+    final @NonNull Episode owner;
+    
+    @Getter private final @NonNull String name;
+    @Getter private final @NonNull List<LevelSnapshot> normalLevels;
+    @Getter private final @NonNull List<LevelSnapshot> bonusLevels;
+    @Getter private final @NonNull List<LevelSnapshot> secretLevels;
+    
+    // Never modified once built.
+    final @NonNull JSONObject json;
+    
+    final byte[] thumbnail;
+    final boolean propertiesDirty;
+    final boolean thumbnailDirty;
+    final int storedNormalLevels;
+    final int storedBonusLevels;
+    final @NonNull Set<String> removedSecretLevels;
+    
+    // An in place save writes the whole episode and replaces its folder, see Episode.forgetStorage.
+    final boolean rewrite;
+    
+    EpisodeSnapshot(@NonNull Episode owner, @NonNull String name, @NonNull JSONObject json, byte[] thumbnail,
+            @NonNull List<LevelSnapshot> normalLevels, @NonNull List<LevelSnapshot> bonusLevels, @NonNull List<LevelSnapshot> secretLevels,
+            boolean propertiesDirty, boolean thumbnailDirty, int storedNormalLevels, int storedBonusLevels, @NonNull Set<String> removedSecretLevels,
+            boolean rewrite)
+    {
+        this.owner = owner;
+        this.name = name;
+        this.json = json;
+        this.thumbnail = thumbnail;
+        this.normalLevels = normalLevels;
+        this.bonusLevels = bonusLevels;
+        this.secretLevels = secretLevels;
+        this.propertiesDirty = propertiesDirty;
+        this.thumbnailDirty = thumbnailDirty;
+        this.storedNormalLevels = storedNormalLevels;
+        this.storedBonusLevels = storedBonusLevels;
+        this.removedSecretLevels = Set.copyOf(removedSecretLevels);
+        this.rewrite = rewrite;
+    }
+    
+    public @NonNull List<LevelSnapshot> getLevels(@NonNull LevelType type)
+    {
+        switch(type)
+        {
+            case NORMAL: return normalLevels;
+            case BONUS: return bonusLevels;
+            default: return secretLevels;
+        }
+    }
+    
+    Path getPath(@NonNull Path root) { return root.resolve(name); }
+    Path getLevelsPath(@NonNull Path root, @NonNull LevelType type) { return getPath(root).resolve(type.getFolderName()); }
+    Path getThumbnailPath(@NonNull Path root) { return getPath(root).resolve("thumbnail.png"); }
+    
+    String getPackedLevelsName(@NonNull LevelType type) { return name + "/" + type.getFolderName(); }
+    String getPackedThumbnailName() { return name + "/thumbnail.png"; }
+    
+    void prepareSaveState(CampaingLoadSaveState state)
+    {
+        for(var type : LevelType.values())
+            for(var level : getLevels(type))
+                level.prepareSaveState(state);
+        state.addElement();
+    }
+    
+    void prepareChangesSaveState(CampaingLoadSaveState state)
+    {
+        if(rewrite)
+        {
+            prepareSaveState(state);
+            return;
+        }
+        
+        for(var type : LevelType.values())
+            for(var level : getLevels(type))
+                if(level.isDirty())
+                    level.prepareSaveState(state);
+        if(thumbnailDirty)
+            state.addElement();
+    }
+    
+    void optimizeThumbnails(CampaingLoadSaveState state, TaskPool pool, BlobStore blobs, int maxSize)
+    {
+        for(var type : LevelType.values())
+        {
+            for(var level : getLevels(type))
+            {
+                if(level.isDirty())
+                {
+                    state.addElement();
+                    pool.submit(() -> {
+                        try
+                        {
+                            state.checkCancelled();
+                            level.optimizeThumbnail(blobs, maxSize);
+                        }
+                        finally { state.resolveElement(); }
+                    });
+                }
+            }
+        }
+        
+        if(thumbnailDirty && thumbnail != null)
+        {
+            state.addElement();
+            pool.submit(() -> {
+                try { blobs.optimizeImage(thumbnail, maxSize); }
+                finally { state.resolveElement(); }
+            });
+        }
+    }
+    
+    void write(@NonNull Path root, CampaingLoadSaveState state, TaskPool pool, BlobStore blobs, boolean linkFiles) throws IOException
+    {
+        Files.createDirectories(getPath(root));
+        for(var type : LevelType.values())
+        {
+            var folder = getLevelsPath(root, type);
+            Files.createDirectories(folder);
+            for(var level : getLevels(type))
+                pool.submit(() -> level.writeFiles(folder, state, blobs, linkFiles, null));
+        }
+        
+        pool.submit(() -> {
+            try
+            {
+                state.setCurrentDataText(getThumbnailPath(root));
+                if(thumbnail != null)
+                    blobs.write(blobs.getOptimizedImage(thumbnail), getThumbnailPath(root), linkFiles);
+            }
+            finally { state.resolveElement(); }
+        });
+    }
+    
+    void pack(CampaignPack.Writer writer, CampaingLoadSaveState state, BlobStore blobs) throws IOException
+    {
+        for(var type : LevelType.values())
+        {
+            var folder = getPackedLevelsName(type);
+            for(var level : getLevels(type))
+                level.pack(folder, writer, state, blobs);
+        }
+        
+        try
+        {
+            state.setCurrentDataText(getPackedThumbnailName());
+            blobs.pack(blobs.getOptimizedImage(thumbnail), getPackedThumbnailName(), writer);
+        }
+        finally { state.resolveElement(); }
+    }
+    
+    // Stages every change of the episode, nothing is replaced until changes are committed.
+    void writeChanges(@NonNull Path root, CampaingLoadSaveState state, StagedChanges changes, BlobStore blobs) throws IOException, InterruptedException
+    {
+        if(rewrite)
+        {
+            rewrite(root, state, changes, blobs);
+            return;
+        }
+        
+        for(var type : LevelType.values())
+            Files.createDirectories(getLevelsPath(root, type));
+        deleteStaleLevelFiles(root, changes);
+        
+        for(var type : LevelType.values())
+        {
+            var folder = getLevelsPath(root, type);
+            for(var level : getLevels(type))
+                if(level.isDirty())
+                    level.writeFiles(folder, state, blobs, false, changes);
+        }
+        
+        if(thumbnailDirty)
+        {
+            state.checkCancelled();
+            try
+            {
+                state.setCurrentDataText(getThumbnailPath(root));
+                if(thumbnail != null)
+                    blobs.write(blobs.getOptimizedImage(thumbnail), changes.stage(getThumbnailPath(root)), false);
+                else
+                    changes.delete(getThumbnailPath(root));
+            }
+            finally { state.resolveElement(); }
+        }
+    }
+    
+    // The whole episode is written into a staged folder, which replaces its folder when changes are committed.
+    private void rewrite(Path root, CampaingLoadSaveState state, StagedChanges changes, BlobStore blobs) throws IOException, InterruptedException
+    {
+        var stagedRoot = changes.stageFolder(getPath(root));
+        try(var pool = new TaskPool("episode-save"))
+        {
+            write(stagedRoot, state, pool, blobs, false);
+            pool.await();
+        }
+    }
+    
+    private void deleteStaleLevelFiles(Path root, StagedChanges changes)
+    {
+        for(var name : removedSecretLevels)
+            deleteLevelFiles(getLevelsPath(root, LevelType.SECRET), name, changes);
+        
+        for(int i = normalLevels.size(); i < storedNormalLevels; i++)
+            deleteLevelFiles(getLevelsPath(root, LevelType.NORMAL), Integer.toString(i + 1), changes);
+        
+        for(int i = bonusLevels.size(); i < storedBonusLevels; i++)
+            deleteLevelFiles(getLevelsPath(root, LevelType.BONUS), Integer.toString(i + 1), changes);
+    }
+    private static void deleteLevelFiles(Path folder, String filenameWithoutExtension, StagedChanges changes)
+    {
+        changes.delete(folder.resolve(filenameWithoutExtension + ".json"));
+        changes.delete(folder.resolve(filenameWithoutExtension + ".png"));
+    }
+    
+    // Records where the levels written into the folder root are now, all of them or only the dirty ones.
+    void collectStoredSources(@NonNull Path root, boolean onlyDirty, CampaignSnapshot.Stored stored)
+    {
+        if(rewrite)
+            onlyDirty = false;
+        for(var type : LevelType.values())
+        {
+            var folder = getLevelsPath(root, type);
+            for(var level : getLevels(type))
+            {
+                if(onlyDirty && !level.isDirty())
+                    continue;
+                
+                var source = LevelSource.of(LevelLocation.find(folder.resolve(level.getFileName())));
+                stored.addSource(level, source);
+                if(level.metadata != null && source.getDataFile() != null)
+                    LevelMetadataCache.put(source.getDataFile(), level.metadata);
+            }
+        }
+    }
+    
+    // Records where the levels written into pack are now.
+    void collectStoredSources(@NonNull CampaignPack pack, CampaignSnapshot.Stored stored)
+    {
+        for(var type : LevelType.values())
+        {
+            var folder = getPackedLevelsName(type);
+            for(var level : getLevels(type))
+                stored.addSource(level, LevelSource.of(pack, level.getPackedDataName(folder), level.getPackedThumbnailName(folder)));
+        }
+    }
+}
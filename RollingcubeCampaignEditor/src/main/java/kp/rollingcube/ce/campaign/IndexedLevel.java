@@ -1,9 +1,7 @@
 package kp.rollingcube.ce.campaign;
 
 import java.io.IOException;
-import lombok.AccessLevel;
 import lombok.Getter;
-import lombok.Setter;
 
 /**
  *
@@ -11,7 +9,7 @@ import lombok.Setter;
  */
 public abstract class IndexedLevel extends Level
 {
-    @Getter @Setter(AccessLevel.PACKAGE)
+    @Getter
     protected int index;
     
     IndexedLevel(Episode episode)
@@ -19,5 +17,14 @@ public abstract class IndexedLevel extends Level
         super(episode);
     }
     
+    void setIndex(int index)
+    {
+        if(this.index != index)
+        {
+            this.index = index;
+            markDirty();
+        }
+    }
+    
     public abstract void swapWith(int otherIndex) throws IOException;
 }
@@ -5,6 +5,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Optional;
 import kp.rollingcube.ce.utils.LevelLocation;
+import kp.rollingcube.ce.utils.Thumbnail;
 import lombok.Getter;
 import lombok.NonNull;
 
@@ -17,11 +18,12 @@ public abstract class Level
     @Getter
     protected final @NonNull Episode episode;
     
-    private final LevelData data = new LevelData();
+    private final LevelData data;
     
     Level(Episode episode)
     {
         this.episode = episode;
+        this.data = new LevelData(episode.getCampaign().getBlobStore());
     }
     
     public abstract @NonNull LevelType getType();
@@ -35,23 +37,61 @@ public abstract class Level
     public final @NonNull Path getLevelPath() { return getPath(".json"); }
     public final @NonNull Path getThumbnailPath() { return getPath(".png"); }
     public final @NonNull LevelLocation getLocation() { return LevelLocation.find(getPath(null)); }
+    final @NonNull Path getLocationPath() { return getPath(null); }
+    final @NonNull String getPackedName(String extension) { return episode.getCampaign().toPackedName(getPath(extension)); }
     
     public final boolean existsLevelFile() { return Files.isRegularFile(getLevelPath()); }
     public final boolean existsThumbnailFile() { return Files.isRegularFile(getThumbnailPath()); }
     
     public final Optional<String> getData() { return Optional.ofNullable(data.getData()); }
     public final Optional<byte[]> getThumbnail() { return Optional.ofNullable(data.getThumbnail()); }
+    public final Thumbnail.Source getThumbnailSource() { return data.getThumbnailSource(); }
     
-    public final boolean hasFruit() { return data.hasFruit(); }
-    public final Optional<String> getSecretExitLevelTag() { return data.getSecretExitLevelTag(); }
+    // Whether hasFruit and getSecretExitLevelTag can answer without scanning the level data.
+    public final boolean hasMetadata() { return data.hasMetadata(); }
+    public final boolean hasFruit() { return loadMetadata().hasFruit(); }
+    public final Optional<String> getSecretExitLevelTag() { return Optional.ofNullable(loadMetadata().getSecretExit()); }
     
-    public final void loadExternData(Path path) throws IOException { data.loadExternLevel(path); }
+    public final void loadExternData(Path path) throws IOException
+    {
+        data.loadExternLevel(path);
+        episode.getSecretLinks().update(this);
+    }
+    
+    public final boolean isDirty() { return data.isDirty(); }
+    final void markDirty()
+    {
+        data.markDirty();
+        episode.invalidateSnapshot(this);
+    }
+    
+    final void read(CampaingLoadSaveState state, boolean lazy) throws IOException
+    {
+        data.read(episode.getCampaign().findLevelSource(this), state, lazy);
+        episode.getSecretLinks().update(this);
+    }
+    
+    // The episode indexes the secret exit of the level the first time it is scanned, see SecretLinks.
+    final @NonNull LevelDataScanner.Result loadMetadata()
+    {
+        if(data.hasMetadata())
+            return data.loadMetadata();
+        
+        var metadata = data.loadMetadata();
+        episode.getSecretLinks().update(this);
+        return metadata;
+    }
+    
+    final LevelDataScanner.Result peekMetadata() { return data.peekMetadata(); }
+    
+    final @NonNull LevelSnapshot snapshot() { return data.snapshot(this); }
+    
+    final void relocate(Path from, Path to) { data.relocate(from, to); }
     
-    final void read(CampaingLoadSaveState state) throws IOException { data.read(this, state); }
-    final void write(CampaingLoadSaveState state) throws IOException { data.write(this, state); }
+    final void detach(CampaignJournal journal) throws IOException { data.detach(journal); }
+    final void discardPayload() { data.discardPayload(); }
     
     final void prepareLoadState(CampaingLoadSaveState state) { data.prepareLoadState(state); }
-    final void prepareSaveState(CampaingLoadSaveState state) { data.prepareSaveState(state); }
     
     private Path getPath(String extension)
     {
@@ -1,18 +1,14 @@
 package kp.rollingcube.ce.campaign;
 
 import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
-import java.util.Iterator;
-import java.util.NoSuchElementException;
 import java.util.Optional;
 import kp.rollingcube.ce.utils.IOUtils;
 import kp.rollingcube.ce.utils.LevelLocation;
-import lombok.Getter;
+import kp.rollingcube.ce.utils.Thumbnail;
 import lombok.NonNull;
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.json.JSONTokener;
 
 /**
  *
@@ -20,241 +16,336 @@ import org.json.JSONTokener;
  */
 public final class LevelData
 {
-    @Getter
-    private String data;
+    private final BlobStore blobs;
+    
+    // Stored copy of the current payload of the level, or null when it only exists in memory.
+    private LevelSource source;
     
-    @Getter
+    // A resident payload is held in data/thumbnail. Otherwise it is fetched from source
+    // on demand and kept in soft references the GC may clear.
+    private boolean resident = true;
+    private boolean lazy;
+    
+    private String data;
     private byte[] thumbnail;
+    private SoftReference<String> cachedData;
+    private SoftReference<byte[]> cachedThumbnail;
     
-    private Boolean hasFruitItem;
-    private String secretExit;
+    // Keys of the payload of source in the blob store, so it is not hashed again each time it is fetched.
+    private BlobStore.Key dataKey;
+    private BlobStore.Key thumbnailKey;
     
-    void prepareLoadState(CampaingLoadSaveState state) { state.addElements(2); }
-    void prepareSaveState(CampaingLoadSaveState state) { state.addElements(2); }
+    // Scanned from the level data, null until then. Readable without the lock so the UI never waits for a scan.
+    private volatile LevelDataScanner.Result metadata;
     
-    public boolean hasDataFile() { return data != null; }
-    public boolean hasThumbnailFile() { return thumbnail != null; }
+    private boolean dirty;
+    private LevelSnapshot snapshot;
     
-    public boolean hasFruit()
-    {
-        if(hasFruitItem == null)
-            readLevelDataExtraInfo();
-        return hasFruitItem != null && hasFruitItem;
-    }
+    LevelData(@NonNull BlobStore blobs) { this.blobs = blobs; }
     
-    public Optional<String> getSecretExitLevelTag()
-    {
-        if(hasFruitItem == null)
-            readLevelDataExtraInfo();
-        return Optional.ofNullable(secretExit);
-    }
+    void prepareLoadState(CampaingLoadSaveState state) { state.addElements(2); }
     
-    public void read(@NonNull Level level, CampaingLoadSaveState state) throws IOException
-    {
-        var location = level.getLocation();
-        readDataFile(location, state);
-        readThumbnailFile(location, state);
-    }
+    public boolean isDirty() { return dirty; }
     
-    public void write(@NonNull Level level, CampaingLoadSaveState state) throws IOException
+    void markDirty()
     {
-        writeDataFile(level.getLevelPath(), state);
-        writeThumbnailFile(level.getThumbnailPath(), state);
+        dirty = true;
+        snapshot = null;
     }
     
-    public void loadExternLevel(Path path) throws IOException
+    public synchronized boolean hasDataFile() { return resident ? data != null : source.hasData(); }
+    public synchronized boolean hasThumbnailFile() { return resident ? thumbnail != null : source.hasThumbnail(); }
+    
+    public synchronized String getData()
     {
-        var location = LevelLocation.find(path);
-        readExternDataFile(location);
-        readExternThumbnailFile(location);
+        if(resident)
+            return data;
+        
+        var value = cachedData == null ? null : cachedData.get();
+        if(value == null && source.hasData())
+        {
+            try
+            {
+                var storedData = source.readData();
+                if(dataKey == null && storedData != null)
+                    dataKey = blobs.keyOf(storedData);
+                value = blobs.intern(storedData, dataKey);
+                cachedData = new SoftReference<>(value);
+            }
+            catch(IOException ex)
+            {
+                ex.printStackTrace(System.err);
+            }
+        }
+        return value;
     }
     
-    private void readDataFile(LevelLocation location, CampaingLoadSaveState state) throws IOException
+    public synchronized byte[] getThumbnail()
     {
-        try
+        if(resident)
+            return thumbnail;
+        
+        var value = cachedThumbnail == null ? null : cachedThumbnail.get();
+        if(value == null && source.hasThumbnail())
         {
-            state.setCurrentDataText(location.getLevelPath());
-            if(!location.hasLevelPath())
+            try
             {
-                data = null;
-                return;
+                var storedThumbnail = source.readThumbnail();
+                if(thumbnailKey == null && storedThumbnail != null)
+                    thumbnailKey = blobs.keyOf(storedThumbnail);
+                value = blobs.intern(storedThumbnail, thumbnailKey);
+                cachedThumbnail = new SoftReference<>(value);
+            }
+            catch(IOException ex)
+            {
+                ex.printStackTrace(System.err);
             }
-
-            data = IOUtils.readAllFromFile(location.getLevelPath(), StandardCharsets.UTF_8);
         }
-        finally { state.resolveElement(); }
+        return value;
     }
-    private void readExternDataFile(LevelLocation location) throws IOException
+    
+    // The thumbnail for the UI. While it is stored unchanged, its stored key lets the caches of
+    // the thumbnails stand in for it without reading it.
+    public Thumbnail.Source getThumbnailSource()
     {
-        if(!location.hasLevelPath())
+        return new Thumbnail.Source()
         {
-            data = null;
-            return;
+            @Override public String getStoredKey() { return getStoredThumbnailKey(); }
+            @Override public byte[] read() { return getThumbnail(); }
+        };
+    }
+    private synchronized String getStoredThumbnailKey() { return resident ? null : source.getThumbnailKey(); }
+    
+    public boolean hasMetadata() { return metadata != null; }
+    
+    // The metadata if it is known, without waiting for a scan in progress.
+    LevelDataScanner.Result peekMetadata() { return metadata; }
+    
+    public boolean hasFruit() { return loadMetadata().hasFruit(); }
+    public Optional<String> getSecretExitLevelTag() { return Optional.ofNullable(loadMetadata().getSecretExit()); }
+    
+    // Scans the level data if it has not been scanned yet, which may read it from its source.
+    LevelDataScanner.Result loadMetadata()
+    {
+        var result = metadata;
+        if(result != null)
+            return result;
+        
+        synchronized(this)
+        {
+            if(metadata == null)
+                readLevelDataExtraInfo(getData());
+            return metadata;
         }
-
-        data = IOUtils.readAllFromFile(location.getLevelPath(), StandardCharsets.UTF_8);
     }
     
-    private void readThumbnailFile(LevelLocation location, CampaingLoadSaveState state) throws IOException
+    synchronized void read(@NonNull LevelSource source, CampaingLoadSaveState state, boolean lazy) throws IOException
     {
-        try
+        state.checkCancelled();
+        setSource(source);
+        this.lazy = lazy;
+        dirty = false;
+        snapshot = null;
+        metadata = null;
+        cachedData = null;
+        cachedThumbnail = null;
+        
+        var dataFile = source.getDataFile();
+        var cached = dataFile == null ? null : LevelMetadataCache.get(dataFile);
+        if(cached != null)
         {
-            state.setCurrentDataText(location.getThumbnailPath());
-            if(!location.hasThumbnailPath())
+            metadata = cached;
+            
+            // Nothing else is needed from the source until the payload is used.
+            if(lazy)
             {
+                resident = false;
+                data = null;
                 thumbnail = null;
+                state.setCurrentDataText(source.toString());
+                state.resolveElement();
+                state.resolveElement();
                 return;
             }
-
-            thumbnail = IOUtils.readAllBytesFromFile(location.getThumbnailPath());
+        }
+        
+        String storedData;
+        try
+        {
+            state.setCurrentDataText(source.toString());
+            storedData = source.readData();
         }
         finally { state.resolveElement(); }
-    }
-    private void readExternThumbnailFile(LevelLocation location) throws IOException
-    {
-        if(!location.hasThumbnailPath())
+        
+        if(cached == null)
         {
-            thumbnail = null;
+            var scanned = readLevelDataExtraInfo(storedData);
+            if(dataFile != null)
+                LevelMetadataCache.put(dataFile, scanned);
+        }
+        
+        if(!lazy)
+        {
+            resident = true;
+            data = blobs.intern(storedData);
+            try { thumbnail = blobs.intern(source.readThumbnail()); }
+            finally { state.resolveElement(); }
             return;
         }
-
-        thumbnail = IOUtils.readAllBytesFromFile(location.getThumbnailPath());
+        
+        // Only the metadata is taken from the level data. The payload stays in its source.
+        resident = false;
+        data = null;
+        thumbnail = null;
+        cachedData = storedData == null ? null : new SoftReference<>(storedData);
+        state.resolveElement();
     }
     
-    private void writeDataFile(Path path, CampaingLoadSaveState state) throws IOException
+    // The cached snapshot of the level, taken again once anything in it changes.
+    synchronized @NonNull LevelSnapshot snapshot(@NonNull Level level)
     {
-        try
+        if(snapshot == null)
         {
-            state.setCurrentDataText(path);
-            if(data == null)
-                return;
-
-            IOUtils.writeToFile(path, data, StandardCharsets.UTF_8);
+            snapshot = new LevelSnapshot(this, level.getType(), level.getFilenameWithoutExtension(), dirty,
+                    source, resident ? data : null, resident ? thumbnail : null, metadata);
         }
-        finally { state.resolveElement(); }
+        return snapshot;
     }
     
-    private void writeThumbnailFile(Path path, CampaingLoadSaveState state) throws IOException
+    // The level has been saved as in saved, and the files written for it are newSource. Unless
+    // its payload has changed since, newSource becomes its source, and a lazy level lets go of the
+    // payload. It stays dirty if it has been moved or renamed meanwhile.
+    synchronized void storedAs(@NonNull LevelSnapshot saved, @NonNull LevelSource newSource, byte[] storedThumbnail)
     {
-        try
+        if(saved.source != source || (source == null && (saved.data != data || saved.thumbnail != thumbnail)))
+            return;
+        
+        boolean changed = saved != snapshot;
+        if(resident && source == null)
+            thumbnail = storedThumbnail;
+        
+        if(lazy && resident)
         {
-            state.setCurrentDataText(path);
-            if(thumbnail == null)
-                return;
-
-            //IOUtils.writeImage(path, thumbnail);
-            IOUtils.writeAllBytesToFile(path, thumbnail);
+            cachedData = data == null ? null : new SoftReference<>(data);
+            cachedThumbnail = thumbnail == null ? null : new SoftReference<>(thumbnail);
+            data = null;
+            thumbnail = null;
+            resident = false;
         }
-        finally { state.resolveElement(); }
+        else if(!resident)
+        {
+            // Read through the former source, which an in place save may have given to another level.
+            cachedData = null;
+            cachedThumbnail = null;
+        }
+        if(source instanceof LevelPayload)
+            ((LevelPayload) source).discard();
+        setSource(newSource);
+        dirty = dirty && changed;
+        snapshot = null;
     }
     
-    private void readLevelDataExtraInfo()
+    // Frees a level out of its episode from its stored files, before a save may delete, rename or
+    // replace them. Its payload is read once and held in memory, or spilled by the journal if it is
+    // large. The level is left dirty, to be written whole if it is put back.
+    synchronized void detach(@NonNull CampaignJournal journal) throws IOException
     {
-        if(data == null)
-        {
-            hasFruitItem = false;
-            secretExit = null;
+        if(source == null || source instanceof LevelPayload)
             return;
-        }
         
-        try
+        if(!resident)
         {
-            boolean fruit = false;
-            String secret = null;
+            var storedData = cachedData == null ? null : cachedData.get();
+            if(storedData == null)
+                storedData = source.readData();
+            var storedThumbnail = cachedThumbnail == null ? null : cachedThumbnail.get();
+            if(storedThumbnail == null)
+                storedThumbnail = source.readThumbnail();
             
-            var json = new JSONObject(new JSONTokener(data));
-            var jsonBlocks = json.optJSONArray("blocks");
-            if(jsonBlocks != null)
+            long size = (storedData == null ? 0 : storedData.length()) + (storedThumbnail == null ? 0 : storedThumbnail.length);
+            if(size > LevelPayload.SPILL_THRESHOLD)
             {
-                int len = jsonBlocks.length();
-                for(int i = 0; i < len && !(fruit && secret != null); i++)
-                {
-                    var jsonBlock = jsonBlocks.optJSONObject(i);
-                    if(jsonBlock == null)
-                        continue;
-                    
-                    for(var jsonSide : blockSides(jsonBlock))
-                    {
-                        if(secret == null)
-                            secret = getSecretLevelTag(jsonSide);
-                        if(!fruit)
-                            fruit = getHasFruit(jsonSide);
-                    }
-                }
+                setSource(LevelPayload.spill(storedData, storedThumbnail, journal));
+                cachedData = storedData == null ? null : new SoftReference<>(storedData);
+                cachedThumbnail = storedThumbnail == null ? null : new SoftReference<>(storedThumbnail);
+                dirty = true;
+                snapshot = null;
+                return;
             }
-            json.clear();
             
-            hasFruitItem = fruit;
-            secretExit = secret;
-        }
-        catch(JSONException ex)
-        {
-            ex.printStackTrace(System.err);
-            hasFruitItem = false;
-            secretExit = null;
+            data = blobs.intern(storedData);
+            thumbnail = blobs.intern(storedThumbnail);
+            resident = true;
+            cachedData = null;
+            cachedThumbnail = null;
         }
+        setSource(null);
+        dirty = true;
+        snapshot = null;
     }
     
-    private static String getSecretLevelTag(JSONObject jsonSide)
+    // The level will never be put back, the files its payload was spilled into can go.
+    synchronized void discardPayload()
     {
-        var template = jsonSide.optString("template");
-        if(template == null || !template.equals("Exit"))
-            return null;
-        
-        var jsonProps = jsonSide.optJSONObject("properties");
-        if(jsonProps == null)
-            return null;
-        
-        var secret = jsonProps.optString("Secret");
-        if(secret == null || !secret.equalsIgnoreCase("true"))
-            return null;
-        
-        return jsonProps.optString("NextLevel");
+        if(source instanceof LevelPayload)
+            ((LevelPayload) source).discard();
     }
     
-    private static boolean getHasFruit(JSONObject jsonSide)
+    synchronized void relocate(@NonNull Path from, @NonNull Path to)
     {
-        var jsonItem = jsonSide.optJSONObject("item");
-        if(jsonItem == null)
-            return false;
-        
-        var template = jsonItem.optString("template");
-        return template != null && template.equals("Fruit");
+        if(source != null)
+            setSource(source.relocate(from, to));
+        snapshot = null;
+    }
+    
+    public synchronized void loadExternLevel(Path path) throws IOException
+    {
+        var location = LevelLocation.find(path);
+        readExternDataFile(location);
+        readExternThumbnailFile(location);
+        setSource(null);
+        resident = true;
+        cachedData = null;
+        cachedThumbnail = null;
+        metadata = null;
+        dirty = true;
+        snapshot = null;
     }
     
+    // The keys are taken again from the new source, which may hold another payload.
+    private void setSource(LevelSource source)
+    {
+        this.source = source;
+        dataKey = null;
+        thumbnailKey = null;
+    }
     
-    private static final String[] SIDE_NAMES = { "up", "down", "left", "right", "front", "back" };
-    private static Iterable<JSONObject> blockSides(JSONObject jsonBlock)
+    private void readExternDataFile(LevelLocation location) throws IOException
     {
-        return () -> new Iterator<JSONObject>()
+        if(!location.hasLevelPath())
         {
-            private int sideIdx = 0;
-            private JSONObject jsonSide;
-            
-            {
-                prepareNextSide();
-            }
-            
-            private void prepareNextSide()
-            {
-                jsonSide = null;
-                while(jsonSide == null && sideIdx < SIDE_NAMES.length)
-                    jsonSide = jsonBlock.optJSONObject(SIDE_NAMES[sideIdx++]);
-            }
+            data = null;
+            return;
+        }
 
-            @Override
-            public boolean hasNext() { return jsonSide != null; }
+        data = blobs.intern(IOUtils.readAllFromFile(location.getLevelPath(), StandardCharsets.UTF_8));
+    }
+    
+    private void readExternThumbnailFile(LevelLocation location) throws IOException
+    {
+        if(!location.hasThumbnailPath())
+        {
+            thumbnail = null;
+            return;
+        }
 
-            @Override
-            public JSONObject next()
-            {
-                if(jsonSide == null)
-                    throw new NoSuchElementException();
-                
-                var next = jsonSide;
-                prepareNextSide();
-                return next;
-            }
-        };
+        thumbnail = blobs.intern(IOUtils.readAllBytesFromFile(location.getThumbnailPath()));
+    }
+    
+    private LevelDataScanner.Result readLevelDataExtraInfo(String levelData)
+    {
+        var info = levelData == null ? LevelDataScanner.Result.EMPTY : LevelDataScanner.scan(levelData);
+        metadata = info;
+        return info;
     }
 }
@@ -0,0 +1,582 @@
+package kp.rollingcube.ce.campaign;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import lombok.NonNull;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ *
+ * @author Marc
+ */
+final class LevelDataScanner
+{
+    private static final String[] SIDE_NAMES = { "up", "down", "left", "right", "front", "back" };
+    
+    private static final String[] LEVEL_KEYS = { "blocks" };
+    private static final String[] SIDE_KEYS = { "template", "item", "properties" };
+    private static final String[] ITEM_KEYS = { "template" };
+    private static final String[] PROPERTIES_KEYS = { "Secret", "NextLevel" };
+    
+    private final String json;
+    private final int length;
+    private int pos;
+    
+    private boolean fruit;
+    private String secretExit;
+    
+    private LevelDataScanner(String json)
+    {
+        this.json = json;
+        this.length = json.length();
+    }
+    
+    static @NonNull Result scan(@NonNull String json)
+    {
+        try { return scanStreaming(json); }
+        catch(JSONException ex) { return scanTree(json); }
+    }
+    
+    // Walks blocks[*].{up,down,left,right,front,back} straight over the level text without building
+    // the JSON tree, and stops as soon as both the fruit and the secret exit are known.
+    static @NonNull Result scanStreaming(@NonNull String json) throws JSONException
+    {
+        var scanner = new LevelDataScanner(json);
+        scanner.scanLevel();
+        return new Result(scanner.fruit, scanner.secretExit);
+    }
+    
+    static @NonNull Result scanTree(@NonNull String data)
+    {
+        try
+        {
+            boolean fruit = false;
+            String secret = null;
+            
+            var json = new JSONObject(new JSONTokener(data));
+            var jsonBlocks = json.optJSONArray("blocks");
+            if(jsonBlocks != null)
+            {
+                int len = jsonBlocks.length();
+                for(int i = 0; i < len && !(fruit && secret != null); i++)
+                {
+                    var jsonBlock = jsonBlocks.optJSONObject(i);
+                    if(jsonBlock == null)
+                        continue;
+                    
+                    for(var jsonSide : blockSides(jsonBlock))
+                    {
+                        if(secret == null)
+                            secret = getSecretLevelTag(jsonSide);
+                        if(!fruit)
+                            fruit = getHasFruit(jsonSide);
+                    }
+                }
+            }
+            json.clear();
+            
+            return new Result(fruit, secret);
+        }
+        catch(JSONException ex)
+        {
+            ex.printStackTrace(System.err);
+            return Result.EMPTY;
+        }
+    }
+    
+    private boolean isDone() { return fruit && secretExit != null; }
+    
+    private void scanLevel()
+    {
+        expect('{');
+        if(tryConsume('}'))
+            return;
+        
+        do
+        {
+            int key = readKey(LEVEL_KEYS);
+            expect(':');
+            if(key == 0 && peek() == '[')
+            {
+                if(scanBlocks())
+                    return;
+            }
+            else
+                skipValue();
+        }
+        while(nextMember('}'));
+    }
+    
+    private boolean scanBlocks()
+    {
+        expect('[');
+        if(tryConsume(']'))
+            return false;
+        
+        do
+        {
+            if(peek() == '{')
+            {
+                scanBlock();
+                if(isDone())
+                    return true;
+            }
+            else
+                skipValue();
+        }
+        while(nextMember(']'));
+        return false;
+    }
+    
+    private void scanBlock()
+    {
+        expect('{');
+        if(tryConsume('}'))
+            return;
+        
+        int secretSide = SIDE_NAMES.length;
+        String secret = null;
+        do
+        {
+            int side = readKey(SIDE_NAMES);
+            expect(':');
+            if(side >= 0 && peek() == '{')
+            {
+                var sideSecret = scanSide();
+                if(sideSecret != null && side < secretSide)
+                {
+                    secretSide = side;
+                    secret = sideSecret;
+                }
+            }
+            else
+                skipValue();
+        }
+        while(nextMember('}'));
+        
+        if(secretExit == null)
+            secretExit = secret;
+    }
+    
+    private String scanSide()
+    {
+        expect('{');
+        if(tryConsume('}'))
+            return null;
+        
+        boolean exit = false;
+        boolean secret = false;
+        String nextLevel = null;
+        do
+        {
+            int key = readKey(SIDE_KEYS);
+            expect(':');
+            switch(key)
+            {
+                case 0:
+                    exit = readValueEquals("Exit", false);
+                    break;
+                
+                case 1:
+                    if(!fruit && peek() == '{')
+                        fruit = scanItem();
+                    else
+                        skipValue();
+                    break;
+                
+                case 2:
+                    secret = false;
+                    nextLevel = null;
+                    if(peek() != '{')
+                    {
+                        skipValue();
+                        break;
+                    }
+                    
+                    expect('{');
+                    if(tryConsume('}'))
+                        break;
+                    
+                    do
+                    {
+                        int prop = readKey(PROPERTIES_KEYS);
+                        expect(':');
+                        switch(prop)
+                        {
+                            case 0: secret = readValueEquals("true", true); break;
+                            case 1: nextLevel = readOptString(); break;
+                            default: skipValue(); break;
+                        }
+                    }
+                    while(nextMember('}'));
+                    break;
+                
+                default:
+                    skipValue();
+                    break;
+            }
+        }
+        while(nextMember('}'));
+        
+        if(!exit || !secret)
+            return null;
+        return nextLevel == null ? "" : nextLevel;
+    }
+    
+    private boolean scanItem()
+    {
+        expect('{');
+        if(tryConsume('}'))
+            return false;
+        
+        boolean isFruit = false;
+        do
+        {
+            int key = readKey(ITEM_KEYS);
+            expect(':');
+            if(key == 0)
+                isFruit = readValueEquals("Fruit", false);
+            else
+                skipValue();
+        }
+        while(nextMember('}'));
+        return isFruit;
+    }
+    
+    // Mirrors JSONObject.optString: null for JSON null, the literal text for any other value.
+    private String readOptString()
+    {
+        char c = peek();
+        if(c == '"')
+            return readString();
+        
+        int start = pos;
+        skipValue();
+        var raw = json.substring(start, pos).trim();
+        return raw.equals("null") ? null : raw;
+    }
+    
+    // Reads an object key and returns its position in keys, or -1 if it is none of them.
+    private int readKey(String[] keys)
+    {
+        expect('"');
+        int start = pos;
+        int end = findStringEnd();
+        if(end < 0)
+        {
+            pos = start - 1;
+            var key = readEscapedString();
+            for(int i = 0; i < keys.length; i++)
+                if(keys[i].equals(key))
+                    return i;
+            return -1;
+        }
+        
+        pos = end + 1;
+        int len = end - start;
+        for(int i = 0; i < keys.length; i++)
+            if(keys[i].length() == len && json.regionMatches(start, keys[i], 0, len))
+                return i;
+        return -1;
+    }
+    
+    private boolean readValueEquals(String expected, boolean ignoreCase)
+    {
+        if(peek() != '"')
+        {
+            var value = readOptString();
+            return ignoreCase ? expected.equalsIgnoreCase(value) : expected.equals(value);
+        }
+        
+        pos++;
+        int start = pos;
+        int end = findStringEnd();
+        if(end < 0)
+        {
+            pos = start - 1;
+            var value = readEscapedString();
+            return ignoreCase ? expected.equalsIgnoreCase(value) : expected.equals(value);
+        }
+        
+        pos = end + 1;
+        int len = end - start;
+        return expected.length() == len && json.regionMatches(ignoreCase, start, expected, 0, len);
+    }
+    
+    // Position of the closing quote of the string starting at pos, or -1 if it contains escapes.
+    private int findStringEnd()
+    {
+        for(int i = pos; i < length; i++)
+        {
+            char c = json.charAt(i);
+            if(c == '"')
+                return i;
+            if(c == '\\')
+                return -1;
+        }
+        throw error("Unterminated string");
+    }
+    
+    private boolean nextMember(char close)
+    {
+        char c = next();
+        if(c == ',')
+            return true;
+        if(c == close)
+            return false;
+        throw error("Expected ',' or '" + close + "'");
+    }
+    
+    private void skipValue()
+    {
+        char c = peek();
+        switch(c)
+        {
+            case '"':
+                skipString();
+                break;
+            
+            case '{':
+            case '[':
+                skipContainer();
+                break;
+            
+            default:
+                skipLiteral();
+                break;
+        }
+    }
+    
+    private void skipContainer()
+    {
+        int depth = 0;
+        skipWhitespace();
+        while(pos < length)
+        {
+            char c = json.charAt(pos);
+            if(c == '"')
+            {
+                skipString();
+                continue;
+            }
+            
+            pos++;
+            if(c == '{' || c == '[')
+                depth++;
+            else if(c == '}' || c == ']')
+            {
+                if(--depth == 0)
+                    return;
+            }
+        }
+        throw error("Unterminated object or array");
+    }
+    
+    private void skipLiteral()
+    {
+        int start = pos;
+        while(pos < length)
+        {
+            char c = json.charAt(pos);
+            if(c == ',' || c == '}' || c == ']' || c == ':' || Character.isWhitespace(c))
+                break;
+            pos++;
+        }
+        if(pos == start)
+            throw error("Expected a value");
+    }
+    
+    private void skipString()
+    {
+        expect('"');
+        while(pos < length)
+        {
+            char c = json.charAt(pos++);
+            if(c == '\\')
+                pos++;
+            else if(c == '"')
+                return;
+        }
+        throw error("Unterminated string");
+    }
+    
+    private String readString()
+    {
+        expect('"');
+        int start = pos;
+        while(pos < length)
+        {
+            char c = json.charAt(pos);
+            if(c == '"')
+                return json.substring(start, pos++);
+            if(c == '\\')
+            {
+                pos = start - 1;
+                return readEscapedString();
+            }
+            pos++;
+        }
+        throw error("Unterminated string");
+    }
+    
+    private String readEscapedString()
+    {
+        expect('"');
+        var sb = new StringBuilder();
+        while(pos < length)
+        {
+            char c = json.charAt(pos++);
+            if(c == '"')
+                return sb.toString();
+            
+            if(c != '\\')
+            {
+                sb.append(c);
+                continue;
+            }
+            
+            if(pos >= length)
+                break;
+            
+            c = json.charAt(pos++);
+            switch(c)
+            {
+                case 'b': sb.append('\b'); break;
+                case 't': sb.append('\t'); break;
+                case 'n': sb.append('\n'); break;
+                case 'f': sb.append('\f'); break;
+                case 'r': sb.append('\r'); break;
+                case 'u':
+                    if(pos + 4 > length)
+                        throw error("Illegal escape");
+                    try { sb.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16)); }
+                    catch(NumberFormatException ex) { throw error("Illegal escape"); }
+                    pos += 4;
+                    break;
+                default: sb.append(c); break;
+            }
+        }
+        throw error("Unterminated string");
+    }
+    
+    private void expect(char expected)
+    {
+        if(next() != expected)
+            throw error("Expected '" + expected + "'");
+    }
+    
+    private boolean tryConsume(char expected)
+    {
+        if(peek() != expected)
+            return false;
+        pos++;
+        return true;
+    }
+    
+    private char next()
+    {
+        char c = peek();
+        pos++;
+        return c;
+    }
+    
+    private char peek()
+    {
+        skipWhitespace();
+        if(pos >= length)
+            throw error("Unexpected end of level data");
+        return json.charAt(pos);
+    }
+    
+    private void skipWhitespace()
+    {
+        while(pos < length && Character.isWhitespace(json.charAt(pos)))
+            pos++;
+    }
+    
+    private JSONException error(String message)
+    {
+        return new JSONException(message + " at " + pos);
+    }
+    
+    private static String getSecretLevelTag(JSONObject jsonSide)
+    {
+        var template = jsonSide.optString("template");
+        if(template == null || !template.equals("Exit"))
+            return null;
+        
+        var jsonProps = jsonSide.optJSONObject("properties");
+        if(jsonProps == null)
+            return null;
+        
+        var secret = jsonProps.optString("Secret");
+        if(secret == null || !secret.equalsIgnoreCase("true"))
+            return null;
+        
+        return jsonProps.optString("NextLevel");
+    }
+    
+    private static boolean getHasFruit(JSONObject jsonSide)
+    {
+        var jsonItem = jsonSide.optJSONObject("item");
+        if(jsonItem == null)
+            return false;
+        
+        var template = jsonItem.optString("template");
+        return template != null && template.equals("Fruit");
+    }
+    
+    private static Iterable<JSONObject> blockSides(JSONObject jsonBlock)
+    {
+        return () -> new Iterator<JSONObject>()
+        {
+            private int sideIdx = 0;
+            private JSONObject jsonSide;
+            
+            {
+                prepareNextSide();
+            }
+            
+            private void prepareNextSide()
+            {
+                jsonSide = null;
+                while(jsonSide == null && sideIdx < SIDE_NAMES.length)
+                    jsonSide = jsonBlock.optJSONObject(SIDE_NAMES[sideIdx++]);
+            }
+            
+            @Override
+            public boolean hasNext() { return jsonSide != null; }
+            
+            @Override
+            public JSONObject next()
+            {
+                if(jsonSide == null)
+                    throw new NoSuchElementException();
+                
+                var next = jsonSide;
+                prepareNextSide();
+                return next;
+            }
+        };
+    }
+    
+    
+    static final class Result
+    {
+        static final Result EMPTY = new Result(false, null);
+        
+        private final boolean fruit;
+        private final String secretExit;
+        
+        Result(boolean fruit, String secretExit)
+        {
+            this.fruit = fruit;
+            this.secretExit = secretExit;
+        }
+        
+        boolean hasFruit() { return fruit; }
+        String getSecretExit() { return secretExit; }
+    }
+}
@@ -0,0 +1,209 @@
+package kp.rollingcube.ce.campaign;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import kp.rollingcube.ce.utils.FileUtils;
+import kp.rollingcube.ce.utils.IOUtils;
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Fruit and secret exit metadata of level files, persisted between sessions.
+ * An entry is only valid while the size and the modification time of its file are unchanged.
+ *
+ * @author Marc
+ */
+@UtilityClass
+class LevelMetadataCache
+{
+    private final Path CACHE_FILE = IOUtils.getHomeDirectory().resolve(".RollingcubeCampaignEditorMetadata.json");
+    private final int VERSION = 1;
+    private final int MAX_ENTRIES = 20000;
+    
+    // In access order, so the least recently used levels are evicted first once the cap is reached.
+    private final LinkedHashMap<String, CachedEntry> entries = new LinkedHashMap<>(256, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedEntry> eldest) { return size() > MAX_ENTRIES; }
+    };
+    
+    // Changes made to the entries, and how many of them the cache file holds.
+    private long changes;
+    private long savedChanges;
+    
+    // Held through a whole save, so saves from the load and save threads write the file one at a time.
+    private final Object saveLock = new Object();
+    
+    static { load(); }
+    
+    public LevelDataScanner.Result get(@NonNull Path file)
+    {
+        var key = key(file);
+        synchronized(entries)
+        {
+            if(!entries.containsKey(key))
+                return null;
+        }
+        
+        var attrs = readAttributes(file);
+        synchronized(entries)
+        {
+            var entry = entries.get(key);
+            if(entry == null || attrs == null)
+                return null;
+            
+            if(entry.size != attrs.size() || entry.modified != attrs.lastModifiedTime().toMillis())
+            {
+                entries.remove(key);
+                changes++;
+                return null;
+            }
+            return entry.result;
+        }
+    }
+    
+    public void put(@NonNull Path file, @NonNull LevelDataScanner.Result result)
+    {
+        var attrs = readAttributes(file);
+        if(attrs == null)
+            return;
+        
+        synchronized(entries)
+        {
+            entries.put(key(file), new CachedEntry(attrs.size(), attrs.lastModifiedTime().toMillis(), result));
+            changes++;
+        }
+    }
+    
+    public void save()
+    {
+        synchronized(saveLock)
+        {
+            saveEntries();
+        }
+    }
+    
+    private void saveEntries()
+    {
+        JSONArray array;
+        long saving;
+        synchronized(entries)
+        {
+            if(changes == savedChanges)
+                return;
+            
+            saving = changes;
+            array = new JSONArray();
+            for(var e : entries.entrySet())
+            {
+                var entry = e.getValue();
+                var json = new JSONArray();
+                json.put(e.getKey());
+                json.put(entry.size);
+                json.put(entry.modified);
+                json.put(entry.result.hasFruit());
+                json.put(entry.result.getSecretExit() == null ? JSONObject.NULL : entry.result.getSecretExit());
+                array.put(json);
+            }
+        }
+        
+        var json = new JSONObject();
+        json.put("version", VERSION);
+        json.put("entries", array);
+        
+        // Written aside and moved over, so a crash never leaves a truncated cache behind.
+        Path temp = null;
+        try
+        {
+            temp = Files.createTempFile(CACHE_FILE.getParent(), CACHE_FILE.getFileName().toString(), ".tmp");
+            try(var bw = Files.newBufferedWriter(temp))
+            {
+                json.write(bw);
+            }
+            FileUtils.rename(temp, CACHE_FILE);
+            temp = null;
+            
+            // Changes made meanwhile are left for the next save.
+            synchronized(entries)
+            {
+                savedChanges = saving;
+            }
+        }
+        catch(Exception ex)
+        {
+            ex.printStackTrace(System.err);
+        }
+        finally
+        {
+            deleteTempFile(temp);
+        }
+    }
+    
+    private void deleteTempFile(Path temp)
+    {
+        if(temp == null)
+            return;
+        
+        try { Files.deleteIfExists(temp); }
+        catch(IOException ex) { ex.printStackTrace(System.err); }
+    }
+    
+    private void load()
+    {
+        try(var is = Files.newInputStream(CACHE_FILE))
+        {
+            var json = new JSONObject(new JSONTokener(is));
+            if(json.optInt("version") != VERSION)
+                return;
+            
+            var array = json.optJSONArray("entries");
+            if(array == null)
+                return;
+            
+            for(int i = 0; i < array.length(); ++i)
+            {
+                var e = array.optJSONArray(i);
+                if(e == null || e.length() < 5)
+                    continue;
+                
+                var secret = e.isNull(4) ? null : e.optString(4);
+                var result = new LevelDataScanner.Result(e.optBoolean(3), secret);
+                entries.put(e.optString(0), new CachedEntry(e.optLong(1), e.optLong(2), result));
+            }
+        }
+        catch(Exception ex)
+        {
+            //ex.printStackTrace(System.err);
+        }
+    }
+    
+    private String key(Path file) { return file.toAbsolutePath().normalize().toString(); }
+    
+    private BasicFileAttributes readAttributes(Path file)
+    {
+        try { return Files.readAttributes(file, BasicFileAttributes.class); }
+        catch(IOException ex) { return null; }
+    }
+    
+    
+    private static final class CachedEntry
+    {
+        private final long size;
+        private final long modified;
+        private final LevelDataScanner.Result result;
+        
+        private CachedEntry(long size, long modified, LevelDataScanner.Result result)
+        {
+            this.size = size;
+            this.modified = modified;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package kp.rollingcube.ce.campaign;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import kp.rollingcube.ce.utils.FileUtils;
+import kp.rollingcube.ce.utils.IOUtils;
+import lombok.NonNull;
+
+/**
+ * Payload of a level out of its episode, spilled into temporary files of the journal when a save
+ * is about to delete, rename or replace the files it was stored in. It stands in as the source of
+ * the level, so the level is put back without reading it, and it is always copied, never renamed,
+ * when the level is saved again.
+ *
+ * Only payloads larger than SPILL_THRESHOLD bytes are spilled, the others stay in memory, see
+ * LevelData.detach.
+ *
+ * @author Marc
+ */
+final class LevelPayload extends LevelSource
+{
+    static final int SPILL_THRESHOLD = 64 * 1024;
+    
+    private final Path dataFile;
+    private final Path thumbnailFile;
+    
+    private LevelPayload(Path dataFile, Path thumbnailFile)
+    {
+        this.dataFile = dataFile;
+        this.thumbnailFile = thumbnailFile;
+    }
+    
+    static @NonNull LevelPayload spill(String data, byte[] thumbnail, @NonNull CampaignJournal journal) throws IOException
+    {
+        Path dataFile = null;
+        Path thumbnailFile = null;
+        try
+        {
+            if(data != null)
+                dataFile = Files.writeString(journal.createSpillFile(".json"), data, StandardCharsets.UTF_8);
+            if(thumbnail != null)
+                thumbnailFile = Files.write(journal.createSpillFile(".png"), thumbnail);
+            return new LevelPayload(dataFile, thumbnailFile);
+        }
+        catch(IOException ex)
+        {
+            deleteSpillFile(dataFile);
+            deleteSpillFile(thumbnailFile);
+            throw ex;
+        }
+    }
+    
+    // Spilled files are not stored files of the campaign.
+    @Override Path getDataFile() { return null; }
+    @Override Path getThumbnailFile() { return null; }
+    @Override String getThumbnailKey() { return null; }
+    
+    @Override boolean hasData() { return dataFile != null; }
+    @Override boolean hasThumbnail() { return thumbnailFile != null; }
+    
+    @Override String readData() throws IOException { return dataFile == null ? null : IOUtils.readAllFromFile(dataFile, StandardCharsets.UTF_8); }
+    @Override byte[] readThumbnail() throws IOException { return thumbnailFile == null ? null : IOUtils.readAllBytesFromFile(thumbnailFile); }
+    
+    // Never linked, the spilled files are deleted with the history.
+    @Override void copyData(Path target, boolean link) throws IOException { copy(dataFile, target); }
+    @Override void copyThumbnail(Path target, boolean link) throws IOException { copy(thumbnailFile, target); }
+    
+    @Override
+    void packData(CampaignPack.Writer writer, String name) throws IOException
+    {
+        if(dataFile != null)
+            writer.add(name, dataFile);
+    }
+    
+    @Override
+    void packThumbnail(CampaignPack.Writer writer, String name) throws IOException
+    {
+        if(thumbnailFile != null)
+            writer.add(name, thumbnailFile);
+    }
+    
+    // Deletes the spilled files. The payload cannot be read anymore.
+    void discard()
+    {
+        deleteSpillFile(dataFile);
+        deleteSpillFile(thumbnailFile);
+    }
+    
+    @Override
+    public String toString() { return String.valueOf(dataFile != null ? dataFile : thumbnailFile); }
+    
+    private static void copy(Path source, Path target) throws IOException
+    {
+        if(source == null)
+            Files.deleteIfExists(target);
+        else
+            FileUtils.transfer(source, target);
+    }
+    
+    private static void deleteSpillFile(Path file)
+    {
+        if(file == null)
+            return;
+        
+        try { Files.deleteIfExists(file); }
+        catch(IOException ex) { ex.printStackTrace(System.err); }
+    }
+}
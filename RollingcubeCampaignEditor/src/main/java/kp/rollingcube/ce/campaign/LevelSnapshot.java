@@ -0,0 +1,144 @@
+package kp.rollingcube.ce.campaign;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * Immutable state of a level at the time of a snapshot: the name of its files and its payload.
+ *
+ * The payload is shared with the level, never copied. One that only exists in memory is held by
+ * reference, interned blobs are never modified. One already stored is held by its source, which
+ * does not change either.
+ *
+ * @author Marc
+ */
+public final class LevelSnapshot
+{
+    final @NonNull LevelData owner;
+    
+    @Getter private final @NonNull LevelType type;
+    @Getter private final @NonNull String fileName;
+    @Getter private final boolean dirty;
+    
+    // With a source, the payload is read from it. Otherwise data and thumbnail are the payload.
+    final LevelSource source;
+    final String data;
+    final byte[] thumbnail;
+    final LevelDataScanner.Result metadata;
+    
+    LevelSnapshot(@NonNull LevelData owner, @NonNull LevelType type, @NonNull String fileName, boolean dirty,
+            LevelSource source, String data, byte[] thumbnail, LevelDataScanner.Result metadata)
+    {
+        this.owner = owner;
+        this.type = type;
+        this.fileName = fileName;
+        this.dirty = dirty;
+        this.source = source;
+        this.data = source == null ? data : null;
+        this.thumbnail = source == null ? thumbnail : null;
+        this.metadata = metadata;
+    }
+    
+    void prepareSaveState(CampaingLoadSaveState state) { state.addElements(2); }
+    
+    Path getLevelPath(@NonNull Path folder) { return folder.resolve(fileName + ".json"); }
+    Path getThumbnailPath(@NonNull Path folder) { return folder.resolve(fileName + ".png"); }
+    
+    // Thumbnails that only exist in memory are the ones a save writes, and may replace by their optimized encoding.
+    void optimizeThumbnail(@NonNull BlobStore blobs, int maxSize)
+    {
+        if(source == null && thumbnail != null)
+            blobs.optimizeImage(thumbnail, maxSize);
+    }
+    
+    // Writes the payload into the files of the level in folder.
+    // With changes, the files are staged and only replace the current ones when they are committed.
+    // Stored files of an unchanged payload that only has a new name, after a move or a rename of
+    // the level, are renamed at commit instead.
+    void writeFiles(@NonNull Path folder, CampaingLoadSaveState state, @NonNull BlobStore blobs, boolean linkFiles, StagedChanges changes) throws IOException
+    {
+        state.checkCancelled();
+        var levelPath = getLevelPath(folder);
+        try
+        {
+            state.setCurrentDataText(levelPath);
+            var target = renameStoredFile(source == null ? null : source.getDataFile(), levelPath, changes)
+                    ? null
+                    : prepareTarget(levelPath, source == null ? data != null : source.hasData(), changes);
+            if(target != null && source == null)
+                blobs.write(data, target, linkFiles);
+            else if(target != null)
+                source.copyData(target, linkFiles);
+        }
+        finally { state.resolveElement(); }
+        
+        var thumbnailPath = getThumbnailPath(folder);
+        try
+        {
+            state.setCurrentDataText(thumbnailPath);
+            var target = renameStoredFile(source == null ? null : source.getThumbnailFile(), thumbnailPath, changes)
+                    ? null
+                    : prepareTarget(thumbnailPath, source == null ? thumbnail != null : source.hasThumbnail(), changes);
+            if(target != null && source == null)
+                blobs.write(blobs.getOptimizedImage(thumbnail), target, linkFiles);
+            else if(target != null)
+                source.copyThumbnail(target, linkFiles);
+        }
+        finally { state.resolveElement(); }
+    }
+    
+    private static boolean renameStoredFile(Path storedFile, Path path, StagedChanges changes)
+    {
+        if(changes == null || storedFile == null)
+            return false;
+        
+        changes.rename(storedFile, path);
+        return true;
+    }
+    
+    // File to write for path, or null when the level has no such file and path is removed instead.
+    private static Path prepareTarget(Path path, boolean exists, StagedChanges changes) throws IOException
+    {
+        if(exists)
+            return changes == null ? path : changes.stage(path);
+        
+        if(changes == null)
+            Files.deleteIfExists(path);
+        else
+            changes.delete(path);
+        return null;
+    }
+    
+    // The names of the entries of the level inside a pack, under the packed name of its folder.
+    String getPackedDataName(@NonNull String folder) { return folder + "/" + fileName + ".json"; }
+    String getPackedThumbnailName(@NonNull String folder) { return folder + "/" + fileName + ".png"; }
+    
+    void pack(@NonNull String folder, @NonNull CampaignPack.Writer writer, CampaingLoadSaveState state, @NonNull BlobStore blobs) throws IOException
+    {
+        var dataName = getPackedDataName(folder);
+        var thumbnailName = getPackedThumbnailName(folder);
+        state.checkCancelled();
+        try
+        {
+            state.setCurrentDataText(dataName);
+            if(source == null)
+                blobs.pack(data, dataName, writer);
+            else
+                source.packData(writer, dataName);
+        }
+        finally { state.resolveElement(); }
+        
+        try
+        {
+            state.setCurrentDataText(thumbnailName);
+            if(source == null)
+                blobs.pack(blobs.getOptimizedImage(thumbnail), thumbnailName, writer);
+            else
+                source.packThumbnail(writer, thumbnailName);
+        }
+        finally { state.resolveElement(); }
+    }
+}
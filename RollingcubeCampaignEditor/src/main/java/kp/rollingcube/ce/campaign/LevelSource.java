@@ -0,0 +1,190 @@
+package kp.rollingcube.ce.campaign;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import kp.rollingcube.ce.utils.FileUtils;
+import kp.rollingcube.ce.utils.IOUtils;
+import kp.rollingcube.ce.utils.LevelLocation;
+import lombok.NonNull;
+
+/**
+ * Stored payload of a level, either a pair of files in a campaign folder or two entries of a campaign pack,
+ * or the files a level out of its episode is spilled into, see LevelPayload.
+ *
+ * @author Marc
+ */
+abstract class LevelSource
+{
+    abstract boolean hasData();
+    abstract boolean hasThumbnail();
+    
+    abstract String readData() throws IOException;
+    abstract byte[] readThumbnail() throws IOException;
+    
+    abstract void copyData(Path target, boolean link) throws IOException;
+    abstract void copyThumbnail(Path target, boolean link) throws IOException;
+    
+    abstract void packData(CampaignPack.Writer writer, String name) throws IOException;
+    abstract void packThumbnail(CampaignPack.Writer writer, String name) throws IOException;
+    
+    // Level file on disk, or null when the payload does not live in a plain file.
+    abstract Path getDataFile();
+    abstract Path getThumbnailFile();
+    
+    // Identifies the stored thumbnail and changes whenever it may have changed, or null if there is none.
+    abstract String getThumbnailKey();
+    
+    
+    LevelSource relocate(Path from, Path to) { return this; }
+    
+    static @NonNull LevelSource of(@NonNull LevelLocation location) { return new FileSource(location); }
+    
+    static @NonNull LevelSource of(@NonNull CampaignPack pack, @NonNull Level level)
+    {
+        return of(pack, level.getPackedName(".json"), level.getPackedName(".png"));
+    }
+    
+    static @NonNull LevelSource of(@NonNull CampaignPack pack, @NonNull String dataName, @NonNull String thumbnailName)
+    {
+        return new PackSource(pack, dataName, thumbnailName);
+    }
+    
+    
+    private static final class FileSource extends LevelSource
+    {
+        private final LevelLocation location;
+        
+        private FileSource(LevelLocation location) { this.location = location; }
+        
+        @Override Path getDataFile() { return location.getLevelPath(); }
+        @Override Path getThumbnailFile() { return location.getThumbnailPath(); }
+        
+        @Override
+        String getThumbnailKey()
+        {
+            if(!location.hasThumbnailPath())
+                return null;
+            
+            try
+            {
+                var file = location.getThumbnailPath().toAbsolutePath().normalize();
+                var attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                return file + "|" + attrs.size() + "|" + attrs.lastModifiedTime().toMillis();
+            }
+            catch(IOException ex) { return null; }
+        }
+        
+        @Override boolean hasData() { return location.hasLevelPath(); }
+        @Override boolean hasThumbnail() { return location.hasThumbnailPath(); }
+        
+        @Override
+        String readData() throws IOException
+        {
+            return location.hasLevelPath() ? IOUtils.readAllFromFile(location.getLevelPath(), StandardCharsets.UTF_8) : null;
+        }
+        
+        @Override
+        byte[] readThumbnail() throws IOException
+        {
+            return location.hasThumbnailPath() ? IOUtils.readAllBytesFromFile(location.getThumbnailPath()) : null;
+        }
+        
+        @Override void copyData(Path target, boolean link) throws IOException { copy(location.getLevelPath(), target, link); }
+        @Override void copyThumbnail(Path target, boolean link) throws IOException { copy(location.getThumbnailPath(), target, link); }
+        
+        @Override
+        void packData(CampaignPack.Writer writer, String name) throws IOException
+        {
+            if(location.hasLevelPath())
+                writer.add(name, location.getLevelPath());
+        }
+        
+        @Override
+        void packThumbnail(CampaignPack.Writer writer, String name) throws IOException
+        {
+            if(location.hasThumbnailPath())
+                writer.add(name, location.getThumbnailPath());
+        }
+        
+        @Override
+        LevelSource relocate(Path from, Path to) { return new FileSource(location.relocate(from, to)); }
+        
+        @Override
+        public String toString() { return location.hasLevelPath() ? location.getLevelPath().toString() : String.valueOf(location.getThumbnailPath()); }
+        
+        private static void copy(Path source, Path target, boolean link) throws IOException
+        {
+            if(source == null)
+                Files.deleteIfExists(target);
+            else if(link)
+                FileUtils.linkOrTransfer(source, target);
+            else
+                FileUtils.transfer(source, target);
+        }
+    }
+    
+    private static final class PackSource extends LevelSource
+    {
+        private final CampaignPack pack;
+        private final String dataName;
+        private final String thumbnailName;
+        
+        private PackSource(CampaignPack pack, String dataName, String thumbnailName)
+        {
+            this.pack = pack;
+            this.dataName = dataName;
+            this.thumbnailName = thumbnailName;
+        }
+        
+        @Override Path getDataFile() { return null; }
+        @Override Path getThumbnailFile() { return null; }
+        
+        @Override
+        String getThumbnailKey()
+        {
+            long size = pack.sizeOf(thumbnailName);
+            if(size < 0)
+                return null;
+            
+            try
+            {
+                var file = pack.getPath().toAbsolutePath().normalize();
+                return file + "!" + thumbnailName + "|" + size + "|" + Files.getLastModifiedTime(file).toMillis();
+            }
+            catch(IOException ex) { return null; }
+        }
+        
+        @Override boolean hasData() { return pack.contains(dataName); }
+        @Override boolean hasThumbnail() { return pack.contains(thumbnailName); }
+        
+        @Override String readData() throws IOException { return pack.readString(dataName); }
+        @Override byte[] readThumbnail() throws IOException { return pack.readBytes(thumbnailName); }
+        
+        // A pack cannot be linked into a folder, its blobs are always copied out.
+        @Override void copyData(Path target, boolean link) throws IOException { pack.copy(dataName, target); }
+        @Override void copyThumbnail(Path target, boolean link) throws IOException { pack.copy(thumbnailName, target); }
+        
+        @Override
+        void packData(CampaignPack.Writer writer, String name) throws IOException
+        {
+            var data = pack.get(dataName);
+            if(data != null)
+                writer.add(name, data);
+        }
+        
+        @Override
+        void packThumbnail(CampaignPack.Writer writer, String name) throws IOException
+        {
+            var data = pack.get(thumbnailName);
+            if(data != null)
+                writer.add(name, data);
+        }
+        
+        
+        @Override
+        public String toString() { return pack.getPath().resolve(dataName).toString(); }
+    }
+}
@@ -0,0 +1,133 @@
+package kp.rollingcube.ce.campaign;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import kp.rollingcube.ce.utils.LevelLocation;
+import kp.rollingcube.ce.utils.TaskPool;
+import lombok.Getter;
+import lombok.NonNull;
+
+/**
+ * Import of a set of level files at the end of the normal or bonus levels of an episode.
+ *
+ * The files are read and checked in parallel by the job of the state, without touching the
+ * episode. Once the job has finished, commit adds every level read to the episode at once, in
+ * the order of their paths, so the listeners of the campaign receive a single change.
+ *
+ * @author Marc
+ */
+public final class LevelsImport
+{
+    // Errors beyond this amount are only counted in the message of the state.
+    private static final int MAX_REPORTED_ERRORS = 10;
+    
+    private final @NonNull Episode episode;
+    private final @NonNull LevelType type;
+    private final @NonNull List<Path> paths;
+    private final IndexedLevel[] levels;
+    private final ArrayList<String> errors = new ArrayList<>();
+    private boolean committed;
+    
+    @Getter private final @NonNull CampaingLoadSaveState state;
+    
+    LevelsImport(@NonNull Episode episode, @NonNull LevelType type, @NonNull List<Path> paths, int threads)
+    {
+        if(type == LevelType.SECRET)
+            throw new IllegalArgumentException("Secret levels cannot be imported in bulk");
+        
+        this.episode = episode;
+        this.type = type;
+        this.paths = List.copyOf(paths);
+        this.levels = new IndexedLevel[this.paths.size()];
+        this.state = new CampaingLoadSaveState(episode.getCampaign(), episode.getPath(), (c, p, s) -> run(s, threads));
+    }
+    
+    public synchronized @NonNull List<String> getErrors() { return Collections.unmodifiableList(new ArrayList<>(errors)); }
+    
+    // Levels read successfully, in the order of their paths.
+    public @NonNull List<IndexedLevel> getLevels()
+    {
+        var read = new ArrayList<IndexedLevel>(levels.length);
+        for(var level : levels)
+            if(level != null)
+                read.add(level);
+        return read;
+    }
+    
+    // Adds the levels read to the episode. Must be called once the state has finished without being cancelled.
+    public int commit()
+    {
+        if(committed)
+            throw new IllegalStateException("Levels already imported");
+        if(state.isCancelled())
+            throw new IllegalStateException("Levels import cancelled");
+        
+        committed = true;
+        var read = getLevels();
+        episode.addIndexedLevels(type, read);
+        return read.size();
+    }
+    
+    private void run(CampaingLoadSaveState state, int threads)
+    {
+        try(var pool = new TaskPool(threads, "levels-import"))
+        {
+            state.addElements(paths.size());
+            state.start(paths.isEmpty() ? "" : paths.get(0).toString());
+            for(int i = 0; i < paths.size(); i++)
+            {
+                int index = i;
+                pool.submit(() -> {
+                    state.checkCancelled();
+                    var path = paths.get(index);
+                    state.setCurrentDataText(path);
+                    try { levels[index] = read(path); }
+                    catch(Exception ex) { addError(path, ex); }
+                    finally { state.resolveElement(); }
+                });
+            }
+            pool.await();
+            state.checkCancelled();
+            
+            synchronized(this)
+            {
+                if(errors.isEmpty())
+                    state.finish();
+                else
+                    state.finish(errorsMessage());
+            }
+        }
+        catch(Throwable ex) { state.finish(ex); }
+    }
+    
+    private IndexedLevel read(Path path) throws Exception
+    {
+        if(LevelLocation.find(path).isInvalid())
+            throw new IllegalArgumentException("Neither the level file nor its thumbnail exist");
+        
+        var level = type == LevelType.BONUS ? new BonusLevel(episode) : new NormalLevel(episode);
+        level.loadExternData(path);
+        
+        // Scanned here so the cards of the new levels do not parse them on the EDT.
+        level.hasFruit();
+        return level;
+    }
+    
+    private synchronized void addError(Path path, Exception ex)
+    {
+        errors.add(String.format("\"%s\": %s", path, ex.getLocalizedMessage()));
+    }
+    
+    private String errorsMessage()
+    {
+        var sb = new StringBuilder();
+        sb.append(String.format("%d of %d levels could not be imported:", errors.size(), paths.size()));
+        for(int i = 0; i < errors.size() && i < MAX_REPORTED_ERRORS; i++)
+            sb.append('\n').append(errors.get(i));
+        if(errors.size() > MAX_REPORTED_ERRORS)
+            sb.append(String.format("\n... and %d more", errors.size() - MAX_REPORTED_ERRORS));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,117 @@
+package kp.rollingcube.ce.campaign;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Set;
+import lombok.NonNull;
+
+/**
+ * Set of files to move to other paths at once, as happens when the levels named by their position
+ * are reordered. The files are only renamed, their contents are never copied.
+ *
+ * The moves are split into chains, whose last target is not moved itself, and cycles. A chain is
+ * renamed from its end, one rename per file. A cycle sets its first file aside under a temporary
+ * name, so it takes one rename more than its length.
+ *
+ * @author Marc
+ */
+final class RenamePlan
+{
+    private static final String TEMP_SUFFIX = ".renaming";
+    
+    private final HashMap<Path, Path> targets = new HashMap<>();
+    private final HashMap<Path, Path> sources = new HashMap<>();
+    
+    @FunctionalInterface
+    interface Renamer
+    {
+        void rename(@NonNull Path source, @NonNull Path target) throws IOException;
+    }
+    
+    void add(@NonNull Path source, @NonNull Path target) throws IllegalArgumentException
+    {
+        if(targets.containsKey(source))
+            throw new IllegalArgumentException(String.format("\"%s\" is already renamed", source));
+        if(sources.containsKey(target))
+            throw new IllegalArgumentException(String.format("\"%s\" is already a rename target", target));
+        
+        targets.put(source, target);
+        sources.put(target, source);
+    }
+    
+    boolean isEmpty() { return targets.isEmpty(); }
+    
+    // Paths that hold a file once the plan is applied, including the files that keep their path.
+    @NonNull Set<Path> getTargets() { return sources.keySet(); }
+    
+    // Whether the file at path is moved, or kept, by the plan. A target that is not a source is replaced.
+    boolean isSource(@NonNull Path path) { return targets.containsKey(path); }
+    
+    void clear()
+    {
+        targets.clear();
+        sources.clear();
+    }
+    
+    // Returns the number of renames done. Every rename goes through renamer, so a caller can
+    // record them and undo those done if a later one fails.
+    int apply(@NonNull Renamer renamer) throws IOException
+    {
+        var pending = new HashMap<Path, Path>(targets.size());
+        targets.forEach((source, target) -> {
+            if(!source.equals(target))
+                pending.put(source, target);
+        });
+        
+        int renames = 0;
+        var tails = new ArrayList<Path>();
+        for(var entry : pending.entrySet())
+            if(!pending.containsKey(entry.getValue()))
+                tails.add(entry.getKey());
+        
+        // Each chain, from its end: the target of its last file is free or is only replaced.
+        for(var tail : tails)
+        {
+            var source = tail;
+            while(source != null)
+            {
+                renamer.rename(source, pending.remove(source));
+                renames++;
+                source = findPendingSource(source, pending);
+            }
+        }
+        
+        // Only cycles are left.
+        while(!pending.isEmpty())
+        {
+            var first = pending.keySet().iterator().next();
+            var temp = first.resolveSibling(first.getFileName() + TEMP_SUFFIX);
+            Files.deleteIfExists(temp);
+            renamer.rename(first, temp);
+            renames++;
+            
+            var target = first;
+            var source = sources.get(target);
+            while(!source.equals(first))
+            {
+                renamer.rename(source, target);
+                pending.remove(source);
+                renames++;
+                target = source;
+                source = sources.get(target);
+            }
+            renamer.rename(temp, pending.remove(first));
+            renames++;
+        }
+        return renames;
+    }
+    
+    private Path findPendingSource(Path target, HashMap<Path, Path> pending)
+    {
+        var source = sources.get(target);
+        return source != null && pending.containsKey(source) ? source : null;
+    }
+}
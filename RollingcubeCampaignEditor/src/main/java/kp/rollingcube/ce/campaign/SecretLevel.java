@@ -1,10 +1,9 @@
 package kp.rollingcube.ce.campaign;
 
 import java.io.IOException;
-import lombok.AccessLevel;
+import java.util.Objects;
 import lombok.Getter;
 import lombok.NonNull;
-import lombok.Setter;
 
 /**
  *
@@ -12,20 +11,62 @@ import lombok.Setter;
  */
 public final class SecretLevel extends Level
 {
-    @Getter @Setter(AccessLevel.PACKAGE)
+    @Getter
     private @NonNull String name;
     
-    @Getter @Setter
+    @Getter
     private String alias;
     
-    @Getter @Setter private boolean oneTry;
-    @Getter @Setter private boolean penalty;
+    @Getter private boolean oneTry;
+    @Getter private boolean penalty;
     
     SecretLevel(Episode episode)
     {
         super(episode);
     }
     
+    void setName(@NonNull String name)
+    {
+        if(!name.equals(this.name))
+        {
+            this.name = name;
+            markDirty();
+        }
+    }
+    
+    public void setAlias(String alias)
+    {
+        if(!Objects.equals(this.alias, alias))
+        {
+            var formerAlias = this.alias;
+            this.alias = alias;
+            episode.markPropertiesDirty();
+            record(() -> new CampaignEdit.SetProperty<>(this, "alias", this::setAlias, formerAlias, alias));
+        }
+    }
+    
+    public void setOneTry(boolean oneTry)
+    {
+        if(this.oneTry != oneTry)
+        {
+            this.oneTry = oneTry;
+            episode.markPropertiesDirty();
+            record(() -> new CampaignEdit.SetProperty<Boolean>(this, "oneTry", this::setOneTry, !oneTry, oneTry));
+        }
+    }
+    
+    public void setPenalty(boolean penalty)
+    {
+        if(this.penalty != penalty)
+        {
+            this.penalty = penalty;
+            episode.markPropertiesDirty();
+            record(() -> new CampaignEdit.SetProperty<Boolean>(this, "penalty", this::setPenalty, !penalty, penalty));
+        }
+    }
+    
+    private void record(CampaignEdit.Factory factory) { episode.getCampaign().getJournal().record(factory); }
+    
     @Override
     public @NonNull LevelType getType() { return LevelType.SECRET; }
 
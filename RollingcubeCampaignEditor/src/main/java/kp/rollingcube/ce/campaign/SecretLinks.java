@@ -0,0 +1,187 @@
+package kp.rollingcube.ce.campaign;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import lombok.NonNull;
+
+/**
+ * Reverse index of the secret exits of an episode: the levels exiting to each tag, and so the
+ * levels leading to each secret level. It is kept up to date as levels are added, removed,
+ * renamed or replaced, so broken exits and secret levels nothing leads to are known without
+ * scanning any level.
+ *
+ * Levels are indexed once their metadata is known, see Level.hasMetadata. Until then they lead
+ * nowhere, and isComplete tells whether any of them is left. The metadata warm-up indexes the
+ * levels from its own threads, so every method is synchronized.
+ *
+ * @author Marc
+ */
+public final class SecretLinks
+{
+    private final HashSet<Level> levels = new HashSet<>();
+    private final HashSet<Level> unscannedLevels = new HashSet<>();
+    private final HashMap<Level, String> exits = new HashMap<>();
+    private final HashMap<String, LinkedHashSet<Level>> levelsByExit = new HashMap<>();
+    private final HashMap<String, SecretLevel> secretLevels = new HashMap<>();
+    private int brokenExits;
+    private int orphanSecretLevels;
+    
+    SecretLinks() {}
+    
+    // Whether every level of the episode has been indexed.
+    public synchronized boolean isComplete() { return unscannedLevels.isEmpty(); }
+    
+    // Levels whose secret exit leads to no secret level of the episode.
+    public synchronized int getBrokenExitsCount() { return brokenExits; }
+    
+    // Secret levels no indexed level exits to.
+    public synchronized int getOrphanSecretLevelsCount() { return orphanSecretLevels; }
+    
+    public synchronized @NonNull List<Level> getLevelsExitingTo(String tag)
+    {
+        var exiting = levelsByExit.get(tag);
+        return exiting == null ? List.of() : List.copyOf(exiting);
+    }
+    
+    public @NonNull List<Level> getInboundExits(@NonNull SecretLevel level) { return getLevelsExitingTo(level.getName()); }
+    
+    public synchronized boolean isBrokenExit(@NonNull Level level)
+    {
+        var tag = exits.get(level);
+        return tag != null && !secretLevels.containsKey(tag);
+    }
+    
+    public synchronized boolean isOrphan(@NonNull SecretLevel level)
+    {
+        return secretLevels.get(level.getName()) == level && !levelsByExit.containsKey(level.getName());
+    }
+    
+    public synchronized @NonNull Set<String> getBrokenExitTags()
+    {
+        var tags = new HashSet<String>();
+        for(var tag : levelsByExit.keySet())
+            if(!secretLevels.containsKey(tag))
+                tags.add(tag);
+        return tags;
+    }
+    
+    public synchronized @NonNull List<SecretLevel> getOrphanSecretLevels()
+    {
+        var orphans = new ArrayList<SecretLevel>();
+        for(var entry : secretLevels.entrySet())
+            if(!levelsByExit.containsKey(entry.getKey()))
+                orphans.add(entry.getValue());
+        return orphans;
+    }
+    
+    synchronized void add(@NonNull Level level)
+    {
+        if(!levels.add(level))
+            return;
+        
+        if(level.isSecret())
+            addSecretLevel(level.asSecret().getName(), level.asSecret());
+        update(level);
+    }
+    
+    synchronized void remove(@NonNull Level level)
+    {
+        if(!levels.remove(level))
+            return;
+        
+        unscannedLevels.remove(level);
+        var tag = exits.remove(level);
+        if(tag != null)
+            removeExit(level, tag);
+        if(level.isSecret())
+            removeSecretLevel(level.asSecret().getName());
+    }
+    
+    // Indexes the level again from its current metadata. Levels out of the episode are ignored, a
+    // warm-up may still be scanning them.
+    synchronized void update(@NonNull Level level)
+    {
+        if(!levels.contains(level))
+            return;
+        
+        var metadata = level.peekMetadata();
+        if(metadata == null)
+            unscannedLevels.add(level);
+        else
+            unscannedLevels.remove(level);
+        
+        var tag = metadata == null ? null : metadata.getSecretExit();
+        var formerTag = tag == null ? exits.remove(level) : exits.put(level, tag);
+        if(Objects.equals(formerTag, tag))
+            return;
+        
+        if(formerTag != null)
+            removeExit(level, formerTag);
+        if(tag != null)
+            addExit(level, tag);
+    }
+    
+    synchronized void secretLevelRenamed(@NonNull SecretLevel level, @NonNull String formerName)
+    {
+        if(!levels.contains(level))
+            return;
+        
+        removeSecretLevel(formerName);
+        addSecretLevel(level.getName(), level);
+    }
+    
+    private void addExit(Level level, String tag)
+    {
+        var exiting = levelsByExit.computeIfAbsent(tag, key -> new LinkedHashSet<>());
+        if(!exiting.add(level))
+            return;
+        
+        if(!secretLevels.containsKey(tag))
+            brokenExits++;
+        else if(exiting.size() == 1)
+            orphanSecretLevels--;
+    }
+    
+    private void removeExit(Level level, String tag)
+    {
+        var exiting = levelsByExit.get(tag);
+        if(exiting == null || !exiting.remove(level))
+            return;
+        
+        if(exiting.isEmpty())
+            levelsByExit.remove(tag);
+        if(!secretLevels.containsKey(tag))
+            brokenExits--;
+        else if(exiting.isEmpty())
+            orphanSecretLevels++;
+    }
+    
+    private void addSecretLevel(String name, SecretLevel level)
+    {
+        if(secretLevels.putIfAbsent(name, level) != null)
+            return;
+        
+        var exiting = levelsByExit.get(name);
+        if(exiting == null)
+            orphanSecretLevels++;
+        else
+            brokenExits -= exiting.size();
+    }
+    
+    private void removeSecretLevel(String name)
+    {
+        if(secretLevels.remove(name) == null)
+            return;
+        
+        var exiting = levelsByExit.get(name);
+        if(exiting == null)
+            orphanSecretLevels--;
+        else
+            brokenExits += exiting.size();
+    }
+}
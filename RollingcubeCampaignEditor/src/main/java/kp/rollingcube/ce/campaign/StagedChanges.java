@@ -0,0 +1,167 @@
+package kp.rollingcube.ce.campaign;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import kp.rollingcube.ce.utils.DirectoryUtils;
+import kp.rollingcube.ce.utils.FileUtils;
+import lombok.NonNull;
+
+/**
+ * Changes of an in place save. New files are written next to the ones they replace, and
+ * deletions and renames are only recorded, so nothing in the campaign folder changes until commit.
+ *
+ * Commit renames first, so the files moved out of a path are not lost when that path is deleted
+ * or replaced, and never deletes the files a rename has just put in place. Whole folders written
+ * again are staged as folders, and take the place of the folders they replace before that.
+ *
+ * Commit itself only renames: what it deletes or replaces is first set aside under another name,
+ * and deleted once everything is in place. If a step fails, the renames done are undone backwards,
+ * which leaves the campaign folder as it was unless undoing them fails too.
+ *
+ * @author Marc
+ */
+final class StagedChanges
+{
+    private static final String SUFFIX = ".saving";
+    
+    private final ArrayList<Path> staged = new ArrayList<>();
+    private final ArrayList<Path> deleted = new ArrayList<>();
+    private final ArrayList<Path> deletedFolders = new ArrayList<>();
+    private final HashMap<Path, Path> stagedFolders = new HashMap<>();
+    private final RenamePlan renames = new RenamePlan();
+    
+    // Renames done by the commit, in order, and the paths it has set aside.
+    private final ArrayList<Path[]> moves = new ArrayList<>();
+    private final ArrayList<Path> setAside = new ArrayList<>();
+    
+    // Returns the file to write instead of target.
+    synchronized @NonNull Path stage(@NonNull Path target)
+    {
+        staged.add(target);
+        return stagedPath(target);
+    }
+    
+    // The stored file source becomes target, unchanged. Source and target may be the same file.
+    synchronized void rename(@NonNull Path source, @NonNull Path target) { renames.add(source, target); }
+    
+    synchronized void delete(@NonNull Path target) { deleted.add(target); }
+    synchronized void deleteFolder(@NonNull Path folder) { deletedFolders.add(folder); }
+    
+    // Returns a new folder to write into the contents of target, under the same name. It replaces
+    // target, if it exists, after the deleted folders are deleted.
+    synchronized @NonNull Path stageFolder(@NonNull Path target) throws IOException
+    {
+        var root = Files.createTempDirectory(target.toAbsolutePath().getParent(), "." + target.getFileName() + SUFFIX + "-");
+        stagedFolders.put(target, root);
+        return root;
+    }
+    
+    synchronized void commit() throws IOException
+    {
+        try
+        {
+            for(var folder : deletedFolders)
+                setAside(folder);
+            
+            for(var entry : stagedFolders.entrySet())
+            {
+                var target = entry.getKey();
+                setAside(target);
+                move(entry.getValue().resolve(target.getFileName()), target);
+            }
+            
+            // Targets the renames do not move away themselves would be replaced.
+            for(var target : renames.getTargets())
+                if(!renames.isSource(target))
+                    setAside(target);
+            renames.apply(this::move);
+            
+            var renamed = renames.getTargets();
+            for(var file : deleted)
+                if(!renamed.contains(file))
+                    setAside(file);
+            
+            for(var target : staged)
+            {
+                setAside(target);
+                move(stagedPath(target), target);
+            }
+        }
+        catch(IOException | RuntimeException ex)
+        {
+            undoMoves(ex);
+            throw ex;
+        }
+        
+        for(var path : setAside)
+            deleteQuietly(path);
+        for(var root : stagedFolders.values())
+            deleteQuietly(root);
+        clear();
+    }
+    
+    private void move(Path source, Path target) throws IOException
+    {
+        FileUtils.rename(source, target);
+        moves.add(new Path[] { source, target });
+    }
+    
+    // Moves the file or folder at path out of the way, if there is one.
+    private void setAside(Path path) throws IOException
+    {
+        if(!Files.exists(path, LinkOption.NOFOLLOW_LINKS))
+            return;
+        
+        var aside = path.resolveSibling(path.getFileName() + SUFFIX + "-replaced-" + setAside.size());
+        DirectoryUtils.deleteRecursively(aside);
+        move(path, aside);
+        setAside.add(aside);
+    }
+    
+    private void undoMoves(Exception cause)
+    {
+        for(int i = moves.size() - 1; i >= 0; i--)
+        {
+            var move = moves.get(i);
+            try { FileUtils.rename(move[1], move[0]); }
+            catch(IOException ex) { cause.addSuppressed(ex); }
+        }
+        moves.clear();
+        setAside.clear();
+    }
+    
+    synchronized void rollback()
+    {
+        for(var target : staged)
+        {
+            try { Files.deleteIfExists(stagedPath(target)); }
+            catch(IOException ex) { ex.printStackTrace(System.err); }
+        }
+        for(var root : stagedFolders.values())
+            deleteQuietly(root);
+        clear();
+    }
+    
+    private static void deleteQuietly(Path path)
+    {
+        try { DirectoryUtils.deleteRecursively(path); }
+        catch(IOException ex) { ex.printStackTrace(System.err); }
+    }
+    
+    private void clear()
+    {
+        staged.clear();
+        deleted.clear();
+        deletedFolders.clear();
+        stagedFolders.clear();
+        renames.clear();
+        moves.clear();
+        setAside.clear();
+    }
+    
+    private static Path stagedPath(Path target) { return target.resolveSibling(target.getFileName() + SUFFIX); }
+}
@@ -14,9 +14,44 @@ import org.json.JSONObject;
 public final class EpisodeUnlockRequirementsCollection implements EpisodeUnlockRequirements
 {
     private final HashMap<String, EpisodeUnlockRequirementsForEpisode> episodes = new HashMap<>();
+    private boolean dirty;
+    
+    // Run after every change of the requirements.
+    private final @NonNull Runnable onChange;
+    
+    public EpisodeUnlockRequirementsCollection(@NonNull Runnable onChange)
+    {
+        this.onChange = onChange;
+    }
     
     public boolean isEmpty() { return episodes.isEmpty(); }
     
+    public boolean isDirty()
+    {
+        if(dirty)
+            return true;
+        
+        for(var epi : episodes.values())
+            if(epi.isDirty())
+                return true;
+        return false;
+    }
+    
+    public void clearDirty()
+    {
+        dirty = false;
+        for(var epi : episodes.values())
+            epi.clearDirty();
+    }
+    
+    private void markDirty()
+    {
+        dirty = true;
+        changed();
+    }
+    
+    void changed() { onChange.run(); }
+    
     @Override
     public Iterable<EpisodeUnlockRequirementsForEpisode> getEpisodes() { return episodes.values(); }
     
@@ -48,13 +83,19 @@ public final class EpisodeUnlockRequirementsCollection implements EpisodeUnlockR
         if(episodes.containsKey(episodeName))
             throw new IllegalArgumentException(String.format("Episode \"%s\" already exists", episodeName));
         
-        var episode = new EpisodeUnlockRequirementsForEpisode(episodeName);
+        var episode = new EpisodeUnlockRequirementsForEpisode(this, episodeName);
         episodes.put(episode.getEpisodeName(), episode);
+        markDirty();
         
         return episode;
     }
     
-    public void clear() { episodes.clear(); }
+    public void clear()
+    {
+        if(!episodes.isEmpty())
+            markDirty();
+        episodes.clear();
+    }
     
     public @NonNull JSONObject toJson()
     {
@@ -70,6 +111,8 @@ public final class EpisodeUnlockRequirementsCollection implements EpisodeUnlockR
     public void fromJson(JSONObject json)
     {
         episodes.clear();
+        dirty = false;
+        changed();
         
         if(json == null || json.isEmpty())
             return;
@@ -83,7 +126,7 @@ public final class EpisodeUnlockRequirementsCollection implements EpisodeUnlockR
             if(jsonEpi == null || jsonEpi.isEmpty())
                 continue;
             
-            var epi = new EpisodeUnlockRequirementsForEpisode(key);
+            var epi = new EpisodeUnlockRequirementsForEpisode(this, key);
             epi.fromJson(jsonEpi);
             
             episodes.put(epi.getEpisodeName(), epi);
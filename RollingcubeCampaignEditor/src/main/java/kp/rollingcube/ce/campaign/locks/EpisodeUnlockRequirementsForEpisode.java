@@ -12,17 +12,30 @@ import org.json.JSONObject;
  */
 public final class EpisodeUnlockRequirementsForEpisode
 {
+    private final @NonNull EpisodeUnlockRequirementsCollection owner;
+    
     @Getter
     private final @NonNull String episodeName;
     private final HashMap<EpisodeUnlockRequirementId, EpisodeUnlockRequirement> requirements = new HashMap<>();
+    private boolean dirty;
     
-    EpisodeUnlockRequirementsForEpisode(String episodeName)
+    EpisodeUnlockRequirementsForEpisode(EpisodeUnlockRequirementsCollection owner, String episodeName)
     {
+        this.owner = owner;
         this.episodeName = episodeName;
     }
     
     public boolean isEmpty() { return requirements.isEmpty(); }
     
+    public boolean isDirty() { return dirty; }
+    void clearDirty() { dirty = false; }
+    
+    private void markDirty()
+    {
+        dirty = true;
+        owner.changed();
+    }
+    
     public Iterable<EpisodeUnlockRequirement> getRequirements() { return requirements.values(); }
     
     public boolean hasRequirement(@NonNull EpisodeUnlockRequirementId reqId)
@@ -40,10 +53,11 @@ public final class EpisodeUnlockRequirementsForEpisode
             {
                 req = EpisodeUnlockRequirement.of(id, 1);
                 requirements.put(id, req);
+                markDirty();
             }
         }
-        else
-            requirements.remove(id);
+        else if(requirements.remove(id) != null)
+            markDirty();
     }
     public boolean isAllRequirementEnabled(EpisodeUnlockRequirementLevelType levelType, EpisodeUnlockRequirementRequest request)
     {
@@ -62,10 +76,14 @@ public final class EpisodeUnlockRequirementsForEpisode
                 req = EpisodeUnlockRequirement.of(id, 0);
                 requirements.put(id, req);
             }
-            req.setValue(value);
+            if(req.getValue() != value)
+            {
+                req.setValue(value);
+                markDirty();
+            }
         }
-        else
-            requirements.remove(id);
+        else if(requirements.remove(id) != null)
+            markDirty();
     }
     
     public int getAmountRequirementValue(EpisodeUnlockRequirementLevelType levelType, EpisodeUnlockRequirementRequest request)
@@ -111,6 +129,7 @@ public final class EpisodeUnlockRequirementsForEpisode
     void fromJson(JSONObject json)
     {
         requirements.clear();
+        dirty = false;
         
         if(json == null || json.isEmpty())
             return;
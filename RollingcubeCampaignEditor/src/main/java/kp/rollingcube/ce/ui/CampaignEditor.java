@@ -6,11 +6,17 @@ import java.awt.GridBagLayout;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.List;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 import kp.rollingcube.ce.campaign.Campaign;
+import kp.rollingcube.ce.campaign.CampaignListener;
 import kp.rollingcube.ce.campaign.Episode;
+import kp.rollingcube.ce.campaign.IndexedLevel;
+import kp.rollingcube.ce.campaign.Level;
 import kp.rollingcube.ce.campaign.LevelType;
+import kp.rollingcube.ce.campaign.SecretLevel;
 import kp.rollingcube.ce.utils.Thumbnail;
 import kp.rollingcube.ce.utils.UIUtils;
 import kp.rollingcube.ce.utils.Version;
@@ -29,9 +35,12 @@ public class CampaignEditor extends JFrame implements ChangesNotifier
     private Thumbnail selectedEpisodeThumbnail;
     
     private boolean unstoredChanges;
+    private int changesCount;
     
     private final JPanel episodesPanel = new JPanel();
     private final HashMap<String, EpisodeCard> episodeCardsMap = new HashMap<>();
+    private final JPanel episodesGhostPanel = new JPanel();
+    private final CampaignListener campaignListener = new CampaignChangesPatcher();
     
     private final LevelsPanel normalLevelsPanel = new LevelsPanel(this, LevelType.NORMAL);
     private final LevelsPanel bonusLevelsPanel = new LevelsPanel(this, LevelType.BONUS);
@@ -95,7 +104,11 @@ public class CampaignEditor extends JFrame implements ChangesNotifier
     }
     
     @Override
-    public void notifyChanges() { unstoredChanges = true; }
+    public void notifyChanges()
+    {
+        unstoredChanges = true;
+        changesCount++;
+    }
     
     private void updateProperties()
     {
@@ -126,6 +139,67 @@ public class CampaignEditor extends JFrame implements ChangesNotifier
         }
     }
     
+    private void changeCampaign(Campaign newCampaign)
+    {
+        if(campaign != null)
+        {
+            campaign.removeListener(campaignListener);
+            campaign.stopMetadataWarmUp();
+            campaign.getJournal().setOnChangeCallback(null);
+            campaign.getJournal().clear();
+        }
+        campaign = newCampaign;
+        if(campaign != null)
+        {
+            campaign.addListener(campaignListener);
+            campaign.getJournal().setOnChangeCallback(this::updateEditMenu);
+        }
+        updateEditMenu();
+    }
+    
+    private void updateEditMenu()
+    {
+        menuUndo.setEnabled(campaign != null && campaign.getJournal().canUndo());
+        menuRedo.setEnabled(campaign != null && campaign.getJournal().canRedo());
+    }
+    
+    // Undoing and redoing go through the model, whose events patch the views as for any other change.
+    private void undo()
+    {
+        try
+        {
+            campaign.getJournal().undo();
+            notifyChanges();
+        }
+        catch(IOException | RuntimeException ex)
+        {
+            Notify.ferror(
+                    this,
+                    null,
+                    "An error occurred while undoing the last change: %s",
+                    ex.getLocalizedMessage()
+            );
+        }
+    }
+    
+    private void redo()
+    {
+        try
+        {
+            campaign.getJournal().redo();
+            notifyChanges();
+        }
+        catch(IOException | RuntimeException ex)
+        {
+            Notify.ferror(
+                    this,
+                    null,
+                    "An error occurred while redoing the last change: %s",
+                    ex.getLocalizedMessage()
+            );
+        }
+    }
+    
     private void updateEpisodesPanel()
     {
         episodeCardsMap.clear();
@@ -136,32 +210,66 @@ public class CampaignEditor extends JFrame implements ChangesNotifier
         int lastIndex = 0;
         for(var episode : campaign.getEpisodes())
         {
-            var episodePanel = new EpisodeCard();
-            episodePanel.setEpisode(episode);
-            episodePanel.setListener(new EpisodeCard.EventsListener()
-            {
-                @Override
-                public void onEdit(Episode episode) { selectEpisode(episode); }
-
-                @Override
-                public void onDelete(Episode episode) { deleteEpisode(episode); }
-
-                @Override
-                public void onUp(Episode episode) { moveUpEpisode(episode); }
-
-                @Override
-                public void onDown(Episode episode) { moveDownEpisode(episode); }
-                
-            });
-            episodePanel.update();
-            episodesPanel.add(episodePanel, prepareEpisodesConstraints(episode.getIndex()));
-            episodeCardsMap.put(episode.getName(), episodePanel);
+            episodesPanel.add(createEpisodeCard(episode), prepareEpisodesConstraints(episode.getIndex()));
             lastIndex = Math.max(lastIndex, episode.getIndex());
         }
-        episodesPanel.add(new JPanel(), prepareEpisodesGhostConstraints(lastIndex + 1));
+        episodesPanel.add(episodesGhostPanel, prepareEpisodesGhostConstraints(lastIndex + 1));
         episodesPanel.updateUI();
     }
     
+    private EpisodeCard createEpisodeCard(Episode episode)
+    {
+        var episodePanel = new EpisodeCard();
+        episodePanel.setEpisode(episode);
+        episodePanel.setListener(new EpisodeCard.EventsListener()
+        {
+            @Override
+            public void onEdit(Episode episode) { selectEpisode(episode); }
+            
+            @Override
+            public void onDelete(Episode episode) { deleteEpisode(episode); }
+            
+            @Override
+            public void onUp(Episode episode) { moveUpEpisode(episode); }
+            
+            @Override
+            public void onDown(Episode episode) { moveDownEpisode(episode); }
+        
+        });
+        episodePanel.update();
+        episodeCardsMap.put(episode.getName(), episodePanel);
+        return episodePanel;
+    }
+    
+    // Places the cards of the episodes from the given index on, after one was added, removed or moved.
+    private void relayoutEpisodeCards(int fromIndex)
+    {
+        var layout = (GridBagLayout) episodesPanel.getLayout();
+        int count = campaign.getEpisodesCount();
+        for(int i = Math.max(0, fromIndex); i < count; i++)
+        {
+            var card = episodeCardsMap.get(campaign.getEpisode(i).getName());
+            if(card != null)
+            {
+                layout.setConstraints(card, prepareEpisodesConstraints(i));
+                card.updateLabels();
+            }
+        }
+        layout.setConstraints(episodesGhostPanel, prepareEpisodesGhostConstraints(count));
+        episodesPanel.revalidate();
+        episodesPanel.repaint();
+    }
+    
+    private LevelsPanel getLevelsPanel(LevelType type)
+    {
+        switch(type)
+        {
+            case NORMAL: return normalLevelsPanel;
+            case BONUS: return bonusLevelsPanel;
+            default: return secretLevelsPanel;
+        }
+    }
+    
     private GridBagConstraints prepareEpisodesConstraints(int index)
     {
         var ct = new GridBagConstraints();
@@ -255,11 +363,9 @@ public class CampaignEditor extends JFrame implements ChangesNotifier
         try
         {
             campaign.changeEpisodeName(selectedEpisode.getName(), name.get());
-            updateEpisodesPanel();
-            updateSelectedEpisodePanel();
             notifyChanges();
         }
-        catch(IOException ex)
+        catch(IOException | IllegalStateException ex)
         {
             Notify.ferror(
                     this,
@@ -301,7 +407,6 @@ public class CampaignEditor extends JFrame implements ChangesNotifier
                     ex.getLocalizedMessage()
             );
         }
-        finally { updateEpisodesPanel(); }
     }
     
     private void moveUpEpisode(Episode episode)
@@ -324,7 +429,6 @@ public class CampaignEditor extends JFrame implements ChangesNotifier
                     ex.getLocalizedMessage()
             );
         }
-        finally { updateEpisodesPanel(); }
     }
     
     private void moveDownEpisode(Episode episode)
@@ -347,7 +451,6 @@ public class CampaignEditor extends JFrame implements ChangesNotifier
                     ex.getLocalizedMessage()
             );
         }
-        finally { updateEpisodesPanel(); }
     }
     
     private void createNewEpisode()
@@ -359,7 +462,6 @@ public class CampaignEditor extends JFrame implements ChangesNotifier
         try
         {
             campaign.addEpisode(name.get());
-            updateEpisodesPanel();
             notifyChanges();
         }
         catch(IOException ex)
@@ -378,8 +480,9 @@ public class CampaignEditor extends JFrame implements ChangesNotifier
         if(!ignoreUnstoredChanges && !resolveUnstoredChanges())
             return false;
         
-        campaign = Campaign.createNew();
+        changeCampaign(Campaign.createNew());
         campaign.setName("Unnamed");
+        campaign.getJournal().clear();
         campaignPath = null;
         unstoredChanges = false;
         selectedEpisode = null;
@@ -399,7 +502,10 @@ public class CampaignEditor extends JFrame implements ChangesNotifier
         try
         {
             var cp = CampaignLoader.loadCampaign(this, path.get());
-            campaign = cp;
+            if(cp == null)
+                return false;
+            
+            changeCampaign(cp);
             campaignPath = cp.getPath();
             unstoredChanges = false;
             selectedEpisode = null;
@@ -415,6 +521,11 @@ public class CampaignEditor extends JFrame implements ChangesNotifier
     
     private boolean saveCampaign(boolean askForPath)
     {
+        if(campaign.isSaving())
+        {
+            Notify.error(this, "The campaign is still being saved, try again once it has finished.");
+            return false;
+        }
         if(!validateProject())
             return false;
         
@@ -430,7 +541,12 @@ public class CampaignEditor extends JFrame implements ChangesNotifier
         
         try
         {
-            CampaignLoader.saveCampaign(this, campaign, campaignPath);
+            if(!CampaignLoader.saveCampaign(this, campaign, campaignPath))
+            {
+                campaignPath = oldPath;
+                return false;
+            }
+            
             unstoredChanges = false;
             return true;
         }
@@ -442,6 +558,47 @@ public class CampaignEditor extends JFrame implements ChangesNotifier
         }
     }
     
+    // The editor stays usable while the campaign is saved. Changes made meanwhile are not saved and remain unstored.
+    private void saveCampaignInBackground(boolean askForPath)
+    {
+        if(campaign.isSaving())
+        {
+            Notify.error(this, "The campaign is already being saved.");
+            return;
+        }
+        if(!validateProject())
+            return;
+        
+        var path = campaignPath;
+        if(askForPath || path == null)
+        {
+            var oPath = FileChooser.saveCampaign(this, campaignPath);
+            if(oPath.isEmpty())
+                return;
+            
+            path = oPath.get();
+        }
+        
+        var savedCampaign = campaign;
+        var savedPath = path;
+        int savedChangesCount = changesCount;
+        try
+        {
+            CampaignLoader.saveCampaignInBackground(this, campaign, path, saved -> {
+                if(!saved || campaign != savedCampaign)
+                    return;
+                
+                campaignPath = savedPath;
+                if(changesCount == savedChangesCount)
+                    unstoredChanges = false;
+            });
+        }
+        catch(Exception ex)
+        {
+            Notify.error(this, ex.getLocalizedMessage());
+        }
+    }
+    
     private boolean validateProject()
     {
         if(!campaignName.isValid())
@@ -488,6 +645,7 @@ public class CampaignEditor extends JFrame implements ChangesNotifier
         if(!resolveUnstoredChanges())
             return;
         
+        campaign.getJournal().clear();
         System.exit(0);
     }
     
@@ -502,6 +660,156 @@ public class CampaignEditor extends JFrame implements ChangesNotifier
         if(selectedEpisode != null && selectedEpisodeThumbnail != null)
             selectedEpisodeThumbnail.draw(g, selectedEpisodeThumbnailPanel);
     }
+    
+    
+    // Applies the changes of the campaign to the episode cards and the levels panels.
+    private final class CampaignChangesPatcher implements CampaignListener
+    {
+        @Override
+        public void episodeAdded(Episode episode)
+        {
+            episodesPanel.add(createEpisodeCard(episode), prepareEpisodesConstraints(episode.getIndex()));
+            relayoutEpisodeCards(episode.getIndex() - 1);
+        }
+        
+        @Override
+        public void episodeRemoved(Episode episode, int formerIndex)
+        {
+            if(episode == selectedEpisode)
+                selectEpisode(null);
+            var card = episodeCardsMap.remove(episode.getName());
+            if(card != null)
+                episodesPanel.remove(card);
+            relayoutEpisodeCards(formerIndex - 1);
+        }
+        
+        @Override
+        public void episodesRemoved(List<Episode> episodes, int[] formerIndices)
+        {
+            for(var episode : episodes)
+            {
+                if(episode == selectedEpisode)
+                    selectEpisode(null);
+                var card = episodeCardsMap.remove(episode.getName());
+                if(card != null)
+                    episodesPanel.remove(card);
+            }
+            relayoutEpisodeCards(formerIndices[0] - 1);
+        }
+        
+        @Override
+        public void episodesReordered(int fromIndex, int toIndex) { relayoutEpisodeCards(fromIndex); }
+        
+        @Override
+        public void episodesSwapped(Episode first, Episode second)
+        {
+            relayoutEpisodeCards(Math.min(first.getIndex(), second.getIndex()));
+        }
+        
+        @Override
+        public void episodeRenamed(Episode episode, String formerName)
+        {
+            var card = episodeCardsMap.remove(formerName);
+            if(card != null)
+            {
+                episodeCardsMap.put(episode.getName(), card);
+                card.updateLabels();
+            }
+            if(episode == selectedEpisode)
+                selectedEpisodeNameField.setText(episode.getName());
+        }
+        
+        // Adding, removing or renaming a level may link or unlink levels shown by the other panels.
+        private void secretLinksChanged(Episode episode)
+        {
+            normalLevelsPanel.secretLinksChanged(episode);
+            bonusLevelsPanel.secretLinksChanged(episode);
+            secretLevelsPanel.secretLinksChanged(episode);
+        }
+        
+        @Override
+        public void levelAdded(Level level)
+        {
+            getLevelsPanel(level.getType()).levelAdded(level);
+            secretLinksChanged(level.getEpisode());
+        }
+        
+        @Override
+        public void levelsAdded(List<? extends IndexedLevel> levels)
+        {
+            if(levels.isEmpty())
+                return;
+            
+            getLevelsPanel(levels.get(0).getType()).levelsAdded(levels);
+            secretLinksChanged(levels.get(0).getEpisode());
+        }
+        
+        @Override
+        public void levelRemoved(Level level, int formerIndex)
+        {
+            getLevelsPanel(level.getType()).levelRemoved(level, formerIndex);
+            secretLinksChanged(level.getEpisode());
+        }
+        
+        @Override
+        public void levelsRemoved(List<? extends IndexedLevel> levels, int[] formerIndices)
+        {
+            if(levels.isEmpty())
+                return;
+            
+            getLevelsPanel(levels.get(0).getType()).levelsRemoved(levels, formerIndices);
+            secretLinksChanged(levels.get(0).getEpisode());
+        }
+        
+        @Override
+        public void levelsReordered(Episode episode, LevelType type, int fromIndex, int toIndex)
+        {
+            getLevelsPanel(type).levelsReordered(episode, type, fromIndex, toIndex);
+        }
+        
+        @Override
+        public void levelsSwapped(IndexedLevel first, IndexedLevel second) { getLevelsPanel(first.getType()).levelsSwapped(first, second); }
+        
+        @Override
+        public void levelRenamed(SecretLevel level, String formerName)
+        {
+            getLevelsPanel(LevelType.SECRET).levelRenamed(level, formerName);
+            secretLinksChanged(level.getEpisode());
+        }
+        
+        @Override
+        public void campaignPropertiesChanged()
+        {
+            campaignName.bind();
+            campaignRequiredFruits.bind();
+            campaignLevelsUntilSaveGame.bind();
+            updateCampaignThumbnail();
+            updateTitle();
+        }
+        
+        @Override
+        public void episodePropertiesChanged(Episode episode)
+        {
+            var card = episodeCardsMap.get(episode.getName());
+            if(card != null)
+                card.update();
+            if(episode == selectedEpisode)
+                updateSelectedEpisodeThumbnail();
+        }
+        
+        @Override
+        public void levelPropertiesChanged(Level level) { getLevelsPanel(level.getType()).levelChanged(level); }
+        
+        // The warm-up runs in the background, its results are applied on the EDT.
+        @Override
+        public void levelMetadataLoaded(Level level)
+        {
+            SwingUtilities.invokeLater(() -> {
+                getLevelsPanel(level.getType()).levelChanged(level);
+                secretLinksChanged(level.getEpisode());
+            });
+        }
+    }
 
     /**
      * This method is called from within the constructor to initialize the form.
@@ -563,6 +871,9 @@ public class CampaignEditor extends JFrame implements ChangesNotifier
         menuSaveAsCampaign = new javax.swing.JMenuItem();
         jSeparator3 = new javax.swing.JPopupMenu.Separator();
         menuExit = new javax.swing.JMenuItem();
+        jMenu2 = new javax.swing.JMenu();
+        menuUndo = new javax.swing.JMenuItem();
+        menuRedo = new javax.swing.JMenuItem();
 
         setDefaultCloseOperation(javax.swing.WindowConstants.DO_NOTHING_ON_CLOSE);
         setMinimumSize(new java.awt.Dimension(1066, 600));
@@ -916,6 +1227,30 @@ public class CampaignEditor extends JFrame implements ChangesNotifier
 
         jMenuBar1.add(jMenu1);
 
+        jMenu2.setText("Edit");
+
+        menuUndo.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_Z, java.awt.event.InputEvent.CTRL_DOWN_MASK));
+        menuUndo.setText("Undo");
+        menuUndo.setEnabled(false);
+        menuUndo.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                menuUndoActionPerformed(evt);
+            }
+        });
+        jMenu2.add(menuUndo);
+
+        menuRedo.setAccelerator(javax.swing.KeyStroke.getKeyStroke(java.awt.event.KeyEvent.VK_Y, java.awt.event.InputEvent.CTRL_DOWN_MASK));
+        menuRedo.setText("Redo");
+        menuRedo.setEnabled(false);
+        menuRedo.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                menuRedoActionPerformed(evt);
+            }
+        });
+        jMenu2.add(menuRedo);
+
+        jMenuBar1.add(jMenu2);
+
         setJMenuBar(jMenuBar1);
 
         javax.swing.GroupLayout layout = new javax.swing.GroupLayout(getContentPane());
@@ -951,11 +1286,11 @@ public class CampaignEditor extends JFrame implements ChangesNotifier
     }//GEN-LAST:event_menuOpenCampaignActionPerformed
 
     private void menuSaveCampaignActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_menuSaveCampaignActionPerformed
-        saveCampaign(false);
+        saveCampaignInBackground(false);
     }//GEN-LAST:event_menuSaveCampaignActionPerformed
 
     private void menuSaveAsCampaignActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_menuSaveAsCampaignActionPerformed
-        saveCampaign(true);
+        saveCampaignInBackground(true);
     }//GEN-LAST:event_menuSaveAsCampaignActionPerformed
 
     private void menuExitActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_menuExitActionPerformed
@@ -1049,6 +1384,14 @@ public class CampaignEditor extends JFrame implements ChangesNotifier
         selectedEpisodeChangeName();
     }//GEN-LAST:event_jButton1ActionPerformed
 
+    private void menuUndoActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_menuUndoActionPerformed
+        undo();
+    }//GEN-LAST:event_menuUndoActionPerformed
+
+    private void menuRedoActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_menuRedoActionPerformed
+        redo();
+    }//GEN-LAST:event_menuRedoActionPerformed
+
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JPanel bonusLevelsRootPanel;
@@ -1069,6 +1412,7 @@ public class CampaignEditor extends JFrame implements ChangesNotifier
     private javax.swing.JLabel jLabel3;
     private javax.swing.JLabel jLabel5;
     private javax.swing.JMenu jMenu1;
+    private javax.swing.JMenu jMenu2;
     private javax.swing.JMenuBar jMenuBar1;
     private javax.swing.JPanel jPanel1;
     private javax.swing.JPanel jPanel2;
@@ -1083,8 +1427,10 @@ public class CampaignEditor extends JFrame implements ChangesNotifier
     private javax.swing.JMenuItem menuExit;
     private javax.swing.JMenuItem menuNewCampaign;
     private javax.swing.JMenuItem menuOpenCampaign;
+    private javax.swing.JMenuItem menuRedo;
     private javax.swing.JMenuItem menuSaveAsCampaign;
     private javax.swing.JMenuItem menuSaveCampaign;
+    private javax.swing.JMenuItem menuUndo;
     private javax.swing.JButton newEpisodeButton;
     private javax.swing.JPanel normalLevelsRootPanel;
     private javax.swing.JPanel secretLevelsRootPanel;
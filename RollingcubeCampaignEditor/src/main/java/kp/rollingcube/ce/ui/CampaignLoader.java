@@ -5,9 +5,12 @@
 package kp.rollingcube.ce.ui;
 
 import java.nio.file.Path;
+import java.util.function.Consumer;
 import javax.swing.JDialog;
+import javax.swing.SwingUtilities;
 import kp.rollingcube.ce.campaign.Campaign;
 import kp.rollingcube.ce.campaign.CampaingLoadSaveState;
+import kp.rollingcube.ce.campaign.LevelsImport;
 import kp.rollingcube.ce.utils.UIUtils;
 import lombok.NonNull;
 
@@ -19,18 +22,21 @@ public class CampaignLoader extends JDialog
 {
     private final @NonNull CampaignEditor editor;
     private final @NonNull CampaingLoadSaveState state;
+    private CampaingLoadSaveState.OperationResult result;
+    private Consumer<Boolean> onCompleted;
     
-    private CampaignLoader(CampaignEditor editor, CampaingLoadSaveState state)
+    private CampaignLoader(CampaignEditor editor, CampaingLoadSaveState state, boolean modal)
     {
-        super(editor, true);
+        super(editor, modal);
         initComponents();
         
         this.editor = editor;
         this.state = state;
         
-        state.setOnStartCallback(this::onStart);
-        state.setOnUpdateCallback(this::onUpdate);
-        state.setOnFinishCallback(this::onFinish);
+        // The callbacks come from the worker thread, the dialog is only touched from the EDT.
+        state.setOnStartCallback((total, current, text) -> SwingUtilities.invokeLater(() -> onStart(total, current, text)));
+        state.setOnUpdateCallback((total, current, text) -> SwingUtilities.invokeLater(() -> onUpdate(total, current, text)));
+        state.setOnFinishCallback(result -> SwingUtilities.invokeLater(() -> onFinish(result)));
         
         infoLabel.setText("");
         progressBar.setValue(0);
@@ -56,6 +62,7 @@ public class CampaignLoader extends JDialog
     
     private void onFinish(CampaingLoadSaveState.OperationResult result)
     {
+        this.result = result;
         int value = Math.max(1, progressBar.getMaximum());
         progressBar.setValue(value);
         progressBar.setMaximum(value);
@@ -67,23 +74,50 @@ public class CampaignLoader extends JDialog
         }
         
         dispose();
+        if(onCompleted != null)
+            onCompleted.accept(isCompleted());
     }
     
+    private boolean isCompleted() { return result != null && !result.isCancelled() && !result.hasError(); }
+    
+    // Returns null if the load was cancelled.
     public static Campaign loadCampaign(CampaignEditor editor, Path path)
     {
         var state = Campaign.load(path);
-        var popup = new CampaignLoader(editor, state);
+        var popup = new CampaignLoader(editor, state, true);
         popup.setVisible(true);
-        return state.getCampaign();
+        return popup.result != null && popup.result.isCancelled() ? null : state.getCampaign();
     }
     
-    public static void saveCampaign(CampaignEditor editor, Campaign campaign, Path path)
+    // Returns whether the campaign has been saved. A failed or cancelled save leaves the target as it was.
+    public static boolean saveCampaign(CampaignEditor editor, Campaign campaign, Path path)
     {
         var state = campaign.save(path);
-        var popup = new CampaignLoader(editor, state);
+        var popup = new CampaignLoader(editor, state, true);
+        popup.setVisible(true);
+        return popup.isCompleted();
+    }
+    
+    // Saves a snapshot of the campaign while the editor can still change it. The progress is shown
+    // in a dialog that does not block the editor, and onCompleted receives whether the campaign has
+    // been saved. Everything runs on the EDT but the writing of the files.
+    public static void saveCampaignInBackground(CampaignEditor editor, Campaign campaign, Path path, Consumer<Boolean> onCompleted)
+    {
+        var state = campaign.save(path, false, SwingUtilities::invokeLater);
+        var popup = new CampaignLoader(editor, state, false);
+        popup.onCompleted = onCompleted;
         popup.setVisible(true);
+        state.start();
     }
 
+    // Returns false if the import was cancelled. The levels read are not added to the episode yet.
+    public static boolean importLevels(CampaignEditor editor, LevelsImport levelsImport)
+    {
+        var popup = new CampaignLoader(editor, levelsImport.getState(), true);
+        popup.setVisible(true);
+        return popup.result != null && !popup.result.isCancelled();
+    }
+    
     /**
      * This method is called from within the constructor to initialize the form.
      * WARNING: Do NOT modify this code. The content of this method is always
@@ -95,6 +129,7 @@ public class CampaignLoader extends JDialog
 
         infoLabel = new javax.swing.JLabel();
         progressBar = new javax.swing.JProgressBar();
+        cancelButton = new javax.swing.JButton();
 
         setDefaultCloseOperation(javax.swing.WindowConstants.DO_NOTHING_ON_CLOSE);
         addWindowListener(new java.awt.event.WindowAdapter() {
@@ -105,6 +140,13 @@ public class CampaignLoader extends JDialog
 
         infoLabel.setText("jLabel1");
 
+        cancelButton.setText("Cancel");
+        cancelButton.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                cancelButtonActionPerformed(evt);
+            }
+        });
+
         javax.swing.GroupLayout layout = new javax.swing.GroupLayout(getContentPane());
         getContentPane().setLayout(layout);
         layout.setHorizontalGroup(
@@ -113,7 +155,10 @@ public class CampaignLoader extends JDialog
                 .addContainerGap()
                 .addGroup(layout.createParallelGroup(javax.swing.GroupLayout.Alignment.LEADING)
                     .addComponent(infoLabel, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE)
-                    .addComponent(progressBar, javax.swing.GroupLayout.DEFAULT_SIZE, 488, Short.MAX_VALUE))
+                    .addComponent(progressBar, javax.swing.GroupLayout.DEFAULT_SIZE, 488, Short.MAX_VALUE)
+                    .addGroup(javax.swing.GroupLayout.Alignment.TRAILING, layout.createSequentialGroup()
+                        .addGap(0, 0, Short.MAX_VALUE)
+                        .addComponent(cancelButton)))
                 .addContainerGap())
         );
         layout.setVerticalGroup(
@@ -123,6 +168,8 @@ public class CampaignLoader extends JDialog
                 .addComponent(infoLabel)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(progressBar, javax.swing.GroupLayout.PREFERRED_SIZE, 15, javax.swing.GroupLayout.PREFERRED_SIZE)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(cancelButton)
                 .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
         );
 
@@ -133,8 +180,15 @@ public class CampaignLoader extends JDialog
         state.start();
     }//GEN-LAST:event_formWindowActivated
 
+    private void cancelButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_cancelButtonActionPerformed
+        cancelButton.setEnabled(false);
+        infoLabel.setText("Cancelling...");
+        state.cancel();
+    }//GEN-LAST:event_cancelButtonActionPerformed
+
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
+    private javax.swing.JButton cancelButton;
     private javax.swing.JLabel infoLabel;
     private javax.swing.JProgressBar progressBar;
     // End of variables declaration//GEN-END:variables
@@ -36,17 +36,15 @@ public class EpisodeCard extends JPanel
             downButton.setEnabled(false);
             deleteButton.setEnabled(false);
             editButton.setEnabled(false);
-            thumbnailImage = null;
+            discardThumbnail();
             thumbnailPanel.repaint();
         }
         else
         {
-            nameField.setText(episode.getName());
-            indexField.setText(Integer.toString(episode.getIndex() + 1));
-            upButton.setEnabled(episode.getIndex() > 0);
-            downButton.setEnabled(episode.getIndex() < (episode.getCampaign().getEpisodesCount() - 1));
+            updateLabels();
             deleteButton.setEnabled(true);
             editButton.setEnabled(true);
+            discardThumbnail();
             thumbnailImage = new Thumbnail(episode.getThumbnail(), thumbnailPanel::getWidth , thumbnailPanel::getHeight,
                     thumbnailImage -> thumbnailPanel.repaint());
         }
@@ -54,6 +52,33 @@ public class EpisodeCard extends JPanel
         repaint();
     }
     
+    // Name, position and move buttons of the episode, the thumbnail already decoded is kept.
+    public void updateLabels()
+    {
+        if(episode == null)
+            return;
+        
+        nameField.setText(episode.getName());
+        indexField.setText(Integer.toString(episode.getIndex() + 1));
+        upButton.setEnabled(episode.getIndex() > 0);
+        downButton.setEnabled(episode.getIndex() < (episode.getCampaign().getEpisodesCount() - 1));
+    }
+    
+    @Override
+    public void removeNotify()
+    {
+        super.removeNotify();
+        if(thumbnailImage != null)
+            thumbnailImage.cancel();
+    }
+    
+    private void discardThumbnail()
+    {
+        if(thumbnailImage != null)
+            thumbnailImage.cancel();
+        thumbnailImage = null;
+    }
+    
     private void drawThumbnail(Graphics g)
     {
         if(thumbnailImage != null)
@@ -10,6 +10,7 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.swing.JFileChooser;
 import javax.swing.filechooser.FileFilter;
+import kp.rollingcube.ce.campaign.Campaign;
 import kp.rollingcube.ce.utils.GlobalProperties;
 import kp.rollingcube.ce.utils.IOUtils;
 import kp.rollingcube.ce.utils.PathUtils;
@@ -65,11 +66,11 @@ public final class FileChooser
                     if(Files.isDirectory(path))
                         return true;
 
-                    return path.getFileName().toString().equals("campaign.json");
+                    return path.getFileName().toString().equals("campaign.json") || Campaign.isPackPath(path);
                 }
 
                 @Override
-                public String getDescription() { return "Rollingcube Campaign (campaign.json)"; }
+                public String getDescription() { return "Rollingcube Campaign (campaign.json, *.rcpak)"; }
             });
         }
         return CAMPAIGN_LOAD_FC;
@@ -88,6 +89,7 @@ public final class FileChooser
     }
     
     private JFileChooser CAMPAIGN_SAVE_FC;
+    private FileFilter CAMPAIGN_PACK_FILTER;
     private JFileChooser campaignSaveFileChooser()
     {
         if(CAMPAIGN_SAVE_FC == null)
@@ -97,7 +99,7 @@ public final class FileChooser
             CAMPAIGN_SAVE_FC.setFileHidingEnabled(true);
             CAMPAIGN_SAVE_FC.setMultiSelectionEnabled(false);
             CAMPAIGN_SAVE_FC.setCurrentDirectory(getCurrentPath("campaign_save").toFile());
-            CAMPAIGN_SAVE_FC.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+            CAMPAIGN_SAVE_FC.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
             CAMPAIGN_SAVE_FC.setFileFilter(new FileFilter()
             {
                 @Override
@@ -111,6 +113,23 @@ public final class FileChooser
                 @Override
                 public String getDescription() { return "Rollingcube Campaign folder"; }
             });
+            
+            CAMPAIGN_PACK_FILTER = new FileFilter()
+            {
+                @Override
+                public boolean accept(File f)
+                {
+                    var path = f.toPath();
+                    try { return Files.isDirectory(path) || Campaign.isPackPath(path); }
+                    catch(Exception ex) { return false; }
+                }
+                
+                @Override
+                public String getDescription() { return "Rollingcube Campaign pack (*.rcpak)"; }
+            };
+            var folderFilter = CAMPAIGN_SAVE_FC.getFileFilter();
+            CAMPAIGN_SAVE_FC.addChoosableFileFilter(CAMPAIGN_PACK_FILTER);
+            CAMPAIGN_SAVE_FC.setFileFilter(folderFilter);
         }
         return CAMPAIGN_SAVE_FC;
     }
@@ -130,6 +149,14 @@ public final class FileChooser
                     fc.setCurrentDirectory(currentCampaignPath.toFile());
                 fc.setSelectedFile(currentCampaignPath.toFile());
             }
+            else if(Campaign.isPackPath(currentCampaignPath))
+            {
+                var pathParent = currentCampaignPath.getParent();
+                if(pathParent != null)
+                    fc.setCurrentDirectory(pathParent.toFile());
+                fc.setFileFilter(CAMPAIGN_PACK_FILTER);
+                fc.setSelectedFile(currentCampaignPath.toFile());
+            }
             else
             {
                 var pathParent = currentCampaignPath.getParent();
@@ -141,9 +168,13 @@ public final class FileChooser
         
         try
         {
-            if(fc.showSaveDialog(parent) == JFileChooser.APPROVE_OPTION)
-                return preparePath(fc.getSelectedFile());
-            return Optional.empty();
+            if(fc.showSaveDialog(parent) != JFileChooser.APPROVE_OPTION)
+                return Optional.empty();
+            
+            var path = preparePath(fc.getSelectedFile());
+            if(path.isPresent() && fc.getFileFilter() == CAMPAIGN_PACK_FILTER && !Campaign.isPackPath(path.get()))
+                path = Optional.of(PathUtils.changeExtension(path.get(), "rcpak"));
+            return path;
         }
         finally { setCurrentPath("campaign_save", fc); }
     }
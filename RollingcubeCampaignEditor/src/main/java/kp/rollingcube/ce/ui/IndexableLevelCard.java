@@ -22,6 +22,7 @@ public class IndexableLevelCard<T extends IndexedLevel> extends JPanel
     @Getter @Setter
     private T level;
     private Thumbnail thumbnail;
+    private boolean ownThumbnail;
     
     @Getter @Setter
     private EventsListener<T> listener;
@@ -31,7 +32,10 @@ public class IndexableLevelCard<T extends IndexedLevel> extends JPanel
         initComponents();
     }
     
-    public void update()
+    public void update() { updateWithThumbnail(null); }
+    
+    // Cards drawn as list cells show the thumbnail their list keeps for the level instead of loading their own.
+    public void updateWithThumbnail(Thumbnail sharedThumbnail)
     {
         if(level == null)
         {
@@ -43,47 +47,80 @@ public class IndexableLevelCard<T extends IndexedLevel> extends JPanel
             upButton.setEnabled(false);
             downButton.setEnabled(false);
             deleteButton.setEnabled(false);
-            thumbnail = null;
+            discardThumbnail();
             thumbnailPanel.repaint();
         }
         else
         {
             indexField.setText(Integer.toString(level.getIndex() + 1));
-            
-            if(level.hasFruit())
-            {
-                fruitField.setText("Yes");
-                fruitField.setForeground(Color.GREEN);
-            }
-            else
-            {
-                fruitField.setText("No");
-                fruitField.setForeground(Color.RED);
-            }
-            
-            var secretTag = level.getSecretExitLevelTag();
-            if(secretTag.isPresent())
-            {
-                secretExitField.setText(secretTag.get());
-                secretExitField.setForeground(Color.GREEN);
-            }
-            else
-            {
-                secretExitField.setText("---");
-                secretExitField.setForeground(Color.RED);
-            }
+            updateMetadataFields();
             
             upButton.setEnabled(level.getIndex() > 0);
             downButton.setEnabled(level.getIndex() < (getLevelsCount() - 1));
             deleteButton.setEnabled(true);
             
-            thumbnail = new Thumbnail(level.getThumbnail(), thumbnailPanel::getWidth , thumbnailPanel::getHeight,
-                    thumbnailImage -> thumbnailPanel.repaint());
+            discardThumbnail();
+            if(sharedThumbnail != null)
+                thumbnail = sharedThumbnail;
+            else
+            {
+                thumbnail = new Thumbnail(level.getThumbnailSource(), thumbnailPanel::getWidth , thumbnailPanel::getHeight,
+                        thumbnailImage -> thumbnailPanel.repaint());
+                ownThumbnail = true;
+            }
         }
         
         repaint();
     }
     
+    // Until the level has been scanned in the background both fields show it is pending, the card is
+    // painted again once the scan is done.
+    private void updateMetadataFields()
+    {
+        if(!level.hasMetadata())
+        {
+            fruitField.setText("...");
+            fruitField.setForeground(Color.GRAY);
+            secretExitField.setText("...");
+            secretExitField.setForeground(Color.GRAY);
+            secretExitField.setToolTipText(null);
+            level.getEpisode().getCampaign().warmUpMetadata(level);
+            return;
+        }
+        
+        if(level.hasFruit())
+        {
+            fruitField.setText("Yes");
+            fruitField.setForeground(Color.GREEN);
+        }
+        else
+        {
+            fruitField.setText("No");
+            fruitField.setForeground(Color.RED);
+        }
+        
+        // Exits to a secret level the episode does not have are flagged from its index of secret links.
+        var secretTag = level.getSecretExitLevelTag();
+        if(secretTag.isPresent() && level.getEpisode().getSecretLinks().isBrokenExit(level))
+        {
+            secretExitField.setText(secretTag.get());
+            secretExitField.setForeground(Color.ORANGE);
+            secretExitField.setToolTipText(String.format("The episode has no \"%s\" secret level", secretTag.get()));
+        }
+        else if(secretTag.isPresent())
+        {
+            secretExitField.setText(secretTag.get());
+            secretExitField.setForeground(Color.GREEN);
+            secretExitField.setToolTipText(null);
+        }
+        else
+        {
+            secretExitField.setText("---");
+            secretExitField.setForeground(Color.RED);
+            secretExitField.setToolTipText(null);
+        }
+    }
+    
     private int getLevelsCount()
     {
         var episode = level.getEpisode();
@@ -95,6 +132,26 @@ public class IndexableLevelCard<T extends IndexedLevel> extends JPanel
         }
     }
     
+    // Cards dropped by a rebuild of their panel stop waiting for their thumbnail.
+    @Override
+    public void removeNotify()
+    {
+        super.removeNotify();
+        if(thumbnail != null && ownThumbnail)
+            thumbnail.cancel();
+    }
+    
+    public int getThumbnailWidth() { return thumbnailPanel.getWidth(); }
+    public int getThumbnailHeight() { return thumbnailPanel.getHeight(); }
+    
+    private void discardThumbnail()
+    {
+        if(thumbnail != null && ownThumbnail)
+            thumbnail.cancel();
+        thumbnail = null;
+        ownThumbnail = false;
+    }
+    
     private void drawThumbnail(Graphics g)
     {
         if(thumbnail != null)
@@ -153,8 +210,18 @@ public class IndexableLevelCard<T extends IndexedLevel> extends JPanel
         indexField.setFocusable(false);
 
         downButton.setText("Down");
+        downButton.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                downButtonActionPerformed(evt);
+            }
+        });
 
         upButton.setText("Up");
+        upButton.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                upButtonActionPerformed(evt);
+            }
+        });
 
         fruitField.setText("No");
 
@@ -165,6 +232,11 @@ public class IndexableLevelCard<T extends IndexedLevel> extends JPanel
         jLabel5.setText("Secret exit:");
 
         deleteButton.setText("Delete");
+        deleteButton.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                deleteButtonActionPerformed(evt);
+            }
+        });
 
         javax.swing.GroupLayout layout = new javax.swing.GroupLayout(this);
         this.setLayout(layout);
@@ -224,6 +296,21 @@ public class IndexableLevelCard<T extends IndexedLevel> extends JPanel
         );
     }// </editor-fold>//GEN-END:initComponents
 
+    private void downButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_downButtonActionPerformed
+        if(listener != null)
+            listener.onDown(level);
+    }//GEN-LAST:event_downButtonActionPerformed
+
+    private void upButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_upButtonActionPerformed
+        if(listener != null)
+            listener.onUp(level);
+    }//GEN-LAST:event_upButtonActionPerformed
+
+    private void deleteButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_deleteButtonActionPerformed
+        if(listener != null)
+            listener.onDelete(level);
+    }//GEN-LAST:event_deleteButtonActionPerformed
+
 
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JButton deleteButton;
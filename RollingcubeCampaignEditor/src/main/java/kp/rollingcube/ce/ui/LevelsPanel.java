@@ -4,19 +4,40 @@
  */
 package kp.rollingcube.ce.ui;
 
-import java.awt.GridBagConstraints;
-import java.awt.GridBagLayout;
+import java.awt.Point;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import javax.swing.AbstractListModel;
+import javax.swing.JComponent;
+import javax.swing.JList;
 import javax.swing.JPanel;
-import kp.rollingcube.ce.campaign.BonusLevel;
+import javax.swing.SwingUtilities;
 import kp.rollingcube.ce.campaign.Episode;
+import kp.rollingcube.ce.campaign.IndexedLevel;
+import kp.rollingcube.ce.campaign.Level;
 import kp.rollingcube.ce.campaign.LevelType;
-import kp.rollingcube.ce.campaign.NormalLevel;
-import kp.rollingcube.ce.utils.Counter;
+import kp.rollingcube.ce.campaign.SecretLevel;
+import kp.rollingcube.ce.utils.Thumbnail;
+import kp.rollingcube.ce.utils.UIUtils;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.Setter;
 
 /**
+ * Levels of one type of an episode, shown as cards in two columns.
+ *
+ * The cards are the cells of a list: a single card is configured and painted for each visible
+ * cell, and the clicks on a cell are forwarded to the buttons of that card. Only the thumbnails
+ * of the visible cells are kept, so the cost of the panel follows the size of its viewport
+ * rather than the number of levels. Changes of the levels are applied to the list one by one,
+ * so the cells that did not change keep their thumbnails.
  *
  * @author Marc
  */
@@ -24,7 +45,11 @@ public class LevelsPanel extends JPanel
 {
     private final @NonNull CampaignEditor editor;
     private final @NonNull LevelType levelType;
-    private final JPanel levelsPanel = new JPanel();
+    private final LevelsModel levelsModel = new LevelsModel();
+    private final JList<Level> levelsList = new JList<>(levelsModel);
+    private final IndexableLevelCard<IndexedLevel> indexedCard = new IndexableLevelCard<>();
+    private final SecretLevelCard secretCard = new SecretLevelCard();
+    private final HashMap<Level, Thumbnail> thumbnails = new HashMap<>();
     
     @Getter @Setter
     private Episode episode;
@@ -35,223 +60,259 @@ public class LevelsPanel extends JPanel
         this.levelType = levelType;
         initComponents();
         
-        var layout = new GridBagLayout();
-        levelsPanel.setLayout(layout);
+        indexedCard.setListener(new IndexableLevelCard.EventsListener<>()
+        {
+            @Override public void onDelete(IndexedLevel level) { deleteIndexedLevel(level); }
+            @Override public void onUp(IndexedLevel level) { moveIndexedLevel(level, -1); }
+            @Override public void onDown(IndexedLevel level) { moveIndexedLevel(level, 1); }
+        });
+        secretCard.setListener(this::deleteSecretLevel);
+        
+        levelsList.setLayoutOrientation(JList.HORIZONTAL_WRAP);
+        levelsList.setVisibleRowCount(-1);
+        levelsList.setFocusable(false);
+        // With both cell sizes fixed, the list never measures its cells one by one.
+        levelsList.setFixedCellWidth(getCard().getPreferredSize().width);
+        levelsList.setFixedCellHeight(getCard().getPreferredSize().height);
+        levelsList.setCellRenderer((list, level, index, selected, focused) -> renderCard(level));
+        levelsList.addMouseListener(new MouseAdapter()
+        {
+            @Override
+            public void mouseClicked(MouseEvent evt)
+            {
+                if(SwingUtilities.isLeftMouseButton(evt))
+                    clickCard(evt.getPoint());
+            }
+        });
+        
+        var viewport = levelsScrollPanel.getViewport();
+        viewport.addComponentListener(new ComponentAdapter()
+        {
+            @Override
+            public void componentResized(ComponentEvent evt) { levelsList.setFixedCellWidth(Math.max(1, viewport.getWidth() / 2)); }
+        });
+        viewport.addChangeListener(evt -> discardHiddenThumbnails());
         levelsScrollPanel.getVerticalScrollBar().setUnitIncrement(30);
     }
     
     public void update()
     {
-        levelsPanel.removeAll();
+        newLevelButton.setEnabled(episode != null);
+        levelsModel.reload();
+        discardHiddenThumbnails();
+    }
+    
+    void levelAdded(Level level)
+    {
+        if(shows(level))
+            levelsModel.added(level);
+    }
+    
+    void levelsAdded(List<? extends IndexedLevel> levels)
+    {
+        if(!levels.isEmpty() && shows(levels.get(0)))
+            levelsModel.inserted(levels.get(0).getIndex(), levels.size());
+    }
+    
+    void levelRemoved(Level level, int formerIndex)
+    {
+        if(!shows(level))
+            return;
         
-        if(episode == null)
-        {
-            newLevelButton.setEnabled(false);
-            levelsPanel.updateUI();
+        levelsModel.removed(level, formerIndex);
+        var thumbnail = thumbnails.remove(level);
+        if(thumbnail != null)
+            thumbnail.cancel();
+    }
+    
+    void levelsRemoved(List<? extends IndexedLevel> levels, int[] formerIndices)
+    {
+        if(levels.isEmpty() || !shows(levels.get(0)))
             return;
-        }
         
+        levelsModel.removed(formerIndices);
+        for(var level : levels)
+        {
+            var thumbnail = thumbnails.remove(level);
+            if(thumbnail != null)
+                thumbnail.cancel();
+        }
+    }
+    
+    void levelsReordered(Episode episode, LevelType type, int fromIndex, int toIndex)
+    {
+        if(this.episode != null && episode == this.episode && type == levelType)
+            levelsModel.reordered(fromIndex, toIndex);
+    }
+    
+    // Both levels keep their thumbnails, only their two cells are painted again.
+    void levelsSwapped(IndexedLevel first, IndexedLevel second)
+    {
+        if(shows(first))
+            levelsModel.swapped(first.getIndex(), second.getIndex());
+    }
+    
+    void levelChanged(Level level)
+    {
+        if(shows(level))
+            levelsModel.changed(level);
+    }
+    
+    // Cells are rendered from the episode, painting them again shows the secret links as they are now.
+    void secretLinksChanged(Episode episode)
+    {
+        if(this.episode != null && episode == this.episode)
+            levelsList.repaint();
+    }
+    
+    void levelRenamed(SecretLevel level, String formerName)
+    {
+        if(shows(level))
+            levelsModel.renamed(level, formerName);
+    }
+    
+    private boolean shows(Level level) { return episode != null && level.getEpisode() == episode && level.getType() == levelType; }
+    
+    private JComponent getCard() { return levelType == LevelType.SECRET ? secretCard : indexedCard; }
+    
+    private JComponent renderCard(Level level)
+    {
         if(levelType == LevelType.SECRET)
-            updateSecretLevels();
-        else
-            updateIndexedLevels();
+        {
+            secretCard.setLevel(level.asSecret());
+            secretCard.updateWithThumbnail(getThumbnail(level));
+            return secretCard;
+        }
         
-        newLevelButton.setEnabled(true);
-        levelsPanel.updateUI();
+        indexedCard.setLevel((IndexedLevel) level);
+        indexedCard.updateWithThumbnail(getThumbnail(level));
+        return indexedCard;
     }
     
-    private void updateIndexedLevels()
+    private Thumbnail getThumbnail(Level level)
     {
-        boolean isBonus = levelType == LevelType.BONUS;
-        int len = isBonus ? episode.getBonusLevelsCount() : episode.getNormalLevelsCount();
-        
-        int index;
-        for(index = 0; index < len; index++)
+        var thumbnail = thumbnails.get(level);
+        if(thumbnail == null)
         {
-            if(!isBonus)
-            {
-                var level = episode.getNormalLevel(index);
-                var levelPanel = new IndexableLevelCard<NormalLevel>();
-                levelPanel.setListener(new IndexableLevelCard.EventsListener<>()
-                {
-                    @Override
-                    public void onDelete(NormalLevel level)
-                    {
-                        if(!Notify.ask(
-                                editor,
-                                "Delete Normal Level",
-                                String.format("Are you sure you want to delete the %s normal level?",
-                                        level.getIndex() + 1)
-                        )) return;
-                        
-                        try { episode.removeNormalLevel(level.getIndex()); editor.notifyChanges(); }
-                        catch(IllegalArgumentException ex) { eventError("deleting", ex); }
-                        finally { update(); }
-                    }
-
-                    @Override
-                    public void onUp(NormalLevel level)
-                    {
-                        int index = level.getIndex();
-                        if(index <= 0)
-                            return;
-                        
-                        try { episode.swapNormalLevels(index, index - 1); editor.notifyChanges(); }
-                        catch(IllegalArgumentException ex) { eventError("moving up", ex); }
-                        finally { update(); }
-                    }
-
-                    @Override
-                    public void onDown(NormalLevel level)
-                    {
-                        int index = level.getIndex();
-                        if(index >= episode.getNormalLevelsCount() - 1)
-                            return;
-                        
-                        try { episode.swapNormalLevels(index, index + 1); editor.notifyChanges(); }
-                        catch(IllegalArgumentException ex) { eventError("moving down", ex); }
-                        finally { update(); }
-                    }
-                });
-                levelPanel.setLevel(level);
-                levelPanel.update();
-                levelsPanel.add(levelPanel, prepareConstraints(level.getIndex()));
-            }
+            if(levelType == LevelType.SECRET)
+                thumbnail = new Thumbnail(level.getThumbnailSource(), secretCard::getThumbnailWidth, secretCard::getThumbnailHeight,
+                        thumbnailImage -> levelsList.repaint());
             else
+                thumbnail = new Thumbnail(level.getThumbnailSource(), indexedCard::getThumbnailWidth, indexedCard::getThumbnailHeight,
+                        thumbnailImage -> levelsList.repaint());
+            thumbnails.put(level, thumbnail);
+        }
+        return thumbnail;
+    }
+    
+    // Levels scrolled out of view stop waiting for their thumbnail. Scrolling back finds it in the ThumbnailCache.
+    private void discardHiddenThumbnails()
+    {
+        if(thumbnails.isEmpty())
+            return;
+        
+        var visible = new HashSet<Level>();
+        int first = levelsList.getFirstVisibleIndex();
+        int last = levelsList.getLastVisibleIndex();
+        for(int i = Math.max(0, first); first >= 0 && i <= last && i < levelsModel.getSize(); i++)
+            visible.add(levelsModel.getElementAt(i));
+        
+        var it = thumbnails.entrySet().iterator();
+        while(it.hasNext())
+        {
+            var entry = it.next();
+            if(!visible.contains(entry.getKey()))
             {
-                var level = episode.getBonusLevel(index);
-                var levelPanel = new IndexableLevelCard<BonusLevel>();
-                levelPanel.setListener(new IndexableLevelCard.EventsListener<>()
-                {
-                    @Override
-                    public void onDelete(BonusLevel level)
-                    {
-                        if(!Notify.ask(
-                                editor,
-                                "Delete Bonus Level",
-                                String.format("Are you sure you want to delete the %s bonus level?",
-                                        level.getIndex() + 1)
-                        )) return;
-                        
-                        try { episode.removeBonusLevel(level.getIndex()); editor.notifyChanges(); }
-                        catch(IllegalArgumentException ex) { eventError("deleting", ex); }
-                        finally { update(); }
-                    }
-
-                    @Override
-                    public void onUp(BonusLevel level)
-                    {
-                        int index = level.getIndex();
-                        if(index <= 0)
-                            return;
-                        
-                        try { episode.swapBonusLevels(index, index - 1); editor.notifyChanges(); }
-                        catch(IllegalArgumentException ex) { eventError("moving up", ex); }
-                        finally { update(); }
-                    }
-
-                    @Override
-                    public void onDown(BonusLevel level)
-                    {
-                        int index = level.getIndex();
-                        if(index >= episode.getNormalLevelsCount() - 1)
-                            return;
-                        
-                        try { episode.swapBonusLevels(index, index + 1); editor.notifyChanges(); }
-                        catch(IllegalArgumentException ex) { eventError("moving down", ex); }
-                        finally { update(); }
-                    }
-                });
-                levelPanel.setLevel(level);
-                levelPanel.update();
-                levelsPanel.add(levelPanel, prepareConstraints(level.getIndex()));
+                entry.getValue().cancel();
+                it.remove();
             }
         }
-        
-        levelsPanel.add(new JPanel(), prepareGhostConstraints(index));
-        levelsPanel.add(new JPanel(), prepareGhostConstraints(index + 1));
     }
     
-    private void updateSecretLevels()
+    private void clickCard(Point point)
     {
-        var index = new Counter();
-        episode.getSecretLevelsNames().stream().sorted().forEach(levelName -> {
-            var level = episode.getSecretLevel(levelName);
-            var levelPanel = new SecretLevelCard();
-            levelPanel.setListener(lv -> {
-                if(!Notify.ask(
-                        editor,
-                        "Delete Secret Level",
-                        String.format("Are you sure you want to delete the \"%s\" secret level?",
-                                lv.getName())
-                )) return;
-
-                try { episode.removeSecretLevel(lv.getName()); editor.notifyChanges(); }
-                catch(IllegalArgumentException ex) { eventError("deleting", ex); }
-                finally { update(); }
-            });
-            levelPanel.setLevel(level);
-            levelPanel.update();
-            levelsPanel.add(levelPanel, prepareConstraints(index.getValue()));
-            index.increase();
-        });
+        int index = levelsList.locationToIndex(point);
+        var bounds = index < 0 ? null : levelsList.getCellBounds(index, index);
+        if(bounds == null || !bounds.contains(point))
+            return;
         
-        levelsPanel.add(new JPanel(), prepareGhostConstraints(index.getValue()));
-        levelsPanel.add(new JPanel(), prepareGhostConstraints(index.getValue() + 1));
+        var card = renderCard(levelsModel.getElementAt(index));
+        card.setBounds(0, 0, bounds.width, bounds.height);
+        card.validate();
+        UIUtils.clickButtonAt(card, point.x - bounds.x, point.y - bounds.y);
     }
     
-    private void loadLevels()
+    private void deleteIndexedLevel(IndexedLevel level)
     {
-        if(episode == null)
-            return;
+        boolean isBonus = levelType == LevelType.BONUS;
+        if(!Notify.ask(
+                editor,
+                isBonus ? "Delete Bonus Level" : "Delete Normal Level",
+                String.format("Are you sure you want to delete the %s %s level?",
+                        level.getIndex() + 1, isBonus ? "bonus" : "normal")
+        )) return;
         
-        var paths = FileChooser.openLevelsFileChooser(editor);
-        if(paths.isEmpty())
+        try
+        {
+            if(isBonus)
+                episode.removeBonusLevel(level.getIndex());
+            else
+                episode.removeNormalLevel(level.getIndex());
+            editor.notifyChanges();
+        }
+        catch(IllegalArgumentException ex) { eventError("deleting", ex); }
+    }
+    
+    private void moveIndexedLevel(IndexedLevel level, int offset)
+    {
+        int index = level.getIndex();
+        int target = index + offset;
+        if(target < 0 || target >= levelsModel.getSize())
             return;
         
-        for(var path : paths)
+        try
         {
-            try
-            {
-                switch(levelType)
-                {
-                    case NORMAL: episode.addNormalLevel(path); break;
-                    case BONUS: episode.addBonusLevel(path); break;
-                    //case SECRET: episode.addNormalLevel(path); break;
-                }
-            }
-            catch(Exception ex)
-            {
-                Notify.ferror(
-                        editor,
-                        null,
-                        "An error occurred while loading level \"%s\": %s",
-                        path,
-                        ex.getLocalizedMessage()
-                );
-            }
+            if(levelType == LevelType.BONUS)
+                episode.swapBonusLevels(index, target);
+            else
+                episode.swapNormalLevels(index, target);
+            editor.notifyChanges();
         }
-        update();
-        editor.notifyChanges();
+        catch(IllegalArgumentException ex) { eventError(offset < 0 ? "moving up" : "moving down", ex); }
     }
     
-    private GridBagConstraints prepareConstraints(int index)
+    private void deleteSecretLevel(SecretLevel level)
     {
-        var ct = new GridBagConstraints();
-        ct.fill = GridBagConstraints.HORIZONTAL;
-        ct.anchor = GridBagConstraints.NORTHWEST;
-        ct.weightx = 1;
-        ct.weighty = 1;
-        ct.gridx = index % 2;
-        ct.gridy = index / 2;
-        return ct;
+        if(!Notify.ask(
+                editor,
+                "Delete Secret Level",
+                String.format("Are you sure you want to delete the \"%s\" secret level?",
+                        level.getName())
+        )) return;
+        
+        try { episode.removeSecretLevel(level.getName()); editor.notifyChanges(); }
+        catch(IllegalArgumentException ex) { eventError("deleting", ex); }
     }
     
-    private GridBagConstraints prepareGhostConstraints(int lastIndex)
+    private void loadLevels()
     {
-        var ct = prepareConstraints(lastIndex);
-        ct.weighty = 100;
-        return ct;
+        if(episode == null)
+            return;
+        
+        var paths = FileChooser.openLevelsFileChooser(editor);
+        if(paths.isEmpty())
+            return;
+        
+        if(levelType == LevelType.SECRET)
+            return;
+        
+        // The files are read off the EDT while the dialog shows the progress, then added all at once.
+        var levelsImport = episode.importLevels(levelType, paths);
+        if(!CampaignLoader.importLevels(editor, levelsImport))
+            return;
+        
+        if(levelsImport.commit() > 0)
+            editor.notifyChanges();
     }
     
     private void eventError(String action, String message)
@@ -269,6 +330,142 @@ public class LevelsPanel extends JPanel
         eventError(action, ex.getLocalizedMessage());
     }
 
+    
+    // The levels of the panel, read from the episode. Secret levels are listed by name.
+    private final class LevelsModel extends AbstractListModel<Level>
+    {
+        private static final long serialVersionUID = 1L;
+        
+        private final ArrayList<String> secretNames = new ArrayList<>();
+        private int size;
+        
+        @Override
+        public int getSize() { return size; }
+        
+        @Override
+        public Level getElementAt(int index)
+        {
+            switch(levelType)
+            {
+                case NORMAL: return episode.getNormalLevel(index);
+                case BONUS: return episode.getBonusLevel(index);
+                default: return episode.getSecretLevel(secretNames.get(index));
+            }
+        }
+        
+        private void reload()
+        {
+            int previousSize = size;
+            secretNames.clear();
+            if(episode == null)
+                size = 0;
+            else
+            {
+                switch(levelType)
+                {
+                    case NORMAL: size = episode.getNormalLevelsCount(); break;
+                    case BONUS: size = episode.getBonusLevelsCount(); break;
+                    default:
+                        secretNames.addAll(episode.getSecretLevelsNames());
+                        secretNames.sort(null);
+                        size = secretNames.size();
+                        break;
+                }
+            }
+            
+            if(size < previousSize)
+                fireIntervalRemoved(this, size, previousSize - 1);
+            else if(size > previousSize)
+                fireIntervalAdded(this, previousSize, size - 1);
+            if(Math.min(size, previousSize) > 0)
+                fireContentsChanged(this, 0, Math.min(size, previousSize) - 1);
+        }
+        
+        private void added(Level level)
+        {
+            int index;
+            if(level.isSecret())
+            {
+                index = -Collections.binarySearch(secretNames, level.asSecret().getName()) - 1;
+                if(index < 0)
+                    return;
+                secretNames.add(index, level.asSecret().getName());
+            }
+            else
+                index = ((IndexedLevel) level).getIndex();
+            
+            size++;
+            fireIntervalAdded(this, index, index);
+        }
+        
+        private void inserted(int index, int count)
+        {
+            size += count;
+            fireIntervalAdded(this, index, index + count - 1);
+        }
+        
+        // One event for each run of consecutive indices, from the last run so the indices still hold.
+        private void removed(int[] sortedIndices)
+        {
+            int last = sortedIndices.length - 1;
+            while(last >= 0)
+            {
+                int first = last;
+                while(first > 0 && sortedIndices[first - 1] == sortedIndices[first] - 1)
+                    first--;
+                
+                size -= last - first + 1;
+                fireIntervalRemoved(this, sortedIndices[first], sortedIndices[last]);
+                last = first - 1;
+            }
+        }
+        
+        private void reordered(int fromIndex, int toIndex) { fireContentsChanged(this, fromIndex, toIndex); }
+        
+        private void removed(Level level, int formerIndex)
+        {
+            if(level.isSecret())
+                removed(level.asSecret().getName());
+            else if(formerIndex >= 0 && formerIndex < size)
+            {
+                size--;
+                fireIntervalRemoved(this, formerIndex, formerIndex);
+            }
+        }
+        
+        private void removed(String secretName)
+        {
+            int index = Collections.binarySearch(secretNames, secretName);
+            if(index < 0)
+                return;
+            
+            secretNames.remove(index);
+            size--;
+            fireIntervalRemoved(this, index, index);
+        }
+        
+        private void swapped(int first, int second)
+        {
+            fireContentsChanged(this, first, first);
+            fireContentsChanged(this, second, second);
+        }
+        
+        private void changed(Level level)
+        {
+            int index = level.isSecret()
+                    ? Collections.binarySearch(secretNames, level.asSecret().getName())
+                    : ((IndexedLevel) level).getIndex();
+            if(index >= 0 && index < size && getElementAt(index) == level)
+                fireContentsChanged(this, index, index);
+        }
+        
+        private void renamed(SecretLevel level, String formerName)
+        {
+            removed(formerName);
+            added(level);
+        }
+    }
+    
     /**
      * This method is called from within the constructor to initialize the form.
      * WARNING: Do NOT modify this code. The content of this method is always
@@ -280,7 +477,7 @@ public class LevelsPanel extends JPanel
 
         newLevelButton = new javax.swing.JButton();
         jPanel1 = new javax.swing.JPanel();
-        levelsScrollPanel = new javax.swing.JScrollPane(levelsPanel);
+        levelsScrollPanel = new javax.swing.JScrollPane(levelsList);
 
         newLevelButton.setText("Add Level");
         newLevelButton.addActionListener(new java.awt.event.ActionListener() {
@@ -1,5 +1,6 @@
 package kp.rollingcube.ce.ui;
 
+import java.awt.Color;
 import java.awt.Graphics;
 import javax.swing.JPanel;
 import kp.rollingcube.ce.campaign.SecretLevel;
@@ -16,6 +17,8 @@ public class SecretLevelCard extends JPanel
     @Getter @Setter
     private SecretLevel level;
     private Thumbnail thumbnail;
+    private boolean ownThumbnail;
+    private final Color nameForeground;
     
     //private final StringTextFieldManager aliasHandler;
     
@@ -25,37 +28,85 @@ public class SecretLevelCard extends JPanel
     public SecretLevelCard()
     {
         initComponents();
+        nameForeground = nameField.getForeground();
         aliasLabel.setVisible(false);
         aliasField.setVisible(false);
         
         //aliasHandler = new StringTextFieldManager(aliasField, this::setLevelAlias, this::getLevelAlias);
     }
     
-    public void update()
+    public void update() { updateWithThumbnail(null); }
+    
+    // Cards drawn as list cells show the thumbnail their list keeps for the level instead of loading their own.
+    public void updateWithThumbnail(Thumbnail sharedThumbnail)
     {
         if(level == null)
         {
             nameField.setText("");
+            updateOrphanMark();
             oneTryBox.setSelected(false);
             penaltyBox.setSelected(false);
             //aliasHandler.bind();
-            thumbnail = null;
+            discardThumbnail();
             thumbnailPanel.repaint();
         }
         else
         {
             nameField.setText(level.getName());
+            updateOrphanMark();
             oneTryBox.setSelected(level.isOneTry());
             penaltyBox.setSelected(level.isPenalty());
             //aliasHandler.bind();
             
-            thumbnail = new Thumbnail(level.getThumbnail(), thumbnailPanel::getWidth , thumbnailPanel::getHeight,
-                    thumbnailImage -> thumbnailPanel.repaint());
+            discardThumbnail();
+            if(sharedThumbnail != null)
+                thumbnail = sharedThumbnail;
+            else
+            {
+                thumbnail = new Thumbnail(level.getThumbnailSource(), thumbnailPanel::getWidth , thumbnailPanel::getHeight,
+                        thumbnailImage -> thumbnailPanel.repaint());
+                ownThumbnail = true;
+            }
         }
         
         repaint();
     }
     
+    // Secret levels no level of the episode exits to are flagged once every level has been scanned.
+    private void updateOrphanMark()
+    {
+        var links = level == null ? null : level.getEpisode().getSecretLinks();
+        if(links != null && links.isComplete() && links.isOrphan(level))
+        {
+            nameField.setForeground(Color.ORANGE);
+            nameField.setToolTipText("No level of the episode exits to this secret level");
+        }
+        else
+        {
+            nameField.setForeground(nameForeground);
+            nameField.setToolTipText(null);
+        }
+    }
+    
+    @Override
+    public void removeNotify()
+    {
+        super.removeNotify();
+        if(thumbnail != null && ownThumbnail)
+            thumbnail.cancel();
+    }
+    
+    public int getThumbnailWidth() { return thumbnailPanel.getWidth(); }
+    public int getThumbnailHeight() { return thumbnailPanel.getHeight(); }
+    
+    private void discardThumbnail()
+    {
+        if(thumbnail != null && ownThumbnail)
+            thumbnail.cancel();
+        thumbnail = null;
+        ownThumbnail = false;
+    }
+    
     private void drawThumbnail(Graphics g)
     {
         if(thumbnail != null)
@@ -0,0 +1,47 @@
+package kp.rollingcube.ce.utils;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import lombok.NonNull;
+
+/**
+ * Immutable list made of immutable chunks of CHUNK_SIZE elements, only the last one may be
+ * shorter. Lists built from the same chunks share them, so a list that differs from another in a
+ * few elements only needs new chunks for those.
+ *
+ * @author Marc
+ */
+public final class ChunkedList<E> extends AbstractList<E> implements RandomAccess
+{
+    public static final int CHUNK_SIZE = 64;
+    
+    private final List<List<E>> chunks;
+    private final int size;
+    
+    public ChunkedList(@NonNull List<List<E>> chunks) throws IllegalArgumentException
+    {
+        this.chunks = List.copyOf(chunks);
+        
+        int count = 0;
+        for(int i = 0; i < this.chunks.size(); i++)
+        {
+            int chunkSize = this.chunks.get(i).size();
+            if(chunkSize > CHUNK_SIZE || (chunkSize < CHUNK_SIZE && i < this.chunks.size() - 1))
+                throw new IllegalArgumentException("Only the last chunk may be shorter than CHUNK_SIZE");
+            count += chunkSize;
+        }
+        size = count;
+    }
+    
+    // The chunk of the element at index.
+    public static int chunkOf(int index) { return index / CHUNK_SIZE; }
+    
+    public static int chunksFor(int size) { return (size + CHUNK_SIZE - 1) / CHUNK_SIZE; }
+    
+    @Override
+    public E get(int index) { return chunks.get(chunkOf(index)).get(index % CHUNK_SIZE); }
+    
+    @Override
+    public int size() { return size; }
+}
@@ -1,8 +1,15 @@
 package kp.rollingcube.ce.utils;
 
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import lombok.experimental.UtilityClass;
 
 /**
@@ -26,6 +33,79 @@ public final class DirectoryUtils
         return false;
     }
     
+    public void deleteRecursively(Path path) throws IOException
+    {
+        if(!Files.exists(path, LinkOption.NOFOLLOW_LINKS))
+            return;
+        
+        Files.walkFileTree(path, new SimpleFileVisitor<>()
+        {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+            {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+            
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException
+            {
+                if(exc != null)
+                    throw exc;
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+    
+    // Renames source to target in one step, replacing target if it is an empty folder. Where the
+    // filesystem cannot rename the folder, its contents are moved over one entry at a time.
+    public void moveInto(Path source, Path target) throws IOException
+    {
+        if(Files.isDirectory(target) && isEmpty(target))
+            Files.delete(target);
+        
+        try
+        {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+            return;
+        }
+        catch(AtomicMoveNotSupportedException ex) {}
+        
+        try
+        {
+            Files.move(source, target);
+            return;
+        }
+        catch(DirectoryNotEmptyException ex) {}
+        
+        Files.walkFileTree(source, new SimpleFileVisitor<>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException
+            {
+                Files.createDirectories(target.resolve(source.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+            
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+            {
+                Files.move(file, target.resolve(source.relativize(file)), StandardCopyOption.REPLACE_EXISTING);
+                return FileVisitResult.CONTINUE;
+            }
+            
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException
+            {
+                if(exc != null)
+                    throw exc;
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+    
     public boolean isEmptyOrHasFile(Path path, String filename) throws IOException
     {
         if(Files.isDirectory(path))
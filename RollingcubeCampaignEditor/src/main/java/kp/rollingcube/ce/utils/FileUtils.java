@@ -1,9 +1,12 @@
 package kp.rollingcube.ce.utils;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import lombok.NonNull;
 import lombok.experimental.UtilityClass;
 
@@ -14,31 +17,64 @@ import lombok.experimental.UtilityClass;
 @UtilityClass
 public final class FileUtils
 {
+    // Exchanges the files with three renames through a temporary name next to f1. Their contents are not copied.
     public void swap(Path f1, Path f2) throws IOException
     {
         if(Files.isRegularFile(f1))
         {
             if(Files.isRegularFile(f2))
             {
-                var temp = Files.createTempFile(null, null);
-                Files.copy(f1, temp, StandardCopyOption.REPLACE_EXISTING);
-                Files.copy(f2, f1, StandardCopyOption.REPLACE_EXISTING);
-                Files.copy(temp, f2, StandardCopyOption.REPLACE_EXISTING);
-                Files.deleteIfExists(temp);
+                var temp = f1.resolveSibling(f1.getFileName() + ".swapping");
+                rename(f1, temp);
+                rename(f2, f1);
+                rename(temp, f2);
             }
             else
-            {
-                Files.copy(f1, f2, StandardCopyOption.REPLACE_EXISTING);
-                Files.deleteIfExists(f1);
-            }
+                rename(f1, f2);
         }
         else if(Files.isRegularFile(f2))
+            rename(f2, f1);
+    }
+    
+    // Moves source to target, replacing it, atomically when the file system allows it.
+    public void rename(@NonNull Path source, @NonNull Path target) throws IOException
+    {
+        try { Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE); }
+        catch(AtomicMoveNotSupportedException ex) { Files.move(source, target, StandardCopyOption.REPLACE_EXISTING); }
+    }
+    
+    // Copies channel to channel, letting the kernel move the bytes without passing them through the heap.
+    // An existing target is replaced by a new file rather than truncated, so files linked to it are kept.
+    public void transfer(@NonNull Path source, @NonNull Path target) throws IOException
+    {
+        if(Files.exists(target))
+        {
+            if(Files.isSameFile(source, target))
+                return;
+            Files.delete(target);
+        }
+        
+        try(var in = FileChannel.open(source, StandardOpenOption.READ);
+            var out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW))
         {
-            Files.copy(f2, f1, StandardCopyOption.REPLACE_EXISTING);
-            Files.deleteIfExists(f2);
+            long size = in.size();
+            long position = 0;
+            while(position < size)
+                position += in.transferTo(position, size - position, out);
         }
     }
     
+    // Hard links target to source, falling back to a copy where the filesystem does not allow it.
+    public void linkOrTransfer(@NonNull Path source, @NonNull Path target) throws IOException
+    {
+        if(Files.exists(target) && Files.isSameFile(source, target))
+            return;
+        
+        Files.deleteIfExists(target);
+        try { Files.createLink(target, source); }
+        catch(UnsupportedOperationException | IOException ex) { transfer(source, target); }
+    }
+    
     public boolean isDirectoryEmpty(@NonNull Path path) throws IOException
     {
         if(Files.isDirectory(path))
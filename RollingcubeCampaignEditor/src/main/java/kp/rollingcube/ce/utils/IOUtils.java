@@ -1,6 +1,7 @@
 package kp.rollingcube.ce.utils;
 
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -12,6 +13,8 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import javax.imageio.ImageIO;
 import lombok.NonNull;
 import lombok.experimental.UtilityClass;
@@ -77,6 +80,72 @@ public final class IOUtils
         }
     }
     
+    public BufferedImage readImage(@NonNull Path filePath, int width, int height) throws IOException
+    {
+        try(var is = Files.newInputStream(filePath))
+        {
+            return readImage(is, width, height);
+        }
+    }
+    
+    public BufferedImage readImage(@NonNull byte[] data, int width, int height) throws IOException
+    {
+        return readImage(new ByteArrayInputStream(data), width, height);
+    }
+    
+    // Decodes one pixel out of every n in each direction, with the largest n that keeps the image
+    // at least width x height, which saves most of the decode time and memory of large images.
+    // The result still has to be scaled down to the exact size.
+    public BufferedImage readImage(@NonNull InputStream is, int width, int height) throws IOException
+    {
+        try(var input = ImageIO.createImageInputStream(is))
+        {
+            var readers = input == null ? null : ImageIO.getImageReaders(input);
+            if(readers == null || !readers.hasNext())
+                return null;
+            
+            var reader = readers.next();
+            try
+            {
+                reader.setInput(input, true, true);
+                var param = reader.getDefaultReadParam();
+                if(width > 0 && height > 0)
+                {
+                    int step = Math.min(reader.getWidth(0) / width, reader.getHeight(0) / height);
+                    if(step > 1)
+                        param.setSourceSubsampling(step, step, 0, 0);
+                }
+                return reader.read(0, param);
+            }
+            finally { reader.dispose(); }
+        }
+    }
+    
+    // SHA-256 of data in hexadecimal, the address of a payload in the content addressed caches.
+    public @NonNull String contentHash(@NonNull byte[] data)
+    {
+        var digest = contentDigest();
+        digest.update(data);
+        return contentHash(digest);
+    }
+    
+    // Digest of contentHash, for content fed to it in parts.
+    public @NonNull MessageDigest contentDigest()
+    {
+        try { return MessageDigest.getInstance("SHA-256"); }
+        catch(NoSuchAlgorithmException ex) { throw new IllegalStateException(ex); }
+    }
+    
+    // The hash of what was fed to a contentDigest, the same contentHash gives for the whole content.
+    public @NonNull String contentHash(@NonNull MessageDigest digest)
+    {
+        var hash = digest.digest();
+        var sb = new StringBuilder(hash.length * 2);
+        for(var b : hash)
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        return sb.toString();
+    }
+    
     public void writeAllBytes(@NonNull OutputStream os, byte[] data) throws IOException
     {
         int offset = 0;
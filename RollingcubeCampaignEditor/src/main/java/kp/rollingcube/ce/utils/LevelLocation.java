@@ -27,6 +27,17 @@ public class LevelLocation
     public boolean hasLevelPath() { return levelPath != null; }
     public boolean hasThumbnailPath() { return thumbnailPath != null; }
     
+    public LevelLocation relocate(Path from, Path to)
+    {
+        return new LevelLocation(name, relocatePath(levelPath, from, to), relocatePath(thumbnailPath, from, to));
+    }
+    private static Path relocatePath(Path path, Path from, Path to)
+    {
+        if(path == null || !path.startsWith(from))
+            return path;
+        return to.resolve(from.relativize(path));
+    }
+    
     public static LevelLocation find(Path path)
     {
         Path levelPath = PathUtils.changeExtension(path, "json");
@@ -0,0 +1,69 @@
+package kp.rollingcube.ce.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+
+/**
+ * Permutations given as the new position of each element: the element at i moves to permutation[i].
+ *
+ * @author Marc
+ */
+@UtilityClass
+public final class Permutations
+{
+    public void check(@NonNull int[] permutation, int size) throws IllegalArgumentException
+    {
+        if(permutation.length != size)
+            throw new IllegalArgumentException(String.format("Expected a permutation of %d elements", size));
+        
+        var used = new boolean[size];
+        for(var target : permutation)
+        {
+            if(target < 0 || target >= size || used[target])
+                throw new IllegalArgumentException(String.format("%s is not a valid permutation", Arrays.toString(permutation)));
+            used[target] = true;
+        }
+    }
+    
+    // The permutation that puts every element back where it was.
+    public int[] invert(@NonNull int[] permutation) throws IllegalArgumentException
+    {
+        check(permutation, permutation.length);
+        
+        var inverse = new int[permutation.length];
+        for(int i = 0; i < permutation.length; i++)
+            inverse[permutation[i]] = i;
+        return inverse;
+    }
+    
+    // Rearranges the elements in a single pass. Returns the first and last positions that changed, or null if none did.
+    public <T> int[] apply(@NonNull List<T> elements, @NonNull int[] permutation) throws IllegalArgumentException
+    {
+        check(permutation, elements.size());
+        
+        int first = -1;
+        int last = -1;
+        for(int i = 0; i < permutation.length; i++)
+        {
+            if(permutation[i] != i)
+            {
+                if(first < 0)
+                    first = i;
+                last = i;
+            }
+        }
+        if(first < 0)
+            return null;
+        
+        var reordered = new ArrayList<T>(Collections.nCopies(last - first + 1, null));
+        for(int i = first; i <= last; i++)
+            reordered.set(permutation[i] - first, elements.get(i));
+        for(int i = first; i <= last; i++)
+            elements.set(i, reordered.get(i - first));
+        return new int[] { first, last };
+    }
+}
@@ -0,0 +1,159 @@
+package kp.rollingcube.ce.utils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+
+/**
+ * Re-encodes PNG images as small as they can be without losing any pixel.
+ *
+ * Only the pixels are kept, every metadata chunk is dropped. Images with up to 256 colors are
+ * written with a palette, opaque ones without alpha channel, and all of them with the highest
+ * deflate level. The images may also be scaled down to fit a maximum size.
+ *
+ * @author Marc
+ */
+@UtilityClass
+public class PngOptimizer
+{
+    private final int MAX_PALETTE_COLORS = 256;
+    
+    // The smallest encoding of png, or png itself when none of the candidates is smaller.
+    // A maxSize of zero or less keeps the size of the image.
+    public @NonNull byte[] optimize(@NonNull byte[] png, int maxSize)
+    {
+        try
+        {
+            var image = IOUtils.readImage(png, 0, 0);
+            if(image == null || !hasEightBitComponents(image))
+                return png;
+            
+            int width = image.getWidth();
+            int height = image.getHeight();
+            if(maxSize > 0 && (width > maxSize || height > maxSize))
+            {
+                double ratio = Math.min((double) maxSize / width, (double) maxSize / height);
+                image = Thumbnail.scale(image, Math.max(1, (int) (width * ratio)), Math.max(1, (int) (height * ratio)));
+            }
+            
+            var best = png;
+            for(var candidate : createCandidates(image))
+            {
+                var encoded = encode(candidate);
+                if(encoded.length < best.length)
+                    best = encoded;
+            }
+            return best;
+        }
+        catch(IOException | RuntimeException ex)
+        {
+            ex.printStackTrace(System.err);
+            return png;
+        }
+    }
+    
+    // Deeper images would lose precision once converted to the 8 bit types of the candidates.
+    private boolean hasEightBitComponents(BufferedImage image)
+    {
+        for(var bits : image.getColorModel().getComponentSize())
+            if(bits > 8)
+                return false;
+        return true;
+    }
+    
+    private ArrayList<BufferedImage> createCandidates(BufferedImage image)
+    {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        var pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        
+        boolean opaque = true;
+        var palette = new HashMap<Integer, Integer>();
+        int previous = ~pixels[0];
+        for(var pixel : pixels)
+        {
+            // Runs of the same color are common in thumbnails, they are only looked up once.
+            if(pixel == previous)
+                continue;
+            previous = pixel;
+            
+            if((pixel >>> 24) != 0xff)
+                opaque = false;
+            if(palette.size() <= MAX_PALETTE_COLORS && !palette.containsKey(pixel))
+                palette.put(pixel, palette.size());
+        }
+        
+        var candidates = new ArrayList<BufferedImage>(2);
+        if(palette.size() <= MAX_PALETTE_COLORS)
+            candidates.add(createIndexed(width, height, pixels, palette));
+        
+        var direct = new BufferedImage(width, height, opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        direct.setRGB(0, 0, width, height, pixels, 0, width);
+        candidates.add(direct);
+        return candidates;
+    }
+    
+    private BufferedImage createIndexed(int width, int height, int[] pixels, HashMap<Integer, Integer> palette)
+    {
+        int size = palette.size();
+        var r = new byte[size];
+        var g = new byte[size];
+        var b = new byte[size];
+        var a = new byte[size];
+        for(var entry : palette.entrySet())
+        {
+            int color = entry.getKey();
+            int index = entry.getValue();
+            a[index] = (byte) (color >>> 24);
+            r[index] = (byte) (color >>> 16);
+            g[index] = (byte) (color >>> 8);
+            b[index] = (byte) color;
+        }
+        
+        var indices = new byte[pixels.length];
+        int previous = ~pixels[0];
+        byte index = 0;
+        for(int i = 0; i < pixels.length; i++)
+        {
+            if(pixels[i] != previous)
+            {
+                previous = pixels[i];
+                index = (byte) (int) palette.get(previous);
+            }
+            indices[i] = index;
+        }
+        
+        var image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED, new IndexColorModel(8, size, r, g, b, a));
+        image.getRaster().setDataElements(0, 0, width, height, indices);
+        return image;
+    }
+    
+    private byte[] encode(BufferedImage image) throws IOException
+    {
+        var writer = ImageIO.getImageWritersByFormatName("png").next();
+        try(var out = new ByteArrayOutputStream(); var stream = new MemoryCacheImageOutputStream(out))
+        {
+            var param = writer.getDefaultWriteParam();
+            if(param.canWriteCompressed())
+            {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(0f);
+            }
+            
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+            stream.flush();
+            return out.toByteArray();
+        }
+        finally { writer.dispose(); }
+    }
+}
@@ -0,0 +1,205 @@
+package kp.rollingcube.ce.utils;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.imageio.ImageIO;
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+
+/**
+ * Small previews of thumbnails kept on disk between sessions, one PNG per content hash.
+ *
+ * Stored thumbnails are also indexed by a key that changes whenever their file may have
+ * changed (path, size and modification time), so a campaign opened again finds its previews
+ * without reading the original images. The index is an append only log, compacted when it
+ * grows too much. The previews are evicted by last use once they go over the size cap.
+ *
+ * @author Marc
+ */
+@UtilityClass
+class PreviewCache
+{
+    public final int PREVIEW_SIZE = 256;
+    
+    private final Path FOLDER = IOUtils.getHomeDirectory().resolve(".RollingcubeCampaignEditorPreviews");
+    private final Path INDEX_FILE = FOLDER.resolve("index.txt");
+    private final long MAX_BYTES = GlobalProperties.getInt("previewCacheMegabytes", 128) * 1024L * 1024L;
+    private final int MAX_KEYS = 50000;
+    
+    private final LinkedHashMap<String, String> hashes = new LinkedHashMap<>(256, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) { return size() > MAX_KEYS; }
+    };
+    private int indexLines;
+    private long usedBytes = -1;
+    
+    static { loadIndex(); }
+    
+    public String findHash(@NonNull String storedKey)
+    {
+        synchronized(hashes)
+        {
+            return hashes.get(storedKey);
+        }
+    }
+    
+    public void putHash(@NonNull String storedKey, @NonNull String hash)
+    {
+        synchronized(hashes)
+        {
+            if(hash.equals(hashes.put(storedKey, hash)))
+                return;
+            
+            try
+            {
+                if(++indexLines > 2 * Math.max(hashes.size(), 1024))
+                    compactIndex();
+                else
+                {
+                    Files.createDirectories(FOLDER);
+                    Files.writeString(INDEX_FILE, storedKey + '\t' + hash + '\n', StandardCharsets.UTF_8,
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                }
+            }
+            catch(IOException ex) { ex.printStackTrace(System.err); }
+        }
+    }
+    
+    public BufferedImage read(@NonNull String hash)
+    {
+        var file = FOLDER.resolve(hash + ".png");
+        try
+        {
+            if(!Files.isRegularFile(file))
+                return null;
+            
+            var image = IOUtils.readImage(file);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return image;
+        }
+        catch(IOException ex) { return null; }
+    }
+    
+    public void write(@NonNull String hash, @NonNull BufferedImage preview)
+    {
+        var file = FOLDER.resolve(hash + ".png");
+        var temp = FOLDER.resolve(hash + ".png." + Thread.currentThread().getId() + ".tmp");
+        try
+        {
+            Files.createDirectories(FOLDER);
+            ImageIO.write(preview, "png", temp.toFile());
+            try { Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE); }
+            catch(AtomicMoveNotSupportedException ex) { Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING); }
+            
+            synchronized(FOLDER)
+            {
+                if(usedBytes < 0)
+                    usedBytes = measureFolder();
+                else
+                    usedBytes += Files.size(file);
+                
+                if(usedBytes > MAX_BYTES)
+                    evictLeastRecentlyUsed();
+            }
+        }
+        catch(IOException ex)
+        {
+            ex.printStackTrace(System.err);
+            try { Files.deleteIfExists(temp); }
+            catch(IOException ex2) {}
+        }
+    }
+    
+    // Scaled to fit in a PREVIEW_SIZE square keeping its aspect ratio, or the image itself if it already fits.
+    public @NonNull BufferedImage createPreview(@NonNull BufferedImage image)
+    {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if(width <= PREVIEW_SIZE && height <= PREVIEW_SIZE)
+            return image;
+        
+        double ratio = Math.min((double) PREVIEW_SIZE / width, (double) PREVIEW_SIZE / height);
+        return Thumbnail.scale(image, Math.max(1, (int) (width * ratio)), Math.max(1, (int) (height * ratio)));
+    }
+    
+    private void evictLeastRecentlyUsed() throws IOException
+    {
+        var previews = new ArrayList<Path>();
+        try(var files = Files.list(FOLDER))
+        {
+            files.filter(file -> file.getFileName().toString().endsWith(".png")).forEach(previews::add);
+        }
+        previews.sort(Comparator.comparing(PreviewCache::lastModified));
+        
+        // Down to three quarters of the cap, so eviction does not run again on every new preview.
+        for(int i = 0; i < previews.size() && usedBytes > MAX_BYTES * 3 / 4; i++)
+        {
+            var file = previews.get(i);
+            long size = Files.size(file);
+            Files.deleteIfExists(file);
+            usedBytes -= size;
+        }
+    }
+    
+    private long measureFolder() throws IOException
+    {
+        try(var files = Files.list(FOLDER))
+        {
+            return files.filter(file -> file.getFileName().toString().endsWith(".png"))
+                    .mapToLong(file -> file.toFile().length())
+                    .sum();
+        }
+    }
+    
+    private FileTime lastModified(Path file)
+    {
+        try { return Files.getLastModifiedTime(file); }
+        catch(IOException ex) { return FileTime.fromMillis(0); }
+    }
+    
+    private void compactIndex() throws IOException
+    {
+        var sb = new StringBuilder(hashes.size() * 128);
+        for(var entry : hashes.entrySet())
+            sb.append(entry.getKey()).append('\t').append(entry.getValue()).append('\n');
+        
+        var temp = INDEX_FILE.resolveSibling(INDEX_FILE.getFileName() + ".tmp");
+        Files.writeString(temp, sb, StandardCharsets.UTF_8);
+        try { Files.move(temp, INDEX_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE); }
+        catch(AtomicMoveNotSupportedException ex) { Files.move(temp, INDEX_FILE, StandardCopyOption.REPLACE_EXISTING); }
+        indexLines = hashes.size();
+    }
+    
+    private void loadIndex()
+    {
+        if(!Files.isRegularFile(INDEX_FILE))
+            return;
+        
+        try(var lines = Files.lines(INDEX_FILE, StandardCharsets.UTF_8))
+        {
+            lines.forEach(line -> {
+                int separator = line.lastIndexOf('\t');
+                if(separator > 0)
+                    hashes.put(line.substring(0, separator), line.substring(separator + 1));
+                indexLines++;
+            });
+        }
+        catch(IOException | RuntimeException ex)
+        {
+            hashes.clear();
+            indexLines = 0;
+        }
+    }
+}
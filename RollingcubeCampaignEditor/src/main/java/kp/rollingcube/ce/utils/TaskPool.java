@@ -0,0 +1,109 @@
+package kp.rollingcube.ce.utils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.NonNull;
+
+/**
+ *
+ * @author Marc
+ */
+public final class TaskPool implements AutoCloseable
+{
+    private final ExecutorService executor;
+    private final ArrayList<Future<?>> pending = new ArrayList<>();
+    private IOException inlineError;
+    
+    // A pool with a single thread runs every task inline on the caller thread.
+    public TaskPool(int threads, @NonNull String name)
+    {
+        if(threads <= 1)
+            this.executor = null;
+        else
+        {
+            var counter = new AtomicInteger(0);
+            this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+                var thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+    public TaskPool(@NonNull String name) { this(defaultParallelism(), name); }
+    
+    public static int defaultParallelism() { return Math.max(1, Runtime.getRuntime().availableProcessors()); }
+    
+    public boolean isParallel() { return executor != null; }
+    
+    public synchronized void submit(@NonNull Task task)
+    {
+        if(executor == null)
+        {
+            if(inlineError != null)
+                return;
+            
+            try { task.run(); }
+            catch(IOException ex) { inlineError = ex; }
+            return;
+        }
+        
+        pending.add(executor.submit(() -> { task.run(); return null; }));
+    }
+    
+    // Waits for every submitted task. The first failure cancels the rest and is rethrown here.
+    public void await() throws IOException, InterruptedException
+    {
+        ArrayList<Future<?>> tasks;
+        synchronized(this)
+        {
+            if(inlineError != null)
+                throw inlineError;
+            
+            tasks = new ArrayList<>(pending);
+            pending.clear();
+        }
+        
+        for(var task : tasks)
+        {
+            try { task.get(); }
+            catch(CancellationException ex) {}
+            catch(ExecutionException ex)
+            {
+                tasks.forEach(t -> t.cancel(true));
+                var cause = ex.getCause();
+                if(cause instanceof IOException)
+                    throw (IOException) cause;
+                if(cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                if(cause instanceof Error)
+                    throw (Error) cause;
+                throw new IOException(cause);
+            }
+            catch(InterruptedException ex)
+            {
+                tasks.forEach(t -> t.cancel(true));
+                throw ex;
+            }
+        }
+    }
+    
+    @Override
+    public void close()
+    {
+        if(executor != null)
+            executor.shutdownNow();
+    }
+    
+    
+    @FunctionalInterface
+    public static interface Task
+    {
+        void run() throws IOException;
+    }
+}
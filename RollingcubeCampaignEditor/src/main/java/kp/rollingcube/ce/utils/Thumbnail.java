@@ -1,47 +1,86 @@
 package kp.rollingcube.ce.utils;
 
 import java.awt.Graphics;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.awt.image.ImageObserver;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.Optional;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.IntSupplier;
-import javax.imageio.ImageIO;
 import lombok.NonNull;
 
 /**
+ * Image decoded in the background from the bytes of a thumbnail.
+ *
+ * Every thumbnail is decoded by a shared pool with a few threads. A new thumbnail is queued
+ * behind the ones already waiting, but the first time it is drawn it jumps ahead of every
+ * thumbnail that has not been drawn yet, so the visible ones come first.
+ *
+ * The image is scaled once to the size it is drawn at and kept in the ThumbnailCache, so
+ * repaints only copy pixels and panels rebuilt later skip the decode. When the size changes,
+ * the old image is stretched until the one for the new size is ready. Small previews are
+ * also kept on disk by the PreviewCache, so reopening a campaign shows its thumbnails
+ * without reading or decoding the original images.
  *
  * @author Marc
  */
 public final class Thumbnail
 {
+    private static final long NO_SIZE = -1;
+    
+    private static final int BACKGROUND_PRIORITY = 0;
+    private static final int VISIBLE_PRIORITY = 1;
+    
+    private static final ThreadPoolExecutor DECODER = createDecoder();
+    private static final AtomicLong SEQUENCE = new AtomicLong(0);
+    
     private final AtomicReference<BufferedImage> image = new AtomicReference<>(null);
-    private final @NonNull byte[] data;
+    private final AtomicLong requestedSize = new AtomicLong(NO_SIZE);
+    private final AtomicBoolean cancelled = new AtomicBoolean(false);
+    private final AtomicBoolean drawn = new AtomicBoolean(false);
+    private long builtSize = NO_SIZE;
+    private String hash;
+    private BufferedImage unscaled;
+    private final Source source;
     private final @NonNull IntSupplier widthGet;
     private final @NonNull IntSupplier heightGet;
     private final Consumer<Thumbnail> onLoadFinishedCallback;
     
     public Thumbnail(
-            byte[] data,
+            Source source,
             @NonNull IntSupplier widthGet,
             @NonNull IntSupplier heightGet,
             Consumer<Thumbnail> onLoadFinishedCallback)
     {
-        this.data = data;
+        this.source = source;
         this.widthGet = widthGet;
         this.heightGet = heightGet;
         this.onLoadFinishedCallback = onLoadFinishedCallback;
         
-        if(data != null)
+        if(source != null)
         {
-            var thread = new Thread(this::loadImage);
-            thread.start();
+            requestedSize.set(packSize(widthGet.getAsInt(), heightGet.getAsInt()));
+            schedule(BACKGROUND_PRIORITY);
         }
     }
     
+    public Thumbnail(
+            byte[] data,
+            @NonNull IntSupplier widthGet,
+            @NonNull IntSupplier heightGet,
+            Consumer<Thumbnail> onLoadFinishedCallback)
+    {
+        this(data == null ? null : Source.of(data), widthGet, heightGet, onLoadFinishedCallback);
+    }
+    
     public Thumbnail(
             Optional<byte[]> data,
             @NonNull IntSupplier widthGet,
@@ -53,28 +92,226 @@ public final class Thumbnail
     
     public void draw(Graphics g, ImageObserver observer)
     {
+        int width = widthGet.getAsInt();
+        int height = heightGet.getAsInt();
         var bi = image.get();
         if(bi != null)
-            g.drawImage(bi, 0, 0, widthGet.getAsInt(), heightGet.getAsInt(), observer);
+            g.drawImage(bi, 0, 0, width, height, observer);
+        
+        if(source == null)
+            return;
+        
+        boolean resumed = cancelled.getAndSet(false);
+        boolean resized = requestedSize.getAndSet(packSize(width, height)) != packSize(width, height);
+        if(!drawn.getAndSet(true) || resized || resumed)
+            schedule(VISIBLE_PRIORITY);
+    }
+    
+    // Drops the decode if it has not started yet. Drawing the thumbnail again queues it back.
+    public void cancel()
+    {
+        cancelled.set(true);
+        drawn.set(false);
     }
     
-    private void loadImage()
+    private void schedule(int priority)
     {
-        try(var bais = new ByteArrayInputStream(data))
+        DECODER.execute(new DecodeRequest(this, priority, SEQUENCE.getAndIncrement()));
+    }
+    
+    private void decode()
+    {
+        synchronized(this)
         {
-            if(data == null)
+            long size = requestedSize.get();
+            if(cancelled.get() || size == builtSize)
                 return;
             
-            image.set(ImageIO.read(bais));
+            var bi = buildImage(unpackWidth(size), unpackHeight(size));
+            if(bi != null)
+                image.set(bi);
+            builtSize = size;
+        }
+        
+        if(onLoadFinishedCallback != null)
+            onLoadFinishedCallback.accept(this);
+    }
+    
+    // A stored image whose hash is already indexed by the PreviewCache is never read while a
+    // preview or a cached scaled image covers the size it is drawn at.
+    private BufferedImage buildImage(int width, int height)
+    {
+        var original = new Original();
+        if(hash == null)
+        {
+            var storedKey = source.getStoredKey();
+            hash = storedKey == null ? null : PreviewCache.findHash(storedKey);
+            if(hash == null)
+            {
+                var data = original.get();
+                if(data == null)
+                    return null;
+                
+                hash = IOUtils.contentHash(data);
+                if(storedKey != null)
+                    PreviewCache.putHash(storedKey, hash);
+            }
         }
-        catch(IOException ex)
+        
+        // Until the panel has a size, any cached size of the same image will do. Otherwise the
+        // image is kept as decoded, without caching it, and scaled once the size is known.
+        if(width <= 0 || height <= 0)
         {
+            var cached = ThumbnailCache.getAnySize(hash);
+            if(cached == null)
+                cached = PreviewCache.read(hash);
+            if(cached != null)
+                return cached;
             
+            unscaled = decodeOriginal(original, 0, 0);
+            return unscaled;
         }
-        finally
+        
+        var cached = ThumbnailCache.get(hash, width, height);
+        if(cached != null)
+            return cached;
+        
+        var decoded = unscaled != null && unscaled.getWidth() >= width && unscaled.getHeight() >= height ? unscaled : null;
+        unscaled = null;
+        if(decoded == null && width <= PreviewCache.PREVIEW_SIZE && height <= PreviewCache.PREVIEW_SIZE)
+            decoded = PreviewCache.read(hash);
+        if(decoded == null)
+            decoded = decodeOriginal(original, width, height);
+        if(decoded == null)
+            return null;
+        
+        var scaled = scale(decoded, width, height);
+        ThumbnailCache.put(hash, scaled);
+        return scaled;
+    }
+    
+    // Decoded at least large enough for a preview too, which is stored for the next time.
+    private BufferedImage decodeOriginal(Original original, int width, int height)
+    {
+        var data = original.get();
+        if(data == null)
+            return null;
+        
+        try
+        {
+            var decoded = width <= 0 || height <= 0
+                    ? IOUtils.readImage(data, 0, 0)
+                    : IOUtils.readImage(data, Math.max(width, PreviewCache.PREVIEW_SIZE), Math.max(height, PreviewCache.PREVIEW_SIZE));
+            if(decoded != null)
+                PreviewCache.write(hash, PreviewCache.createPreview(decoded));
+            return decoded;
+        }
+        catch(IOException ex) { return null; }
+    }
+    
+    // Halving in steps keeps the bilinear filter from skipping pixels on large reductions.
+    static BufferedImage scale(BufferedImage source, int width, int height)
+    {
+        var current = source;
+        int w = source.getWidth();
+        int h = source.getHeight();
+        do
+        {
+            w = w / 2 >= width ? w / 2 : width;
+            h = h / 2 >= height ? h / 2 : height;
+            
+            var next = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+            var g = next.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(current, 0, 0, w, h, null);
+            g.dispose();
+            current = next;
+        }
+        while(w != width || h != height);
+        
+        return current;
+    }
+    
+    private static long packSize(int width, int height) { return ((long) Math.max(0, width) << 32) | Math.max(0, height); }
+    private static int unpackWidth(long size) { return (int) (size >>> 32); }
+    private static int unpackHeight(long size) { return (int) size; }
+    
+    private static ThreadPoolExecutor createDecoder()
+    {
+        // Decoding is CPU bound and the EDT needs a core of its own.
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        var counter = new AtomicInteger(0);
+        var executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), runnable -> {
+            var thread = new Thread(runnable, "thumbnail-decoder-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+    
+    
+    // Where the bytes of the image come from. Reading them may hit the disk, so it is only
+    // done by the decoding threads and only when the caches cannot stand in for them.
+    public static interface Source
+    {
+        // Changes whenever the stored image may have changed. Null for images only held in memory.
+        String getStoredKey();
+        
+        byte[] read() throws IOException;
+        
+        static @NonNull Source of(@NonNull byte[] data)
+        {
+            return new Source()
+            {
+                @Override public String getStoredKey() { return null; }
+                @Override public byte[] read() { return data; }
+            };
+        }
+    }
+    
+    // Bytes of the image, read at most once per build.
+    private final class Original
+    {
+        private boolean read;
+        private byte[] data;
+        
+        private byte[] get()
+        {
+            if(!read)
+            {
+                read = true;
+                try { data = source.read(); }
+                catch(IOException ex) { data = null; }
+            }
+            return data;
+        }
+    }
+    
+    private static final class DecodeRequest implements Runnable, Comparable<DecodeRequest>
+    {
+        private final Thumbnail thumbnail;
+        private final int priority;
+        private final long sequence;
+        
+        private DecodeRequest(Thumbnail thumbnail, int priority, long sequence)
+        {
+            this.thumbnail = thumbnail;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+        
+        @Override
+        public void run() { thumbnail.decode(); }
+        
+        // Higher priority first, then the order in which they were requested.
+        @Override
+        public int compareTo(DecodeRequest other)
         {
-            if(onLoadFinishedCallback != null)
-                onLoadFinishedCallback.accept(this);
+            if(priority != other.priority)
+                return Integer.compare(other.priority, priority);
+            return Long.compare(sequence, other.sequence);
         }
     }
 }
@@ -0,0 +1,72 @@
+package kp.rollingcube.ce.utils;
+
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import lombok.NonNull;
+import lombok.experimental.UtilityClass;
+
+/**
+ * Thumbnail images already scaled to the size they are drawn at, shared by every panel.
+ * Entries are keyed by the hash of the encoded image and the target size, and the least
+ * recently used ones are evicted once the images held go over the memory budget.
+ *
+ * @author Marc
+ */
+@UtilityClass
+class ThumbnailCache
+{
+    private final long BUDGET = GlobalProperties.getInt("thumbnailCacheMegabytes", 64) * 1024L * 1024L;
+    
+    private final LinkedHashMap<String, BufferedImage> images = new LinkedHashMap<>(256, 0.75f, true);
+    private final HashMap<String, BufferedImage> latestByHash = new HashMap<>();
+    private long usedBytes;
+    
+    public BufferedImage get(@NonNull String hash, int width, int height)
+    {
+        synchronized(images)
+        {
+            return images.get(key(hash, width, height));
+        }
+    }
+    
+    // The last cached size of the image, for callers that do not know yet at which size it is drawn.
+    public BufferedImage getAnySize(@NonNull String hash)
+    {
+        synchronized(images)
+        {
+            return latestByHash.get(hash);
+        }
+    }
+    
+    public void put(@NonNull String hash, @NonNull BufferedImage image)
+    {
+        long size = sizeOf(image);
+        if(size > BUDGET)
+            return;
+        
+        synchronized(images)
+        {
+            var previous = images.put(key(hash, image.getWidth(), image.getHeight()), image);
+            if(previous != null)
+                usedBytes -= sizeOf(previous);
+            usedBytes += size;
+            latestByHash.put(hash, image);
+            
+            var eldest = images.entrySet().iterator();
+            while(usedBytes > BUDGET && eldest.hasNext())
+            {
+                var entry = eldest.next();
+                usedBytes -= sizeOf(entry.getValue());
+                eldest.remove();
+                
+                var entryHash = entry.getKey().substring(0, entry.getKey().indexOf(':'));
+                latestByHash.remove(entryHash, entry.getValue());
+            }
+        }
+    }
+    
+    private String key(String hash, int width, int height) { return hash + ':' + width + 'x' + height; }
+    
+    private long sizeOf(BufferedImage image) { return 4L * image.getWidth() * image.getHeight(); }
+}
@@ -1,6 +1,7 @@
 package kp.rollingcube.ce.utils;
 
 import com.formdev.flatlaf.FlatDarkLaf;
+import java.awt.Component;
 import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.Image;
@@ -9,8 +10,10 @@ import java.awt.Toolkit;
 import java.awt.Window;
 import java.io.IOException;
 import javax.imageio.ImageIO;
+import javax.swing.AbstractButton;
 import javax.swing.JDialog;
 import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
 import javax.swing.UnsupportedLookAndFeelException;
 import lombok.NonNull;
@@ -58,6 +61,18 @@ public final class UIUtils
         dialog.setLocation(p);
     }
     
+    // Clicks the enabled button at x, y of a component that is only painted, such as a list cell,
+    // so it reacts to the mouse like a live one. Returns false when there is no such button.
+    public boolean clickButtonAt(@NonNull Component component, int x, int y)
+    {
+        var target = SwingUtilities.getDeepestComponentAt(component, x, y);
+        if(!(target instanceof AbstractButton) || !target.isEnabled())
+            return false;
+        
+        ((AbstractButton) target).doClick(0);
+        return true;
+    }
+    
     public void setIcon(@NonNull JFrame frame)
     {
         if(LOGO == null)
@@ -0,0 +1,106 @@
+package kp.rollingcube.ce.campaign;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import kp.rollingcube.ce.utils.DirectoryUtils;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ *
+ * @author Marc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CampaignBenchmark
+{
+    @Param({ "3", "10" })
+    private int episodes;
+    
+    @Param({ "20" })
+    private int levels;
+    
+    @Param({ "500" })
+    private int blocks;
+    
+    // Both variants load through the metadata cache the setup load filled. A lazy load finds the
+    // metadata of every level there and reads no level file, an eager one still reads every
+    // payload and only skips scanning it. Neither measures a load with a cold cache.
+    @Param({ "true", "false" })
+    private boolean lazy;
+    
+    private Path work;
+    private Path folder;
+    private Campaign campaign;
+    private final ArrayList<JSONObject> episodesJson = new ArrayList<>();
+    private final ArrayList<String> levelsData = new ArrayList<>();
+    
+    @Setup
+    public void setup() throws IOException
+    {
+        work = SyntheticCampaign.createWorkFolder();
+        folder = SyntheticCampaign.create(work.resolve("campaign"), episodes, levels, blocks);
+        campaign = SyntheticCampaign.load(folder, lazy);
+        for(var episode : campaign.getEpisodes())
+        {
+            episodesJson.add(episode.toJson());
+            for(int i = 0; i < episode.getNormalLevelsCount(); i++)
+                levelsData.add(episode.getNormalLevel(i).getData().orElseThrow());
+        }
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException { DirectoryUtils.deleteRecursively(work); }
+    
+    @Benchmark
+    public Campaign load() { return SyntheticCampaign.load(folder, lazy); }
+    
+    // Scans the normal levels of the campaign. The levels only scan their data once, so their
+    // own metadata would be read back already computed.
+    @Benchmark
+    public int metadata()
+    {
+        int found = 0;
+        for(var data : levelsData)
+        {
+            var result = LevelDataScanner.scan(data);
+            if(result.hasFruit())
+                found++;
+            if(result.getSecretExit() != null)
+                found++;
+        }
+        return found;
+    }
+    
+    @Benchmark
+    public void episodeToJson(Blackhole blackhole)
+    {
+        for(var episode : campaign.getEpisodes())
+            blackhole.consume(episode.toJson());
+    }
+    
+    @Benchmark
+    public void episodeFromJson(Blackhole blackhole)
+    {
+        for(int i = 0; i < episodesJson.size(); i++)
+            blackhole.consume(Episode.createFromJson(campaign, i, episodesJson.get(i)));
+    }
+}
@@ -0,0 +1,88 @@
+package kp.rollingcube.ce.campaign;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import kp.rollingcube.ce.utils.DirectoryUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Every save starts from a freshly loaded campaign. A save takes milliseconds, far above
+ * the cost JMH adds for the per invocation setup.
+ *
+ * @author Marc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CampaignSaveBenchmark
+{
+    @Param({ "3", "10" })
+    private int episodes;
+    
+    @Param({ "20" })
+    private int levels;
+    
+    @Param({ "500" })
+    private int blocks;
+    
+    // "folder" and "link" save as into a new folder, copying or hard linking the level files,
+    // "pack" writes a campaign pack and "changes" saves a swap of two levels per episode in place.
+    @Param({ "folder", "link", "pack", "changes" })
+    private String target;
+    
+    private Path work;
+    private Path folder;
+    private Path output;
+    private Campaign campaign;
+    
+    @Setup
+    public void setup() throws IOException
+    {
+        work = SyntheticCampaign.createWorkFolder();
+        folder = SyntheticCampaign.create(work.resolve("campaign"), episodes, levels, blocks);
+        output = "changes".equals(target) ? folder : work.resolve("pack".equals(target) ? "output." + CampaignPack.EXTENSION : "output");
+    }
+    
+    @Setup(org.openjdk.jmh.annotations.Level.Invocation)
+    public void prepareSave() throws IOException
+    {
+        if(!output.equals(folder))
+        {
+            DirectoryUtils.deleteRecursively(output);
+            Files.deleteIfExists(output);
+        }
+        
+        campaign = SyntheticCampaign.load(folder, true);
+        if(output.equals(folder))
+        {
+            for(var episode : campaign.getEpisodes())
+                episode.swapNormalLevels(0, 1);
+        }
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException { DirectoryUtils.deleteRecursively(work); }
+    
+    @Benchmark
+    public Campaign save()
+    {
+        SyntheticCampaign.save(campaign, output, "link".equals(target));
+        return campaign;
+    }
+}
@@ -0,0 +1,55 @@
+package kp.rollingcube.ce.campaign;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * @author Marc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LevelDataScanBenchmark
+{
+    @Param({ "500", "5000" })
+    private int blocks;
+    
+    // Where the fruit and the secret exit sit inside the level: "start", "end" or "none".
+    @Param({ "start", "end", "none" })
+    private String placement;
+    
+    private String level;
+    
+    @Setup
+    public void setup()
+    {
+        int target;
+        switch(placement)
+        {
+            case "start": target = 0; break;
+            case "end": target = blocks - 1; break;
+            default: target = -1; break;
+        }
+        level = SyntheticCampaign.level(blocks, target, target, "secret1");
+    }
+    
+    @Benchmark
+    public Object jsonTokener() { return LevelDataScanner.scanTree(level); }
+    
+    @Benchmark
+    public Object streaming() { return LevelDataScanner.scanStreaming(level); }
+}
@@ -0,0 +1,173 @@
+package kp.rollingcube.ce.campaign;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.imageio.ImageIO;
+import kp.rollingcube.ce.utils.TaskPool;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Builds campaigns on disk with the same layout the editor saves, for the benchmarks.
+ *
+ * Every level gets its own block data and thumbnail. One level out of four holds a fruit and
+ * one out of eight a secret exit, at a random block.
+ *
+ * @author Marc
+ */
+final class SyntheticCampaign
+{
+    static final int THUMBNAIL_WIDTH = 320;
+    static final int THUMBNAIL_HEIGHT = 240;
+    
+    private SyntheticCampaign() {}
+    
+    // Temporary folder for a benchmark run. The home folder is moved there too, so the level
+    // metadata cache of the benchmarks never mixes with the one of the editor.
+    static Path createWorkFolder() throws IOException
+    {
+        var folder = Files.createTempDirectory("rcce-benchmark-");
+        System.setProperty("user.home", folder.toString());
+        return folder;
+    }
+    
+    static Campaign load(Path folder, boolean lazy)
+    {
+        var state = Campaign.load(folder, TaskPool.defaultParallelism(), lazy);
+        run(state);
+        return state.getCampaign();
+    }
+    
+    static void save(Campaign campaign, Path target, boolean linkFiles)
+    {
+        run(campaign.save(target, linkFiles));
+    }
+    
+    private static void run(CampaingLoadSaveState state)
+    {
+        var error = new AtomicReference<String>();
+        state.setOnFinishCallback(result -> error.set(result.hasError() ? result.getError() : null));
+        state.start();
+        state.waitUntilFinished();
+        if(error.get() != null)
+            throw new IllegalStateException(error.get());
+    }
+    
+    static Path create(Path folder, int episodes, int levels, int blocks) throws IOException
+    {
+        var random = new Random(31L * episodes + levels);
+        int bonusLevels = Math.max(1, levels / 5);
+        int secretLevels = Math.max(1, levels / 10);
+        
+        var episodesJson = new JSONArray();
+        for(int e = 0; e < episodes; e++)
+        {
+            var name = "Episode " + (e + 1);
+            var episode = Files.createDirectories(folder.resolve(name));
+            
+            var normal = Files.createDirectories(episode.resolve(LevelType.NORMAL.getFolderName()));
+            for(int i = 0; i < levels; i++)
+                writeLevel(normal, Integer.toString(i + 1), blocks, secretLevels, random);
+            
+            var bonus = Files.createDirectories(episode.resolve(LevelType.BONUS.getFolderName()));
+            for(int i = 0; i < bonusLevels; i++)
+                writeLevel(bonus, Integer.toString(i + 1), blocks, secretLevels, random);
+            
+            var secret = Files.createDirectories(episode.resolve(LevelType.SECRET.getFolderName()));
+            var secretsJson = new JSONObject();
+            for(int i = 0; i < secretLevels; i++)
+            {
+                writeLevel(secret, "secret" + (i + 1), blocks, secretLevels, random);
+                secretsJson.put("secret" + (i + 1), new JSONObject().put("oneTry", false).put("penalty", false));
+            }
+            
+            Files.write(episode.resolve("thumbnail.png"), thumbnail(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, random.nextLong()));
+            episodesJson.put(new JSONObject()
+                    .put("name", name)
+                    .put("normalLevels", levels)
+                    .put("bonusLevels", bonusLevels)
+                    .put("secretLevels", secretsJson));
+        }
+        
+        var json = new JSONObject()
+                .put("name", "Synthetic")
+                .put("requiredFruitsToBonus", 3)
+                .put("levelsUntilSaveGame", 5)
+                .put("episodes", episodesJson);
+        Files.writeString(folder.resolve("campaign.json"), json.toString(4), StandardCharsets.UTF_8);
+        Files.write(folder.resolve("campaign.png"), thumbnail(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, random.nextLong()));
+        return folder;
+    }
+    
+    private static void writeLevel(Path folder, String name, int blocks, int secretLevels, Random random) throws IOException
+    {
+        int fruitBlock = random.nextInt(4) == 0 ? random.nextInt(blocks) : -1;
+        int exitBlock = random.nextInt(8) == 0 ? random.nextInt(blocks) : -1;
+        var exitTarget = "secret" + (random.nextInt(secretLevels) + 1);
+        
+        Files.writeString(folder.resolve(name + ".json"), level(blocks, fruitBlock, exitBlock, exitTarget), StandardCharsets.UTF_8);
+        Files.write(folder.resolve(name + ".png"), thumbnail(THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, random.nextLong()));
+    }
+    
+    // Blocks with six textured sides each, as the game exports them. Negative block indices leave the level without fruit or secret exit.
+    static String level(int blocks, int fruitBlock, int exitBlock, String exitTarget)
+    {
+        var sb = new StringBuilder(blocks * 700);
+        sb.append("{\"name\":\"benchmark\",\"version\":3,\"blocks\":[");
+        for(int i = 0; i < blocks; i++)
+        {
+            if(i > 0)
+                sb.append(',');
+            
+            sb.append("{\"position\":[").append(i % 32).append(',').append((i / 32) % 32).append(',').append(i / 1024).append("]");
+            appendSide(sb, "up", i == fruitBlock ? "\"item\":{\"template\":\"Fruit\",\"properties\":{}}," : "");
+            appendSide(sb, "down", "");
+            appendSide(sb, "left", "");
+            appendSide(sb, "right", "");
+            if(i == exitBlock)
+                sb.append(",\"front\":{\"template\":\"Exit\",\"properties\":{\"Secret\":\"true\",\"NextLevel\":\"").append(exitTarget).append("\"}}");
+            else
+                appendSide(sb, "front", "");
+            appendSide(sb, "back", "");
+            sb.append('}');
+        }
+        sb.append("]}");
+        return sb.toString();
+    }
+    
+    private static void appendSide(StringBuilder sb, String side, String extra)
+    {
+        sb.append(",\"").append(side).append("\":{").append(extra)
+                .append("\"template\":\"Ground\",\"properties\":{\"Color\":\"#7f7f7f\",\"Friction\":0.8,\"Ice\":false}}");
+    }
+    
+    // A gradient with some noise over it, which compresses about as badly as a real screenshot.
+    static byte[] thumbnail(int width, int height, long seed)
+    {
+        var random = new Random(seed);
+        var image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        var g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, new Color(random.nextInt(0xffffff)), width, height, new Color(random.nextInt(0xffffff))));
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+        
+        for(int i = 0, count = width * height / 8; i < count; i++)
+            image.setRGB(random.nextInt(width), random.nextInt(height), random.nextInt(0xffffff));
+        
+        try(var out = new ByteArrayOutputStream())
+        {
+            ImageIO.write(image, "png", out);
+            return out.toByteArray();
+        }
+        catch(IOException ex) { throw new UncheckedIOException(ex); }
+    }
+}
@@ -0,0 +1,79 @@
+package kp.rollingcube.ce.campaign;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import kp.rollingcube.ce.utils.DirectoryUtils;
+import kp.rollingcube.ce.utils.IOUtils;
+import kp.rollingcube.ce.utils.Thumbnail;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ *
+ * @author Marc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThumbnailBenchmark
+{
+    @Param({ "160", "320", "1280" })
+    private int width;
+    
+    private Path work;
+    private byte[] png;
+    private long invocations;
+    
+    // The previews written by the thumbnails go to the work folder, not to the ones of the editor.
+    @Setup
+    public void setup() throws IOException
+    {
+        work = SyntheticCampaign.createWorkFolder();
+        png = SyntheticCampaign.thumbnail(width, width * 3 / 4, width);
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException { DirectoryUtils.deleteRecursively(work); }
+    
+    // Time from building a thumbnail never seen before until its image is ready to be drawn. A
+    // counter after the end of the image gives every invocation its own content hash, so neither
+    // the scaled images nor the previews cached by the previous ones are found.
+    @Benchmark
+    public Thumbnail thumbnail() throws InterruptedException
+    {
+        var unique = Arrays.copyOf(png, png.length + Long.BYTES);
+        ByteBuffer.wrap(unique, png.length, Long.BYTES).putLong(invocations++);
+        
+        var loaded = new CountDownLatch(1);
+        var thumbnail = new Thumbnail(unique, () -> width, () -> width * 3 / 4, t -> loaded.countDown());
+        loaded.await();
+        return thumbnail;
+    }
+    
+    @Benchmark
+    public BufferedImage imageIO() throws IOException { return ImageIO.read(new ByteArrayInputStream(png)); }
+    
+    // Decode for a card about 150 pixels wide.
+    @Benchmark
+    public BufferedImage subsampled() throws IOException { return IOUtils.readImage(png, 150, 112); }
+}